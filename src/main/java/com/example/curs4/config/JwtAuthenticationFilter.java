@@ -1,12 +1,14 @@
 package com.example.curs4.config;
 
 import com.example.curs4.service.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -24,6 +26,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtTokenProvider jwtTokenProvider;
     private final UserDetailsServiceImpl userDetailsService;
+    private final SecurityVersionRegistry securityVersionRegistry;
+
+    // Собирать principal из claims токена вместо запроса пользователя из БД
+    @Value("${app.jwt.stateless-principal:false}")
+    private boolean statelessPrincipal;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -40,19 +47,24 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 log.debug("JWT token found, length = {}", jwt.length());
 
                 try {
-                    if (jwtTokenProvider.validateToken(jwt)) {
-                        String username = jwtTokenProvider.getUsernameFromToken(jwt);
+                    // Одна проверка подписи на запрос (или ни одной, если токен уже в кэше)
+                    Claims claims = jwtTokenProvider.parseToken(jwt);
+                    if (claims != null) {
+                        String username = claims.getSubject();
                         log.debug("Valid JWT for user: {}", username);
 
-                        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-
-                        UsernamePasswordAuthenticationToken authentication =
-                                new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                        UserDetails userDetails = resolveUserDetails(claims, username);
+                        if (userDetails != null) {
+                            UsernamePasswordAuthenticationToken authentication =
+                                    new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
+                            authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
+                            SecurityContextHolder.getContext().setAuthentication(authentication);
 
-                        log.debug("Authentication set for user: {}", username);
+                            log.debug("Authentication set for user: {}", username);
+                        } else {
+                            log.warn("Stale JWT token for user: {}", username);
+                        }
                     } else {
                         log.warn("Invalid JWT token");
                         // Не очищаем SecurityContext, пусть другие фильтры обрабатывают
@@ -72,6 +84,26 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    private UserDetails resolveUserDetails(Claims claims, String username) {
+        if (statelessPrincipal) {
+            Number userId = claims.get(JwtTokenProvider.USER_ID_CLAIM, Number.class);
+            // Токены, выпущенные до хранения версии в БД, несли строковую версию — они проверяются по БД
+            Object tokenVersion = claims.get(JwtTokenProvider.SECURITY_VERSION_CLAIM);
+            Long id = userId != null ? userId.longValue() : null;
+
+            Boolean current = securityVersionRegistry.isCurrent(id,
+                    tokenVersion instanceof Number version ? version : null);
+            if (Boolean.TRUE.equals(current)) {
+                return UserDetailsServiceImpl.UserDetailsImpl.fromClaims(id, username, claims.get("roles", String.class));
+            }
+            if (Boolean.FALSE.equals(current)) {
+                return null;
+            }
+            // Токен без версии — проверяем пользователя по БД
+        }
+        return userDetailsService.loadUserByUsername(username);
+    }
+
     private String getJwtFromRequest(HttpServletRequest request) {
         String bearerToken = request.getHeader("Authorization");
         if (StringUtils.hasText(bearerToken) && bearerToken.startsWith("Bearer ")) {
@@ -1,5 +1,6 @@
 package com.example.curs4.config;
 
+import com.example.curs4.service.UserDetailsServiceImpl;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import lombok.extern.slf4j.Slf4j;
@@ -7,23 +8,57 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Component
 @Slf4j  // Добавьте аннотацию
 public class JwtTokenProvider {
 
-    @Value("${app.jwt.secret}")
-    private String jwtSecret;
+    public static final String USER_ID_CLAIM = "uid";
+    public static final String SECURITY_VERSION_CLAIM = "sv";
 
-    @Value("${app.jwt.expiration}")
-    private int jwtExpirationInMs;
+    // Ключ и парсер неизменяемы и потокобезопасны — строим один раз при старте
+    private final SecretKey signingKey;
+    private final JwtParser jwtParser;
+    private final int jwtExpirationInMs;
+    private final int verifiedTokenCacheSize;
+    private final SecurityVersionRegistry securityVersionRegistry;
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes());
+    // Уже проверенные токены: SHA-256 токена -> claims, вытесняются по сроку действия
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    });
+
+    public JwtTokenProvider(@Value("${app.jwt.secret}") String jwtSecret,
+                            @Value("${app.jwt.expiration}") int jwtExpirationInMs,
+                            @Value("${app.jwt.cache-size:10000}") int verifiedTokenCacheSize,
+                            SecurityVersionRegistry securityVersionRegistry) {
+        this.signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        this.jwtParser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+        this.jwtExpirationInMs = jwtExpirationInMs;
+        this.verifiedTokenCacheSize = verifiedTokenCacheSize;
+        this.securityVersionRegistry = securityVersionRegistry;
     }
 
     public String generateToken(Authentication authentication) {
@@ -35,46 +70,118 @@ public class JwtTokenProvider {
                 .map(GrantedAuthority::getAuthority)
                 .collect(Collectors.joining(","));
 
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(username)
-                .claim("roles", roles)
+                .claim("roles", roles);
+
+        // ID и версия безопасности позволяют фильтру собрать principal без запроса к БД
+        if (authentication.getPrincipal() instanceof UserDetailsServiceImpl.UserDetailsImpl userDetails
+                && userDetails.getId() != null) {
+            builder.claim(USER_ID_CLAIM, userDetails.getId());
+            Integer securityVersion = securityVersionRegistry.currentVersion(userDetails.getId());
+            if (securityVersion != null) {
+                builder.claim(SECURITY_VERSION_CLAIM, securityVersion);
+            }
+        }
+
+        return builder
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
-    public String getUsernameFromToken(String token) {
-        try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getSubject();
-        } catch (JwtException | IllegalArgumentException e) {
-            log.error("Error extracting username from token: {}", e.getMessage());
+    /**
+     * Проверяет подпись и срок действия токена и возвращает его claims.
+     * Повторные вызовы с тем же токеном обслуживаются из кэша без HMAC-проверки.
+     *
+     * @return claims токена или null, если токен недействителен
+     */
+    public Claims parseToken(String token) {
+        if (!StringUtils.hasText(token)) {
+            log.error("JWT claims string is empty");
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        String cacheKey = hash(token);
+
+        VerifiedToken cached = verifiedTokens.get(cacheKey);
+        if (cached != null) {
+            if (cached.expiresAt() > now) {
+                return cached.claims();
+            }
+            verifiedTokens.remove(cacheKey, cached);
+            log.error("Expired JWT token");
             return null;
         }
-    }
 
-    public boolean validateToken(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
+            Claims claims = jwtParser.parseClaimsJws(token).getBody();
+            remember(cacheKey, claims, now);
             log.debug("Token is valid");
-            return true;
+            return claims;
         } catch (MalformedJwtException e) {
             log.error("Invalid JWT token: {}", e.getMessage());
         } catch (ExpiredJwtException e) {
             log.error("Expired JWT token: {}", e.getMessage());
         } catch (UnsupportedJwtException e) {
             log.error("Unsupported JWT token: {}", e.getMessage());
+        } catch (JwtException e) {
+            log.error("JWT validation error: {}", e.getMessage());
         } catch (IllegalArgumentException e) {
             log.error("JWT claims string is empty: {}", e.getMessage());
         }
-        return false;
+        return null;
+    }
+
+    public String getUsernameFromToken(String token) {
+        Claims claims = parseToken(token);
+        return claims != null ? claims.getSubject() : null;
+    }
+
+    public boolean validateToken(String token) {
+        return parseToken(token) != null;
+    }
+
+    private void remember(String cacheKey, Claims claims, long now) {
+        if (verifiedTokenCacheSize <= 0) {
+            return;
+        }
+
+        long expiresAt = claims.getExpiration() != null
+                ? claims.getExpiration().getTime()
+                : now + jwtExpirationInMs;
+
+        if (verifiedTokens.size() >= verifiedTokenCacheSize) {
+            evict(now);
+        }
+        verifiedTokens.put(cacheKey, new VerifiedToken(claims, expiresAt));
+    }
+
+    // Сначала удаляем истекшие токены, затем — ближайшие к истечению, пока не освободим ~10% кэша
+    private synchronized void evict(long now) {
+        verifiedTokens.values().removeIf(entry -> entry.expiresAt() <= now);
+
+        int excess = verifiedTokens.size() - verifiedTokenCacheSize + Math.max(1, verifiedTokenCacheSize / 10);
+        if (excess <= 0) {
+            return;
+        }
+
+        List<Map.Entry<String, VerifiedToken>> entries = new ArrayList<>(verifiedTokens.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().expiresAt()));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            verifiedTokens.remove(entries.get(i).getKey());
+        }
+    }
+
+    private static String hash(String token) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        byte[] bytes = digest.digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private record VerifiedToken(Claims claims, long expiresAt) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package com.example.curs4.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Версии безопасности пользователей (users.security_version).
+ * Версия увеличивается в транзакции изменения логина, пароля или роли; удалённый пользователь версии не имеет.
+ * Токен несёт версию на момент входа и принимается, только пока она совпадает с версией в БД.
+ * Версия читается по первичному ключу и кэшируется на app.jwt.security-version-ttl-ms:
+ * на узле, выполнившем изменение, запись кэша сбрасывается после фиксации,
+ * остальные узлы перестают принимать старые токены не позже чем через этот интервал.
+ */
+@Component
+public class SecurityVersionRegistry {
+
+    private static final int DELETED = -1;
+
+    private record CachedVersion(int version, long expiresAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<Long, CachedVersion> versions = new ConcurrentHashMap<>();
+
+    public SecurityVersionRegistry(JdbcTemplate jdbcTemplate,
+                                   @Value("${app.jwt.security-version-ttl-ms:5000}") long ttlMillis,
+                                   @Value("${app.jwt.cache-size:10000}") int maxEntries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    // Версия для нового токена — всегда из БД, без кэша
+    public Integer currentVersion(Long userId) {
+        int version = load(userId);
+        return version != DELETED ? version : null;
+    }
+
+    // Вызывается в транзакции, увеличившей версию: кэш этого узла сбрасывается после её фиксации
+    public void changed(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            versions.remove(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                versions.remove(userId);
+            }
+        });
+    }
+
+    /**
+     * @return TRUE — версия актуальна, FALSE — токен устарел или пользователь удалён,
+     * null — в токене нет версии, пользователь проверяется по БД обычным способом
+     */
+    public Boolean isCurrent(Long userId, Number tokenVersion) {
+        if (userId == null || tokenVersion == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        CachedVersion cached = versions.get(userId);
+        if (cached == null || cached.expiresAt() <= now) {
+            if (versions.size() >= maxEntries) {
+                versions.values().removeIf(entry -> entry.expiresAt() <= now);
+            }
+            cached = new CachedVersion(load(userId), now + ttlMillis);
+            versions.put(userId, cached);
+        }
+        return cached.version() != DELETED && cached.version() == tokenVersion.intValue();
+    }
+
+    private int load(Long userId) {
+        List<Integer> rows = jdbcTemplate.queryForList(
+                "SELECT security_version FROM users WHERE user_id = ?", Integer.class, userId);
+        return rows.isEmpty() ? DELETED : rows.get(0);
+    }
+}
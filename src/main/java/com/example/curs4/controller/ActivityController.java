@@ -37,7 +37,7 @@ public class ActivityController {
     public ResponseEntity<ActivityDTO> createActivity(@Valid @RequestBody ActivityDTO dto) {
         log.info("Создание активности для пользователя ID: {}", dto.getUserId());
         ActivityDTO saved = activityService.createActivity(dto);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        return ResponseEntity.status(creationStatus(saved)).body(saved);
     }
 
     @PostMapping("/user/{username}")
@@ -59,8 +59,11 @@ public class ActivityController {
 
         try {
             ActivityDTO saved = activityService.createActivityForUser(username, description);
-            log.info("Активность успешно создана: ID={}", saved.getId());
-            return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+            log.info("Активность принята: ID={}", saved.getId());
+            return ResponseEntity.status(creationStatus(saved)).body(saved);
+        } catch (CustomException e) {
+            // Неизвестный пользователь — ошибка запроса (400 через обработчик ниже)
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка создания активности для пользователя {}: {}", username, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -84,7 +87,7 @@ public class ActivityController {
         dto.setActivityDate(LocalDateTime.now());
 
         ActivityDTO saved = activityService.createActivity(dto);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        return ResponseEntity.status(creationStatus(saved)).body(saved);
     }
 
     @Operation(summary = "Получить активность по ID")
@@ -188,6 +191,11 @@ public class ActivityController {
         ));
     }
 
+    // Активность без ID принята в очередь асинхронной записи
+    private HttpStatus creationStatus(ActivityDTO saved) {
+        return saved.getId() != null ? HttpStatus.CREATED : HttpStatus.ACCEPTED;
+    }
+
     @ExceptionHandler(CustomException.class)
     public ResponseEntity<String> handleCustomException(CustomException ex) {
         log.error("Ошибка: {}", ex.getMessage());
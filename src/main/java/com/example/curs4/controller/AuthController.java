@@ -5,7 +5,9 @@ import com.example.curs4.dto.LoginRequest;
 import com.example.curs4.dto.AuthResponse;
 import com.example.curs4.service.UserService;
 import com.example.curs4.service.AuthService;
+import com.example.curs4.service.AvailabilityService;
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +25,7 @@ public class AuthController {
 
     private final UserService userService;
     private final AuthService authService;
+    private final AvailabilityService availabilityService;
 
     @Operation(summary = "Регистрация нового пользователя")
     @PostMapping("/register")
@@ -63,17 +66,19 @@ public class AuthController {
 
     @Operation(summary = "Проверить доступность username")
     @GetMapping("/check-username/{username}")
-    public ResponseEntity<Map<String, Boolean>> checkUsernameExists(@PathVariable String username) {
-        log.info("Проверка username: {}", username);
-        boolean exists = userService.existsByUsername(username);
+    public ResponseEntity<Map<String, Boolean>> checkUsernameExists(@PathVariable String username,
+                                                                    HttpServletRequest request) {
+        log.debug("Проверка username: {}", username);
+        boolean exists = availabilityService.exists(AvailabilityService.Field.USERNAME, username, request.getRemoteAddr());
         return ResponseEntity.ok(Map.of("exists", exists));
     }
 
     @Operation(summary = "Проверить доступность email")
     @GetMapping("/check-email/{email}")
-    public ResponseEntity<Map<String, Boolean>> checkEmailExists(@PathVariable String email) {
-        log.info("Проверка email: {}", email);
-        boolean exists = userService.existsByEmail(email);
+    public ResponseEntity<Map<String, Boolean>> checkEmailExists(@PathVariable String email,
+                                                                 HttpServletRequest request) {
+        log.debug("Проверка email: {}", email);
+        boolean exists = availabilityService.exists(AvailabilityService.Field.EMAIL, email, request.getRemoteAddr());
         return ResponseEntity.ok(Map.of("exists", exists));
     }
 }
\ No newline at end of file
@@ -1,18 +1,30 @@
 package com.example.curs4.controller;
 
+import com.example.curs4.dto.BulkStatusUpdateRequest;
+import com.example.curs4.dto.BulkStatusUpdateResponse;
 import com.example.curs4.dto.DeclarationDTO;
+import com.example.curs4.entity.ClientSummary;
 import com.example.curs4.exception.CustomException;
+import com.example.curs4.service.ClientSummaryService;
+import com.example.curs4.service.DeclarationImportService;
 import com.example.curs4.service.DeclarationService;
+import com.example.curs4.service.ResourceVersions;
 import com.example.curs4.service.SecurityService; // ДОБАВЬТЕ
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -24,6 +36,9 @@ public class DeclarationController {
 
     private final DeclarationService declarationService;
     private final SecurityService securityService; // ДОБАВЬТЕ
+    private final DeclarationImportService declarationImportService;
+    private final ClientSummaryService clientSummaryService;
+    private final ResourceVersions resourceVersions;
 
     @Operation(summary = "Создать декларацию")
     @PostMapping
@@ -34,10 +49,42 @@ public class DeclarationController {
         return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
+    @Operation(summary = "Массовый импорт деклараций (CSV или NDJSON)")
+    @PostMapping(value = "/bulk", consumes = {"text/csv", "application/x-ndjson"}, produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN')")
+    public void importDeclarations(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        DeclarationImportService.Format format = request.getContentType() != null
+                && request.getContentType().toLowerCase().contains("csv")
+                ? DeclarationImportService.Format.CSV
+                : DeclarationImportService.Format.NDJSON;
+        // Клиент может импортировать только свои декларации; null означает «без ограничения» только для админа
+        Long restrictedClientId = null;
+        if (!securityService.isAdmin()) {
+            restrictedClientId = securityService.getCurrentUserId();
+            if (restrictedClientId == null) {
+                throw new CustomException("Не удалось определить текущего пользователя");
+            }
+        }
+        log.info("Массовый импорт деклараций ({})", format);
+
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        }
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        declarationImportService.importDeclarations(request.getReader(), format, restrictedClientId, response.getWriter());
+    }
+
     @Operation(summary = "Получить декларацию по ID")
     @GetMapping("/{id}")
     @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN', 'DRIVER')")
-    public ResponseEntity<DeclarationDTO> getDeclarationById(@PathVariable Long id) {
+    public ResponseEntity<DeclarationDTO> getDeclarationById(@PathVariable Long id, ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.entityTag(ResourceVersions.Resource.DECLARATIONS, id))) {
+            return null;
+        }
         log.info("Получение декларации по ID: {}", id);
         DeclarationDTO declaration = declarationService.getDeclarationById(id);
         return ResponseEntity.ok(declaration);
@@ -46,19 +93,27 @@ public class DeclarationController {
     @Operation(summary = "Получить все декларации")
     @GetMapping
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<DeclarationDTO>> getAllDeclarations() {
+    public ResponseEntity<List<DeclarationDTO>> getAllDeclarations(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         log.info("Получение всех деклараций");
-        List<DeclarationDTO> declarations = declarationService.getAllDeclarations();
-        return ResponseEntity.ok(declarations);
+        return declarationService.getDeclarationsPage(cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить декларации по клиенту")
     @GetMapping("/client/{clientId}")
     @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @securityService.isCurrentUser(#clientId, authentication)) or hasRole('DRIVER')")
-    public ResponseEntity<List<DeclarationDTO>> getDeclarationsByClient(@PathVariable Long clientId) {
+    public ResponseEntity<List<DeclarationDTO>> getDeclarationsByClient(
+            @PathVariable Long clientId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.clientTag(ResourceVersions.Resource.DECLARATIONS, clientId, cursor, size))) {
+            return null;
+        }
         log.info("Получение деклараций для клиента ID: {}", clientId);
-        List<DeclarationDTO> declarations = declarationService.getDeclarationsByClientId(clientId);
-        return ResponseEntity.ok(declarations);
+        return declarationService.getDeclarationsPageByClientId(clientId, cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить декларации по статусу")
@@ -72,7 +127,7 @@ public class DeclarationController {
 
     @Operation(summary = "Обновить декларацию")
     @PutMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @declarationService.isDeclarationOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isDeclarationOwner(#id, authentication))")
     public ResponseEntity<DeclarationDTO> updateDeclaration(@PathVariable Long id,
                                                             @Valid @RequestBody DeclarationDTO dto) {
         log.info("Обновление декларации ID: {}", id);
@@ -91,9 +146,19 @@ public class DeclarationController {
         return ResponseEntity.ok(updated);
     }
 
+    @Operation(summary = "Массово изменить статус деклараций (по списку ID или фильтру)")
+    @PatchMapping("/bulk/status")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<BulkStatusUpdateResponse> updateDeclarationStatuses(
+            @Valid @RequestBody BulkStatusUpdateRequest request) {
+        log.info("Массовое изменение статуса деклараций на: {}", request.getTargetStatus());
+        BulkStatusUpdateResponse result = declarationService.updateDeclarationStatuses(request);
+        return ResponseEntity.ok(result);
+    }
+
     @Operation(summary = "Удалить декларацию")
     @DeleteMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @declarationService.isDeclarationOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isDeclarationOwner(#id, authentication))")
     public ResponseEntity<Void> deleteDeclaration(@PathVariable Long id) {
         log.info("Удаление декларации ID: {}", id);
         declarationService.deleteDeclaration(id);
@@ -105,18 +170,23 @@ public class DeclarationController {
     @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @securityService.isCurrentUser(#clientId, authentication))")
     public ResponseEntity<Map<String, Long>> getClientStats(@PathVariable Long clientId) {
         log.info("Получение статистики для клиента ID: {}", clientId);
-        long total = declarationService.getDeclarationsCountByClient(clientId);
-        long pending = declarationService.getDeclarationsCountByClientAndStatus(clientId, "PENDING");
-        long approved = declarationService.getDeclarationsCountByClientAndStatus(clientId, "APPROVED");
+        ClientSummary summary = clientSummaryService.getSummary(clientId);
 
         return ResponseEntity.ok(Map.of(
-                "totalDeclarations", total,
-                "pendingDeclarations", pending,
-                "approvedDeclarations", approved
+                "totalDeclarations", summary.getDeclarationsTotal(),
+                "pendingDeclarations", summary.getDeclarationsPending(),
+                "approvedDeclarations", summary.getDeclarationsApproved()
         ));
     }
 
     // Exception Handlers...
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex) {
+        log.warn("Конфликт параллельного изменения: {} ID: {}", ex.getPersistentClassName(), ex.getIdentifier());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body("Декларация была изменена другим пользователем. Обновите данные и повторите запрос");
+    }
+
     @ExceptionHandler(CustomException.class)
     public ResponseEntity<String> handleCustomException(CustomException ex) {
         log.error("Ошибка: {}", ex.getMessage());
@@ -0,0 +1,128 @@
+package com.example.curs4.controller;
+
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.service.AnalyticsExportService;
+import com.example.curs4.service.ExportService;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+@RestController
+@RequestMapping("/api/export")
+@RequiredArgsConstructor
+@Slf4j
+public class ExportController {
+
+    private final ExportService exportService;
+    private final AnalyticsExportService analyticsExportService;
+
+    @Operation(summary = "Выгрузить платежи (CSV или NDJSON, потоково)")
+    @GetMapping("/payments")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportPayments(
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) PaymentStatus status,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ExportService.Format exportFormat = ExportService.Format.parse(format);
+        boolean gzip = acceptsGzip(acceptEncoding);
+        log.info("Выгрузка платежей: формат {}, период {} - {}, статус {}", exportFormat, from, to, status);
+
+        StreamingResponseBody body = out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+            exportService.exportPayments(startOf(from), endOf(to), status, exportFormat, target);
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        };
+        return streamingResponse("payments", exportFormat, gzip, body);
+    }
+
+    @Operation(summary = "Выгрузить декларации (CSV или NDJSON, потоково)")
+    @GetMapping("/declarations")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportDeclarations(
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String status,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ExportService.Format exportFormat = ExportService.Format.parse(format);
+        boolean gzip = acceptsGzip(acceptEncoding);
+        log.info("Выгрузка деклараций: формат {}, период {} - {}, статус {}", exportFormat, from, to, status);
+
+        StreamingResponseBody body = out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+            exportService.exportDeclarations(startOf(from), endOf(to), status, exportFormat, target);
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        };
+        return streamingResponse("declarations", exportFormat, gzip, body);
+    }
+
+    @Operation(summary = "Запустить инкрементальную выгрузку для аналитики")
+    @PostMapping("/analytics")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Long>> runAnalyticsExport() {
+        log.info("Запуск выгрузки для аналитики по запросу");
+        return ResponseEntity.ok(analyticsExportService.export());
+    }
+
+    private static ResponseEntity<StreamingResponseBody> streamingResponse(String name, ExportService.Format format,
+                                                                           boolean gzip, StreamingResponseBody body) {
+        boolean csv = format == ExportService.Format.CSV;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                        : MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + name + (csv ? ".csv" : ".ndjson") + "\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    // Период включает обе даты: [from 00:00, to + 1 день 00:00)
+    private static LocalDateTime startOf(LocalDate from) {
+        return from != null ? from.atStartOfDay() : null;
+    }
+
+    private static LocalDateTime endOf(LocalDate to) {
+        return to != null ? to.plusDays(1).atStartOfDay() : null;
+    }
+
+    @ExceptionHandler(CustomException.class)
+    public ResponseEntity<String> handleCustomException(CustomException ex) {
+        log.error("Ошибка: {}", ex.getMessage());
+        return ResponseEntity.badRequest().body(ex.getMessage());
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleGeneralException(Exception ex) {
+        log.error("Внутренняя ошибка сервера", ex);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Произошла внутренняя ошибка сервера");
+    }
+}
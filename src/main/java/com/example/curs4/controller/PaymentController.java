@@ -1,22 +1,33 @@
 package com.example.curs4.controller;
 
 import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.dto.PaymentRollupDTO;
+import com.example.curs4.dto.PaymentStatsDTO;
 import com.example.curs4.entity.PaymentStatus;
 import com.example.curs4.exception.CustomException;
+import com.example.curs4.service.IdempotencyService;
+import com.example.curs4.service.PaymentOverdueService;
+import com.example.curs4.service.PaymentRollupService;
 import com.example.curs4.service.PaymentService;
+import com.example.curs4.service.ResourceVersions;
 import com.example.curs4.service.SecurityService;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/payments")
@@ -26,20 +37,33 @@ public class PaymentController {
 
     private final PaymentService paymentService;
     private final SecurityService securityService;
+    private final PaymentRollupService paymentRollupService;
+    private final PaymentOverdueService paymentOverdueService;
+    private final IdempotencyService idempotencyService;
+    private final ResourceVersions resourceVersions;
 
     @Operation(summary = "Создать платеж")
     @PostMapping
     @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN')")
-    public ResponseEntity<PaymentDTO> createPayment(@Valid @RequestBody PaymentDTO dto) {
+    public ResponseEntity<PaymentDTO> createPayment(
+            @Valid @RequestBody PaymentDTO dto,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
         log.info("Создание платежа для клиента ID: {}", dto.getClientId());
-        PaymentDTO saved = paymentService.createPayment(dto);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        String fingerprint = IdempotencyService.fingerprint(dto.getClientId(), dto.getDeclarationId(),
+                dto.getAmount() != null ? dto.getAmount().stripTrailingZeros().toPlainString() : null,
+                dto.getCurrency(), dto.getPaymentType(), dto.getDueDate());
+        return idempotent(HttpStatus.CREATED, "payment-create", idempotencyKey, fingerprint,
+                () -> paymentService.createPayment(dto));
     }
 
     @Operation(summary = "Получить платеж по ID")
     @GetMapping("/{id}")
     @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN')")
-    public ResponseEntity<PaymentDTO> getPaymentById(@PathVariable Long id) {
+    public ResponseEntity<PaymentDTO> getPaymentById(@PathVariable Long id, ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.entityTag(ResourceVersions.Resource.PAYMENTS, id))) {
+            return null;
+        }
         log.info("Получение платежа по ID: {}", id);
         PaymentDTO payment = paymentService.getPaymentById(id);
         return ResponseEntity.ok(payment);
@@ -48,19 +72,27 @@ public class PaymentController {
     @Operation(summary = "Получить все платежи")
     @GetMapping
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<PaymentDTO>> getAllPayments() {
+    public ResponseEntity<List<PaymentDTO>> getAllPayments(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         log.info("Получение всех платежей");
-        List<PaymentDTO> payments = paymentService.getAllPayments();
-        return ResponseEntity.ok(payments);
+        return paymentService.getPaymentsPage(cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить платежи по клиенту")
     @GetMapping("/client/{clientId}")
     @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @securityService.isCurrentUser(#clientId, authentication))")
-    public ResponseEntity<List<PaymentDTO>> getPaymentsByClient(@PathVariable Long clientId) {
+    public ResponseEntity<List<PaymentDTO>> getPaymentsByClient(
+            @PathVariable Long clientId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.clientTag(ResourceVersions.Resource.PAYMENTS, clientId, cursor, size))) {
+            return null;
+        }
         log.info("Получение платежей для клиента ID: {}", clientId);
-        List<PaymentDTO> payments = paymentService.getPaymentsByClientId(clientId);
-        return ResponseEntity.ok(payments);
+        return paymentService.getPaymentsPageByClientId(clientId, cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить платежи по статусу")
@@ -74,7 +106,7 @@ public class PaymentController {
 
     @Operation(summary = "Получить платежи по декларации")
     @GetMapping("/declaration/{declarationId}")
-    @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @paymentService.isPaymentByDeclarationOwner(#declarationId, authentication))")
+    @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @ownershipService.isPaymentByDeclarationOwner(#declarationId, authentication))")
     public ResponseEntity<List<PaymentDTO>> getPaymentsByDeclaration(@PathVariable Long declarationId) {
         log.info("Получение платежей для декларации ID: {}", declarationId);
         List<PaymentDTO> payments = paymentService.getPaymentsByDeclarationId(declarationId);
@@ -83,7 +115,7 @@ public class PaymentController {
 
     @Operation(summary = "Обновить платеж")
     @PutMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @paymentService.isSinglePaymentOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isSinglePaymentOwner(#id, authentication))")
     public ResponseEntity<PaymentDTO> updatePayment(@PathVariable Long id,
                                                     @Valid @RequestBody PaymentDTO dto) {
         log.info("Обновление платежа ID: {}", id);
@@ -93,11 +125,13 @@ public class PaymentController {
 
     @Operation(summary = "Обработать платеж (оплатить)")
     @PostMapping("/{id}/process")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @paymentService.isSinglePaymentOwner(#id, authentication))")
-    public ResponseEntity<PaymentDTO> processPayment(@PathVariable Long id) {
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isSinglePaymentOwner(#id, authentication))")
+    public ResponseEntity<PaymentDTO> processPayment(
+            @PathVariable Long id,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
         log.info("Обработка платежа ID: {}", id);
-        PaymentDTO processed = paymentService.processPayment(id);
-        return ResponseEntity.ok(processed);
+        return idempotent(HttpStatus.OK, "payment-process:" + id, idempotencyKey,
+                IdempotencyService.fingerprint(id), () -> paymentService.processPayment(id));
     }
 
     @Operation(summary = "Обновить статус платежа")
@@ -115,7 +149,7 @@ public class PaymentController {
 
     @Operation(summary = "Удалить платеж")
     @DeleteMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @paymentService.isSinglePaymentOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isSinglePaymentOwner(#id, authentication))")
     public ResponseEntity<Void> deletePayment(@PathVariable Long id) {
         log.info("Удаление платежа ID: {}", id);
         paymentService.deletePayment(id);
@@ -125,29 +159,9 @@ public class PaymentController {
     @Operation(summary = "Получить статистику по клиенту")
     @GetMapping("/client/{clientId}/stats")
     @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @securityService.isCurrentUser(#clientId, authentication))")
-    public ResponseEntity<Map<String, Object>> getClientStats(@PathVariable Long clientId) {
+    public ResponseEntity<PaymentStatsDTO> getClientStats(@PathVariable Long clientId) {
         log.info("Получение статистики платежей для клиента ID: {}", clientId);
-
-        long total = paymentService.getPaymentsCountByClient(clientId);
-        long pending = paymentService.getPaymentsCountByClientAndStatus(clientId, PaymentStatus.PENDING);
-        long paid = paymentService.getPaymentsCountByClientAndStatus(clientId, PaymentStatus.PAID);
-
-        BigDecimal totalAmount = paymentService.getTotalAmountByClient(clientId);
-        BigDecimal paidAmount = paymentService.getTotalPaidAmountByClient(clientId);
-        BigDecimal pendingAmount = paymentService.getTotalPendingAmountByClient(clientId);
-
-        List<PaymentDTO> overduePayments = paymentService.getOverduePayments(clientId);
-        long overdue = overduePayments.size();
-
-        return ResponseEntity.ok(Map.of(
-                "totalPayments", total,
-                "pendingPayments", pending,
-                "paidPayments", paid,
-                "overduePayments", overdue,
-                "totalAmount", totalAmount,
-                "paidAmount", paidAmount,
-                "pendingAmount", pendingAmount
-        ));
+        return ResponseEntity.ok(paymentService.getClientStats(clientId));
     }
 
     @Operation(summary = "Получить просроченные платежи клиента")
@@ -159,7 +173,66 @@ public class PaymentController {
         return ResponseEntity.ok(overduePayments);
     }
 
+    @Operation(summary = "Перевести неоплаченные платежи с истёкшим сроком в OVERDUE")
+    @PostMapping("/overdue/mark")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Long>> markOverduePayments() {
+        log.info("Отметка просроченных платежей по запросу");
+        return ResponseEntity.ok(Map.of("marked", paymentOverdueService.markOverdue()));
+    }
+
+    @Operation(summary = "Выручка по периодам (day, week, month) в разрезе типа, валюты и статуса")
+    @GetMapping("/rollups")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<PaymentRollupDTO>> getRollups(
+            @RequestParam(required = false) String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String paymentType,
+            @RequestParam(required = false) String currency,
+            @RequestParam(required = false) PaymentStatus status) {
+        log.info("Получение выручки по периодам: {}, {} - {}", granularity, from, to);
+        return ResponseEntity.ok(paymentRollupService.getRollups(
+                PaymentRollupService.Granularity.parse(granularity), from, to, paymentType, currency, status));
+    }
+
+    @Operation(summary = "Пересобрать агрегаты выручки по месяцам (from/to в формате YYYY-MM)")
+    @PostMapping("/rollups/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Integer>> rebuildRollups(
+            @RequestParam(required = false) YearMonth from,
+            @RequestParam(required = false) YearMonth to) {
+        log.info("Пересборка агрегатов выручки: {} - {}", from, to);
+        if (from == null) {
+            return ResponseEntity.ok(paymentRollupService.rebuildAll());
+        }
+        return ResponseEntity.ok(paymentRollupService.rebuild(from, to != null ? to : YearMonth.now()));
+    }
+
+    // С заголовком Idempotency-Key повтор запроса возвращает тот же платеж, не выполняя операцию снова
+    private ResponseEntity<PaymentDTO> idempotent(HttpStatus status, String operation, String idempotencyKey,
+                                                  String fingerprint, Supplier<PaymentDTO> action) {
+        if (idempotencyKey == null) {
+            return ResponseEntity.status(status).body(action.get());
+        }
+        IdempotencyService.Outcome<PaymentDTO> outcome = idempotencyService.execute(operation, idempotencyKey,
+                fingerprint, action, PaymentDTO::getId, paymentService::getPaymentById);
+        if (outcome.replayed()) {
+            log.info("Повтор запроса с ключом идемпотентности: {}", operation);
+        }
+        return ResponseEntity.status(status)
+                .header(IdempotencyService.REPLAYED_HEADER, String.valueOf(outcome.replayed()))
+                .body(outcome.body());
+    }
+
     // Exception Handlers
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex) {
+        log.warn("Конфликт параллельного изменения: {} ID: {}", ex.getPersistentClassName(), ex.getIdentifier());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body("Платеж был изменен другим пользователем. Обновите данные и повторите запрос");
+    }
+
     @ExceptionHandler(CustomException.class)
     public ResponseEntity<String> handleCustomException(CustomException ex) {
         log.error("Ошибка: {}", ex.getMessage());
@@ -4,8 +4,14 @@ import com.example.curs4.dto.UserDTO;
 import com.example.curs4.entity.User;
 import com.example.curs4.exception.CustomException;
 import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.AvailabilityService;
+import com.example.curs4.service.ClientSummaryService;
+import com.example.curs4.service.EntityCacheService;
+import com.example.curs4.service.UnpImportService;
+import com.example.curs4.service.UnpRegistry;
 import com.example.curs4.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -15,6 +21,8 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +34,11 @@ public class UserController {
 
     private final UserService userService;
     private final UserRepository userRepository;
+    private final ClientSummaryService clientSummaryService;
+    private final UnpImportService unpImportService;
+    private final UnpRegistry unpRegistry;
+    private final AvailabilityService availabilityService;
+    private final EntityCacheService entityCacheService;
 
     @Operation(summary = "Создать пользователя (только админ)")
     @PostMapping
@@ -48,10 +61,11 @@ public class UserController {
     @Operation(summary = "Получить всех пользователей (только админ)")
     @GetMapping
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<UserDTO>> getAllUsers() {
+    public ResponseEntity<List<UserDTO>> getAllUsers(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         log.info("Получение всех пользователей");
-        List<UserDTO> users = userService.getAllUsers();
-        return ResponseEntity.ok(users);
+        return userService.getUsersPage(cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить пользователей по роли (только админ)")
@@ -106,19 +120,59 @@ public class UserController {
         return ResponseEntity.noContent().build();
     }
 
+    @Operation(summary = "Пересобрать сводки клиентов для статистики (только админ)")
+    @PostMapping("/summaries/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Integer>> rebuildClientSummaries(@RequestParam(required = false) Long clientId) {
+        log.info("Пересборка сводок клиентов: {}", clientId != null ? clientId : "все");
+        int rebuilt = clientId != null
+                ? clientSummaryService.rebuildClients(List.of(clientId))
+                : clientSummaryService.rebuildAll();
+        return ResponseEntity.ok(Map.of("rebuilt", rebuilt));
+    }
+
+    @Operation(summary = "Загрузить справочник УНП (по УНП в строке или CSV с УНП в первой колонке, только админ)")
+    @PostMapping(value = "/unp/import", consumes = {"text/plain", "text/csv"})
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Long>> importUnps(HttpServletRequest request) throws IOException {
+        log.info("Загрузка справочника УНП");
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        }
+        return ResponseEntity.ok(unpImportService.importUnps(request.getReader()));
+    }
+
+    @Operation(summary = "Перезагрузить справочник УНП в памяти (только админ)")
+    @PostMapping("/unp/reload")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Integer>> reloadUnpRegistry() {
+        log.info("Перезагрузка справочника УНП в памяти");
+        unpRegistry.reload();
+        return ResponseEntity.ok(Map.of("size", unpRegistry.size()));
+    }
+
+    @Operation(summary = "Статистика кэша второго уровня: попадания и промахи по регионам (только админ)")
+    @GetMapping("/cache/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getCacheStatistics() {
+        return ResponseEntity.ok(entityCacheService.statistics());
+    }
+
     @Operation(summary = "Проверить существование username (публичный)")
     @GetMapping("/check-username/{username}")
-    public ResponseEntity<Map<String, Boolean>> checkUsernameExists(@PathVariable String username) {
-        log.info("Проверка username: {}", username);
-        boolean exists = userService.existsByUsername(username);
+    public ResponseEntity<Map<String, Boolean>> checkUsernameExists(@PathVariable String username,
+                                                                    HttpServletRequest request) {
+        log.debug("Проверка username: {}", username);
+        boolean exists = availabilityService.exists(AvailabilityService.Field.USERNAME, username, request.getRemoteAddr());
         return ResponseEntity.ok(Map.of("exists", exists));
     }
 
     @Operation(summary = "Проверить существование email (публичный)")
     @GetMapping("/check-email/{email}")
-    public ResponseEntity<Map<String, Boolean>> checkEmailExists(@PathVariable String email) {
-        log.info("Проверка email: {}", email);
-        boolean exists = userService.existsByEmail(email);
+    public ResponseEntity<Map<String, Boolean>> checkEmailExists(@PathVariable String email,
+                                                                 HttpServletRequest request) {
+        log.debug("Проверка email: {}", email);
+        boolean exists = availabilityService.exists(AvailabilityService.Field.EMAIL, email, request.getRemoteAddr());
         return ResponseEntity.ok(Map.of("exists", exists));
     }
 
@@ -1,10 +1,16 @@
 package com.example.curs4.controller;
 
 import com.example.curs4.dto.VehicleDTO;
+import com.example.curs4.entity.ClientSummary;
 import com.example.curs4.exception.CustomException;
+import com.example.curs4.service.AvailabilityService;
+import com.example.curs4.service.ClientSummaryService;
+import com.example.curs4.service.ResourceVersions;
+import com.example.curs4.service.VehicleRentalSweeper;
 import com.example.curs4.service.VehicleService;
 import com.example.curs4.service.SecurityService;
 import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -12,6 +18,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -25,6 +32,10 @@ public class VehicleController {
 
     private final VehicleService vehicleService;
     private final SecurityService securityService;
+    private final ClientSummaryService clientSummaryService;
+    private final VehicleRentalSweeper vehicleRentalSweeper;
+    private final AvailabilityService availabilityService;
+    private final ResourceVersions resourceVersions;
 
     @Operation(summary = "Создать транспорт")
     @PostMapping
@@ -38,7 +49,11 @@ public class VehicleController {
     @Operation(summary = "Получить транспорт по ID")
     @GetMapping("/{id}")
     @PreAuthorize("hasAnyRole('ADMIN', 'CLIENT', 'DRIVER')")
-    public ResponseEntity<VehicleDTO> getVehicleById(@PathVariable Long id) {
+    public ResponseEntity<VehicleDTO> getVehicleById(@PathVariable Long id, ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.entityTag(ResourceVersions.Resource.VEHICLES, id))) {
+            return null;
+        }
         log.info("Получение транспорта по ID: {}", id);
         VehicleDTO vehicle = vehicleService.getVehicleById(id);
         return ResponseEntity.ok(vehicle);
@@ -47,18 +62,26 @@ public class VehicleController {
     @Operation(summary = "Получить все транспортные средства")
     @GetMapping
     @PreAuthorize("hasAnyRole('ADMIN', 'CLIENT', 'DRIVER')")
-    public ResponseEntity<List<VehicleDTO>> getAllVehicles() {
+    public ResponseEntity<List<VehicleDTO>> getAllVehicles(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
         log.info("Получение всех транспортных средств");
-        List<VehicleDTO> vehicles = vehicleService.getAllVehicles();
-        return ResponseEntity.ok(vehicles);
+        return vehicleService.getVehiclesPage(cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить доступные для аренды машины")
     @GetMapping("/available")
     @PreAuthorize("hasAnyRole('ADMIN', 'DRIVER')")
-    public ResponseEntity<List<VehicleDTO>> getAvailableVehicles() {
-        log.info("Получение доступных для аренды машин");
-        List<VehicleDTO> vehicles = vehicleService.getAvailableVehicles();
+    public ResponseEntity<List<VehicleDTO>> getAvailableVehicles(
+            @RequestParam(required = false) String vehicleType,
+            @RequestParam(required = false) Double minCapacity,
+            ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.availableVehiclesTag(vehicleType, minCapacity))) {
+            return null;
+        }
+        log.debug("Получение доступных для аренды машин");
+        List<VehicleDTO> vehicles = vehicleService.getAvailableVehicles(vehicleType, minCapacity);
         return ResponseEntity.ok(vehicles);
     }
 
@@ -74,9 +97,11 @@ public class VehicleController {
     @Operation(summary = "Получить все арендованные машины")
     @GetMapping("/rented")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<List<VehicleDTO>> getAllRentedVehicles() {
+    public ResponseEntity<List<VehicleDTO>> getAllRentedVehicles(
+            @RequestParam(required = false) String vehicleType,
+            @RequestParam(required = false) Double minCapacity) {
         log.info("Получение всех арендованных машин");
-        List<VehicleDTO> vehicles = vehicleService.getAllRentedVehicles();
+        List<VehicleDTO> vehicles = vehicleService.getAllRentedVehicles(vehicleType, minCapacity);
         return ResponseEntity.ok(vehicles);
     }
 
@@ -149,13 +174,28 @@ public class VehicleController {
         return ResponseEntity.ok(returned);
     }
 
+    @Operation(summary = "Завершить аренды с истёкшим сроком")
+    @PostMapping("/rentals/sweep")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Long>> sweepExpiredRentals() {
+        log.info("Завершение истёкших аренд по запросу");
+        return ResponseEntity.ok(Map.of("released", vehicleRentalSweeper.sweep()));
+    }
+
     @Operation(summary = "Получить транспорт по клиенту")
     @GetMapping("/client/{clientId}")
     @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @securityService.isCurrentUser(#clientId, authentication))")
-    public ResponseEntity<List<VehicleDTO>> getVehiclesByClient(@PathVariable Long clientId) {
+    public ResponseEntity<List<VehicleDTO>> getVehiclesByClient(
+            @PathVariable Long clientId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            ServletWebRequest webRequest) {
+        if (resourceVersions.checkNotModified(webRequest,
+                resourceVersions.clientTag(ResourceVersions.Resource.VEHICLES, clientId, cursor, size))) {
+            return null;
+        }
         log.info("Получение транспорта для клиента ID: {}", clientId);
-        List<VehicleDTO> vehicles = vehicleService.getVehiclesByClientId(clientId);
-        return ResponseEntity.ok(vehicles);
+        return vehicleService.getVehiclesPageByClientId(clientId, cursor, size).toResponse();
     }
 
     @Operation(summary = "Получить транспорт по типу")
@@ -169,7 +209,7 @@ public class VehicleController {
 
     @Operation(summary = "Получить транспорт по госномеру")
     @GetMapping("/license-plate/{licensePlate}")
-    @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @vehicleService.isVehicleLicensePlateOwner(#licensePlate, authentication))")
+    @PreAuthorize("hasRole('ADMIN') or (hasRole('CLIENT') and @ownershipService.isVehicleLicensePlateOwner(#licensePlate, authentication))")
     public ResponseEntity<VehicleDTO> getVehicleByLicensePlate(@PathVariable String licensePlate) {
         log.info("Получение транспорта по госномеру: {}", licensePlate);
         VehicleDTO vehicle = vehicleService.getVehicleByLicensePlate(licensePlate);
@@ -178,7 +218,7 @@ public class VehicleController {
 
     @Operation(summary = "Обновить транспорт")
     @PutMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @vehicleService.isSingleVehicleOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isSingleVehicleOwner(#id, authentication))")
     public ResponseEntity<VehicleDTO> updateVehicle(@PathVariable Long id,
                                                     @Valid @RequestBody VehicleDTO dto) {
         log.info("Обновление транспорта ID: {}", id);
@@ -188,7 +228,7 @@ public class VehicleController {
 
     @Operation(summary = "Удалить транспорт")
     @DeleteMapping("/{id}")
-    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @vehicleService.isSingleVehicleOwner(#id, authentication))")
+    @PreAuthorize("hasAnyRole('CLIENT', 'ADMIN') and (hasRole('ADMIN') or @ownershipService.isSingleVehicleOwner(#id, authentication))")
     public ResponseEntity<Void> deleteVehicle(@PathVariable Long id) {
         log.info("Удаление транспорта ID: {}", id);
         vehicleService.deleteVehicle(id);
@@ -197,9 +237,11 @@ public class VehicleController {
 
     @Operation(summary = "Проверить существование госномера")
     @GetMapping("/check-license-plate/{licensePlate}")
-    public ResponseEntity<Map<String, Boolean>> checkLicensePlateExists(@PathVariable String licensePlate) {
-        log.info("Проверка госномера: {}", licensePlate);
-        boolean exists = vehicleService.licensePlateExists(licensePlate);
+    public ResponseEntity<Map<String, Boolean>> checkLicensePlateExists(@PathVariable String licensePlate,
+                                                                        HttpServletRequest request) {
+        log.debug("Проверка госномера: {}", licensePlate);
+        boolean exists = availabilityService.exists(AvailabilityService.Field.LICENSE_PLATE, licensePlate,
+                request.getRemoteAddr());
         return ResponseEntity.ok(Map.of("exists", exists));
     }
 
@@ -209,14 +251,12 @@ public class VehicleController {
     public ResponseEntity<Map<String, Object>> getClientStats(@PathVariable Long clientId) {
         log.info("Получение статистики транспорта для клиента ID: {}", clientId);
 
-        long totalVehicles = vehicleService.getVehiclesCountByClient(clientId);
-        long trucksCount = vehicleService.getTrucksCountByClient(clientId);
-        double totalCapacity = vehicleService.getTotalCapacityByClient(clientId);
+        ClientSummary summary = clientSummaryService.getSummary(clientId);
 
         return ResponseEntity.ok(Map.of(
-                "totalVehicles", totalVehicles,
-                "trucksCount", trucksCount,
-                "totalCapacity", totalCapacity
+                "totalVehicles", summary.getVehiclesTotal(),
+                "trucksCount", summary.getVehiclesTrucks(),
+                "totalCapacity", summary.getVehiclesTotalCapacity()
         ));
     }
 
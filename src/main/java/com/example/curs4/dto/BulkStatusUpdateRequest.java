@@ -0,0 +1,25 @@
+package com.example.curs4.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkStatusUpdateRequest {
+    @NotBlank(message = "Целевой статус обязателен")
+    private String targetStatus;
+
+    // Либо список ID, либо фильтр (можно комбинировать)
+    private List<Long> ids;
+
+    private String status;
+    private String customsOffice;
+    private Long clientId;
+}
@@ -0,0 +1,18 @@
+package com.example.curs4.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkStatusUpdateResponse {
+    private String targetStatus;
+    private int updatedCount;
+    private List<Long> updatedIds;
+}
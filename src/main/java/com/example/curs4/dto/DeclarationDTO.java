@@ -49,4 +49,6 @@ public class DeclarationDTO {
     private LocalDateTime reviewedAt;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+
+    private Long version; // Если передана при обновлении — должна совпадать с текущей
 }
\ No newline at end of file
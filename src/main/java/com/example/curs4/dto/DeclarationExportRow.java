@@ -0,0 +1,28 @@
+package com.example.curs4.dto;
+
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Строка выгрузки деклараций — проекция без загрузки сущностей
+@Value
+public class DeclarationExportRow {
+    Long id;
+    String declarationNumber;
+    Long clientId;
+    String clientName;
+    String declarationType;
+    String tnvedCode;
+    String productDescription;
+    BigDecimal productValue;
+    BigDecimal netWeight;
+    Integer quantity;
+    String countryOfOrigin;
+    String countryOfDestination;
+    String customsOffice;
+    String status;
+    LocalDateTime submittedAt;
+    LocalDateTime reviewedAt;
+    LocalDateTime createdAt;
+}
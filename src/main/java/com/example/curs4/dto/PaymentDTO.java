@@ -41,4 +41,6 @@ public class PaymentDTO {
     private LocalDateTime paidAt;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+
+    private Long version; // Если передана при обновлении — должна совпадать с текущей
 }
\ No newline at end of file
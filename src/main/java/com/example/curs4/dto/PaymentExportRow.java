@@ -0,0 +1,26 @@
+package com.example.curs4.dto;
+
+import com.example.curs4.entity.PaymentStatus;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Строка выгрузки платежей — проекция без загрузки сущностей
+@Value
+public class PaymentExportRow {
+    Long id;
+    String paymentNumber;
+    Long clientId;
+    String clientName;
+    Long declarationId;
+    String declarationNumber;
+    BigDecimal amount;
+    String currency;
+    String paymentType;
+    PaymentStatus status;
+    LocalDate dueDate;
+    LocalDateTime paidAt;
+    LocalDateTime createdAt;
+}
@@ -0,0 +1,23 @@
+package com.example.curs4.dto;
+
+import com.example.curs4.entity.PaymentStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentRollupDTO {
+    private LocalDate periodStart;
+    private String paymentType;
+    private String currency;
+    private PaymentStatus status;
+    private long paymentCount;
+    private BigDecimal totalAmount;
+}
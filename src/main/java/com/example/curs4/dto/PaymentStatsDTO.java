@@ -0,0 +1,22 @@
+package com.example.curs4.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentStatsDTO {
+    private long totalPayments;
+    private long pendingPayments;
+    private long paidPayments;
+    private long overduePayments;
+    private BigDecimal totalAmount;
+    private BigDecimal paidAmount;
+    private BigDecimal pendingAmount;
+}
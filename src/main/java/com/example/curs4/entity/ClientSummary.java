@@ -0,0 +1,99 @@
+package com.example.curs4.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Сводка по клиенту для статистики. Строка меняется только SQL-инкрементами из ClientSummaryService
+// в тех же транзакциях, что и сами документы, поэтому для Hibernate она только для чтения.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Immutable
+@Table(name = "client_summaries")
+public class ClientSummary {
+    @Id
+    @Column(name = "client_id")
+    private Long clientId;
+
+    @Column(name = "declarations_total", nullable = false)
+    private long declarationsTotal;
+
+    @Column(name = "declarations_pending", nullable = false)
+    private long declarationsPending;
+
+    @Column(name = "declarations_under_review", nullable = false)
+    private long declarationsUnderReview;
+
+    @Column(name = "declarations_approved", nullable = false)
+    private long declarationsApproved;
+
+    @Column(name = "declarations_rejected", nullable = false)
+    private long declarationsRejected;
+
+    @Column(name = "declarations_suspended", nullable = false)
+    private long declarationsSuspended;
+
+    @Column(name = "payments_total", nullable = false)
+    private long paymentsTotal;
+
+    @Column(name = "payments_pending", nullable = false)
+    private long paymentsPending;
+
+    @Column(name = "payments_paid", nullable = false)
+    private long paymentsPaid;
+
+    @Column(name = "payments_overdue", nullable = false)
+    private long paymentsOverdue;
+
+    @Column(name = "payments_total_amount", nullable = false, precision = 38, scale = 2)
+    @Builder.Default
+    private BigDecimal paymentsTotalAmount = BigDecimal.ZERO;
+
+    @Column(name = "payments_pending_amount", nullable = false, precision = 38, scale = 2)
+    @Builder.Default
+    private BigDecimal paymentsPendingAmount = BigDecimal.ZERO;
+
+    @Column(name = "payments_paid_amount", nullable = false, precision = 38, scale = 2)
+    @Builder.Default
+    private BigDecimal paymentsPaidAmount = BigDecimal.ZERO;
+
+    @Column(name = "payments_overdue_amount", nullable = false, precision = 38, scale = 2)
+    @Builder.Default
+    private BigDecimal paymentsOverdueAmount = BigDecimal.ZERO;
+
+    // Неоплаченные платежи с прошедшим сроком, ещё не отмеченные OVERDUE
+    @Column(name = "payments_pending_past_due", nullable = false, columnDefinition = "bigint default 0 not null")
+    private long paymentsPendingPastDue;
+
+    @Column(name = "vehicles_total", nullable = false)
+    private long vehiclesTotal;
+
+    @Column(name = "vehicles_trucks", nullable = false)
+    private long vehiclesTrucks;
+
+    @Column(name = "vehicles_total_capacity", nullable = false)
+    private double vehiclesTotalCapacity;
+
+    // Версии списков и карточек клиента для ETag: растут при каждой записи, пересборка их не трогает
+    @Column(name = "declarations_version", nullable = false, columnDefinition = "bigint default 0 not null")
+    private long declarationsVersion;
+
+    @Column(name = "payments_version", nullable = false, columnDefinition = "bigint default 0 not null")
+    private long paymentsVersion;
+
+    @Column(name = "vehicles_version", nullable = false, columnDefinition = "bigint default 0 not null")
+    private long vehiclesVersion;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    public static ClientSummary empty(Long clientId) {
+        return ClientSummary.builder().clientId(clientId).build();
+    }
+}
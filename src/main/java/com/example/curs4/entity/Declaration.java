@@ -11,10 +11,16 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "declarations")
+@Table(name = "declarations", indexes = {
+        @Index(name = "idx_declarations_status", columnList = "status"),
+        @Index(name = "idx_declarations_created_id", columnList = "created_at, id"),
+        @Index(name = "idx_declarations_client_created_id", columnList = "client_id, created_at, id"),
+        @Index(name = "idx_declarations_updated_at", columnList = "updated_at")
+})
 public class Declaration {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "declarations_seq")
+    @SequenceGenerator(name = "declarations_seq", sequenceName = "declarations_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false)
@@ -47,6 +53,10 @@ public class Declaration {
     @Builder.Default
     private LocalDateTime updatedAt = LocalDateTime.now();
 
+    // Оптимистическая блокировка: параллельные изменения не перезаписывают друг друга молча
+    @Version
+    private Long version;
+
     @PreUpdate
     public void preUpdate() {
         this.updatedAt = LocalDateTime.now();
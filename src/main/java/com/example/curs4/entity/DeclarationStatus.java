@@ -1,9 +1,26 @@
 package com.example.curs4.entity;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 public enum DeclarationStatus {
     PENDING,
     UNDER_REVIEW,
     APPROVED,
     REJECTED,
-    SUSPENDED
-}
\ No newline at end of file
+    SUSPENDED;
+
+    // Статусы, из которых допускается переход в данный
+    public Set<DeclarationStatus> allowedPredecessors() {
+        return switch (this) {
+            case PENDING -> EnumSet.of(SUSPENDED);
+            case UNDER_REVIEW -> EnumSet.of(PENDING, SUSPENDED);
+            case APPROVED, REJECTED, SUSPENDED -> EnumSet.of(PENDING, UNDER_REVIEW);
+        };
+    }
+
+    // Решение по декларации — фиксируется время рассмотрения
+    public boolean isReviewDecision() {
+        return this == APPROVED || this == REJECTED;
+    }
+}
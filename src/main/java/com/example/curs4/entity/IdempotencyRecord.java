@@ -0,0 +1,36 @@
+package com.example.curs4.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+// Выполненный запрос с заголовком Idempotency-Key. Строка пишется SQL из IdempotencyService
+// в той же транзакции, что и сама операция, поэтому для Hibernate она только для чтения.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Immutable
+@Table(name = "idempotency_keys", indexes = {
+        @Index(name = "idx_idempotency_keys_expires_at", columnList = "expires_at")
+})
+public class IdempotencyRecord {
+    @Id
+    @Column(length = 400)
+    private String id; // Операция, пользователь и ключ клиента
+
+    @Column(nullable = false, length = 64)
+    private String fingerprint; // SHA-256 параметров запроса
+
+    @Column(name = "resource_id")
+    private Long resourceId; // ID созданного или обработанного платежа
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
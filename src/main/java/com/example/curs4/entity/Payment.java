@@ -12,10 +12,17 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "payments")
+@Table(name = "payments", indexes = {
+        @Index(name = "idx_payments_created_id", columnList = "created_at, id"),
+        @Index(name = "idx_payments_client_created_id", columnList = "client_id, created_at, id"),
+        @Index(name = "idx_payments_updated_at", columnList = "updated_at"),
+        @Index(name = "idx_payments_client_status_due", columnList = "client_id, status, due_date"),
+        @Index(name = "idx_payments_status_due", columnList = "status, due_date")
+})
 public class Payment {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payments_seq")
+    @SequenceGenerator(name = "payments_seq", sequenceName = "payments_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "payment_number", unique = true, nullable = false)
@@ -48,7 +55,24 @@ public class Payment {
     @Column(name = "paid_at")
     private LocalDateTime paidAt;
 
+    // Когда плановая задача перевела платеж в OVERDUE
+    @Column(name = "overdue_at")
+    private LocalDateTime overdueAt;
+
     @Column(name = "created_at")
     @Builder.Default
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "updated_at")
+    @Builder.Default
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    // Оптимистическая блокировка: параллельные изменения не перезаписывают друг друга молча
+    @Version
+    private Long version;
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
 }
\ No newline at end of file
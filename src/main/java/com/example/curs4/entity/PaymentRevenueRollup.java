@@ -0,0 +1,32 @@
+package com.example.curs4.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Дневной агрегат выручки. Пишется только SQL-инкрементами из PaymentRollupService
+// в транзакциях изменения платежей и пересборкой по месяцам.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Immutable
+@Table(name = "payment_revenue_rollups")
+public class PaymentRevenueRollup {
+    @EmbeddedId
+    private PaymentRevenueRollupId id;
+
+    @Column(name = "payment_count", nullable = false)
+    private long paymentCount;
+
+    @Column(name = "total_amount", nullable = false, precision = 38, scale = 2)
+    @Builder.Default
+    private BigDecimal totalAmount = BigDecimal.ZERO;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,28 @@
+package com.example.curs4.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+// Ключ дневного агрегата: день создания платежа, тип, валюта и статус.
+// Пустой тип платежа хранится пустой строкой — колонки ключа не могут быть NULL.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class PaymentRevenueRollupId implements Serializable {
+    @Column(name = "bucket_date", nullable = false)
+    private LocalDate bucketDate;
+
+    @Column(name = "payment_type", nullable = false)
+    private String paymentType;
+
+    @Column(nullable = false)
+    private String currency;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private PaymentStatus status;
+}
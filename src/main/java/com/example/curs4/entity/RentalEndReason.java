@@ -0,0 +1,6 @@
+package com.example.curs4.entity;
+
+public enum RentalEndReason {
+    RETURNED,   // водитель вернул транспорт
+    EXPIRED     // срок аренды истёк, транспорт освобождён автоматически
+}
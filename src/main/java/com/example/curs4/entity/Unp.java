@@ -2,6 +2,8 @@ package com.example.curs4.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Data
 @NoArgsConstructor
@@ -9,10 +11,12 @@ import lombok.*;
 @Builder
 @Entity
 @Table(name = "unp")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "unp")
 public class Unp {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "unp_seq")
+    @SequenceGenerator(name = "unp_seq", sequenceName = "unp_seq", allocationSize = 50)
     @Column(name = "unp_id")
     private Long id;
 
@@ -2,17 +2,27 @@ package com.example.curs4.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        // Один пользователь на УНП; NULL (водители, администраторы) не ограничивается
+        @Index(name = "ux_users_unp", columnList = "unp", unique = true),
+        @Index(name = "idx_users_email", columnList = "email"),
+        // Инкрементальное обновление фильтров доступности
+        @Index(name = "idx_users_updated_at", columnList = "updated_at")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
 public class User extends Auditable {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     @Column(name = "user_id")
     private Long id;
 
@@ -41,4 +51,9 @@ public class User extends Auditable {
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private Role role;
+
+    // Увеличивается при смене логина, пароля или роли: выданные ранее токены перестают приниматься
+    @Builder.Default
+    @Column(name = "security_version", columnDefinition = "integer default 0 not null")
+    private int securityVersion = 0;
 }
\ No newline at end of file
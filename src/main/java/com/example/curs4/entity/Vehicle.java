@@ -5,7 +5,11 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "vehicles")
+@Table(name = "vehicles", indexes = {
+        @Index(name = "idx_vehicles_client_id", columnList = "client_id, id"),
+        @Index(name = "idx_vehicles_updated_at", columnList = "updated_at"),
+        @Index(name = "idx_vehicles_rental_end_date", columnList = "rental_end_date")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -13,7 +17,8 @@ import java.time.LocalDateTime;
 @Builder
 public class Vehicle {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "vehicles_seq")
+    @SequenceGenerator(name = "vehicles_seq", sequenceName = "vehicles_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -44,4 +49,12 @@ public class Vehicle {
 
     @Builder.Default
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Builder.Default
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
 }
\ No newline at end of file
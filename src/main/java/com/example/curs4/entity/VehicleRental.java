@@ -0,0 +1,51 @@
+package com.example.curs4.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// История аренды. Транспорт и водитель хранятся идентификаторами без внешних ключей,
+// чтобы запись переживала удаление транспорта или пользователя.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "vehicle_rentals", indexes = {
+        @Index(name = "idx_vehicle_rentals_vehicle_id", columnList = "vehicle_id"),
+        @Index(name = "idx_vehicle_rentals_driver_id", columnList = "driver_id"),
+        @Index(name = "idx_vehicle_rentals_created_at", columnList = "created_at")
+})
+public class VehicleRental {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "vehicle_rentals_seq")
+    @SequenceGenerator(name = "vehicle_rentals_seq", sequenceName = "vehicle_rentals_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "vehicle_id", nullable = false)
+    private Long vehicleId;
+
+    @Column(name = "license_plate")
+    private String licensePlate;
+
+    @Column(name = "driver_id")
+    private Long driverId;
+
+    @Column(name = "rental_start_date")
+    private LocalDateTime rentalStartDate;
+
+    @Column(name = "rental_end_date")
+    private LocalDateTime rentalEndDate; // Плановая дата окончания
+
+    @Column(name = "returned_at")
+    private LocalDateTime returnedAt; // Фактическое окончание
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "end_reason")
+    private RentalEndReason endReason;
+
+    @Builder.Default
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
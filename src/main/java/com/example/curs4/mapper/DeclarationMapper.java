@@ -39,6 +39,7 @@ public class DeclarationMapper {
                 .reviewedAt(declaration.getReviewedAt())
                 .createdAt(declaration.getCreatedAt())
                 .updatedAt(declaration.getUpdatedAt())
+                .version(declaration.getVersion())
                 .build();
     }
 
@@ -36,6 +36,7 @@ public class PaymentMapper {
                 .paidAt(payment.getPaidAt())
                 .createdAt(payment.getCreatedAt())
                // .updatedAt(payment.getUpdatedAt())
+                .version(payment.getVersion())
                 .build();
     }
 
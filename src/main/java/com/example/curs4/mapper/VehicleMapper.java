@@ -43,7 +43,7 @@ public class VehicleMapper {
                 .rentalStartDate(vehicle.getRentalStartDate())
                 .rentalEndDate(vehicle.getRentalEndDate())
                 .createdAt(vehicle.getCreatedAt())
-                //.updatedAt(vehicle.getUpdatedAt())
+                .updatedAt(vehicle.getUpdatedAt())
                 .build();
     }
 
@@ -11,6 +11,7 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ActivityRepository extends JpaRepository<Activity, Long> {
@@ -38,6 +39,10 @@ public interface ActivityRepository extends JpaRepository<Activity, Long> {
     @Query("SELECT COUNT(a) FROM Activity a WHERE a.user = :user")
     long countByUser(@Param("user") User user);
 
+    // Только владелец — для проверок доступа без загрузки сущности
+    @Query("SELECT a.user.id FROM Activity a WHERE a.id = :id")
+    Optional<Long> findUserIdById(@Param("id") Long id);
+
     @Query("SELECT a FROM Activity a WHERE a.user = :user AND LOWER(a.description) LIKE LOWER(CONCAT('%', :keyword, '%')) ORDER BY a.activityDate DESC")
     List<Activity> findByUserAndDescriptionContainingIgnoreCase(
             @Param("user") User user,
@@ -0,0 +1,9 @@
+package com.example.curs4.repository;
+
+import com.example.curs4.entity.ClientSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ClientSummaryRepository extends JpaRepository<ClientSummary, Long> {
+}
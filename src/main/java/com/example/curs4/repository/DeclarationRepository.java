@@ -1,12 +1,21 @@
 package com.example.curs4.repository;
 
+import com.example.curs4.dto.DeclarationExportRow;
 import com.example.curs4.entity.Declaration;
 import com.example.curs4.entity.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface DeclarationRepository extends JpaRepository<Declaration, Long> {
@@ -24,4 +33,49 @@ public interface DeclarationRepository extends JpaRepository<Declaration, Long>
     long countByClient(User client);
 
     long countByClientAndStatus(User client, String status);
+
+    // Keyset-пагинация по (createdAt, id), новые записи первыми
+    @Query("SELECT d FROM Declaration d JOIN FETCH d.client ORDER BY d.createdAt DESC, d.id DESC")
+    List<Declaration> findPage(Pageable pageable);
+
+    @Query("SELECT d FROM Declaration d JOIN FETCH d.client " +
+            "WHERE d.createdAt < :createdAt OR (d.createdAt = :createdAt AND d.id < :id) " +
+            "ORDER BY d.createdAt DESC, d.id DESC")
+    List<Declaration> findPageAfter(@Param("createdAt") LocalDateTime createdAt, @Param("id") Long id,
+                                    Pageable pageable);
+
+    @Query("SELECT d FROM Declaration d JOIN FETCH d.client WHERE d.client.id = :clientId " +
+            "ORDER BY d.createdAt DESC, d.id DESC")
+    List<Declaration> findPageByClientId(@Param("clientId") Long clientId, Pageable pageable);
+
+    @Query("SELECT d FROM Declaration d JOIN FETCH d.client WHERE d.client.id = :clientId " +
+            "AND (d.createdAt < :createdAt OR (d.createdAt = :createdAt AND d.id < :id)) " +
+            "ORDER BY d.createdAt DESC, d.id DESC")
+    List<Declaration> findPageByClientIdAfter(@Param("clientId") Long clientId,
+                                              @Param("createdAt") LocalDateTime createdAt,
+                                              @Param("id") Long id,
+                                              Pageable pageable);
+
+    // Потоковая выгрузка: однонаправленный курсор с fetch size, строки-проекции не попадают в контекст.
+    // Пустые границы периода приходят как null без типа, поэтому в проверке на null тип задаётся через CAST
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new com.example.curs4.dto.DeclarationExportRow(d.id, d.declarationNumber, c.id, " +
+            "COALESCE(c.name, c.username), d.declarationType, d.tnvedCode, d.productDescription, d.productValue, " +
+            "d.netWeight, d.quantity, d.countryOfOrigin, d.countryOfDestination, d.customsOffice, d.status, " +
+            "d.submittedAt, d.reviewedAt, d.createdAt) " +
+            "FROM Declaration d JOIN d.client c " +
+            "WHERE (CAST(:from AS LocalDateTime) IS NULL OR d.createdAt >= :from) " +
+            "AND (CAST(:to AS LocalDateTime) IS NULL OR d.createdAt < :to) " +
+            "AND (:status IS NULL OR d.status = :status) " +
+            "ORDER BY d.id")
+    Stream<DeclarationExportRow> streamForExport(@Param("from") LocalDateTime from,
+                                                 @Param("to") LocalDateTime to,
+                                                 @Param("status") String status);
+
+    // Только владелец — для проверок доступа без загрузки сущности
+    @Query("SELECT d.client.id FROM Declaration d WHERE d.id = :id")
+    Optional<Long> findClientIdById(@Param("id") Long id);
 }
\ No newline at end of file
@@ -1,17 +1,24 @@
 package com.example.curs4.repository;
 
+import com.example.curs4.dto.PaymentExportRow;
 import com.example.curs4.entity.Payment;
 import com.example.curs4.entity.PaymentStatus;
 import com.example.curs4.entity.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PaymentRepository extends JpaRepository<Payment, Long> {
@@ -32,6 +39,52 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
 
     long countByClientAndStatus(User client, PaymentStatus status);
 
+    // Keyset-пагинация по (createdAt, id), новые записи первыми
+    @Query("SELECT p FROM Payment p JOIN FETCH p.client LEFT JOIN FETCH p.declaration " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Payment> findPage(Pageable pageable);
+
+    @Query("SELECT p FROM Payment p JOIN FETCH p.client LEFT JOIN FETCH p.declaration " +
+            "WHERE p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Payment> findPageAfter(@Param("createdAt") LocalDateTime createdAt, @Param("id") Long id,
+                                Pageable pageable);
+
+    @Query("SELECT p FROM Payment p JOIN FETCH p.client LEFT JOIN FETCH p.declaration " +
+            "WHERE p.client.id = :clientId ORDER BY p.createdAt DESC, p.id DESC")
+    List<Payment> findPageByClientId(@Param("clientId") Long clientId, Pageable pageable);
+
+    @Query("SELECT p FROM Payment p JOIN FETCH p.client LEFT JOIN FETCH p.declaration " +
+            "WHERE p.client.id = :clientId " +
+            "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Payment> findPageByClientIdAfter(@Param("clientId") Long clientId,
+                                          @Param("createdAt") LocalDateTime createdAt,
+                                          @Param("id") Long id,
+                                          Pageable pageable);
+
+    // Потоковая выгрузка: однонаправленный курсор с fetch size, строки-проекции не попадают в контекст.
+    // Пустые границы периода приходят как null без типа, поэтому в проверке на null тип задаётся через CAST
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new com.example.curs4.dto.PaymentExportRow(p.id, p.paymentNumber, c.id, " +
+            "COALESCE(c.name, c.username), d.id, d.declarationNumber, p.amount, p.currency, p.paymentType, " +
+            "p.status, p.dueDate, p.paidAt, p.createdAt) " +
+            "FROM Payment p JOIN p.client c LEFT JOIN p.declaration d " +
+            "WHERE (CAST(:from AS LocalDateTime) IS NULL OR p.createdAt >= :from) " +
+            "AND (CAST(:to AS LocalDateTime) IS NULL OR p.createdAt < :to) " +
+            "AND (:status IS NULL OR p.status = :status) " +
+            "ORDER BY p.id")
+    Stream<PaymentExportRow> streamForExport(@Param("from") LocalDateTime from,
+                                             @Param("to") LocalDateTime to,
+                                             @Param("status") PaymentStatus status);
+
+    // Только владелец — для проверок доступа без загрузки сущности
+    @Query("SELECT p.client.id FROM Payment p WHERE p.id = :id")
+    Optional<Long> findClientIdById(@Param("id") Long id);
+
     // Статистические методы
     @Query("SELECT COALESCE(SUM(p.amount), 0) FROM Payment p WHERE p.client = :client")
     BigDecimal getTotalAmountByClient(@Param("client") User client);
@@ -42,6 +95,11 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
     @Query("SELECT COALESCE(SUM(p.amount), 0) FROM Payment p WHERE p.client = :client AND p.status = 'PENDING'")
     BigDecimal getTotalPendingAmountByClient(@Param("client") User client);
 
-    @Query("SELECT p FROM Payment p WHERE p.client = :client AND p.dueDate < :today AND p.status = 'PENDING'")
-    List<Payment> findOverduePayments(@Param("client") User client, @Param("today") LocalDate today);
+    // Просроченные платежи помечает плановая задача; неоплаченные с истёкшим сроком, до которых
+    // она ещё не дошла, добавляются по тому же индексу (client_id, status, due_date)
+    @Query("SELECT p FROM Payment p WHERE p.client.id = :clientId " +
+            "AND (p.status = com.example.curs4.entity.PaymentStatus.OVERDUE " +
+            "OR (p.status = com.example.curs4.entity.PaymentStatus.PENDING AND p.dueDate < :today)) " +
+            "ORDER BY p.dueDate, p.id")
+    List<Payment> findOverduePayments(@Param("clientId") Long clientId, @Param("today") LocalDate today);
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.example.curs4.repository;
+
+import com.example.curs4.entity.PaymentRevenueRollup;
+import com.example.curs4.entity.PaymentRevenueRollupId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PaymentRevenueRollupRepository extends JpaRepository<PaymentRevenueRollup, PaymentRevenueRollupId> {
+}
@@ -1,11 +1,18 @@
 package com.example.curs4.repository;
 
 import com.example.curs4.entity.Unp;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.Optional;
 
 public interface UnpRepository extends JpaRepository<Unp, Long> {
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     Optional<Unp> findByUnp(String unp);
 
+    // Без кэша запросов: УНП, добавленный другим узлом, виден сразу
+    boolean existsByUnp(String unp);
+
 }
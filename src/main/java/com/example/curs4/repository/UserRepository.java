@@ -6,11 +6,15 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.SpecHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import javax.management.relation.Role;
 import org.springframework.data.domain.Pageable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,7 +29,24 @@ public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByUnp_Unp(String unp);
     boolean existsByUsername(String username);
     Optional<User> findByUsername(String username);
+
+    // Вход и проверка токена: кэш второго уровня локален для узла и не видит смену пароля, роли
+    // или удаление на других узлах, поэтому пользователь всегда читается из БД
+    @QueryHints(@QueryHint(name = SpecHints.HINT_SPEC_CACHE_RETRIEVE_MODE, value = "BYPASS"))
+    @Query("SELECT u FROM User u WHERE u.username = :username")
+    Optional<User> findForAuthentication(@Param("username") String username);
     boolean existsByEmail(String email);
     List<User> findByRole(com.example.curs4.entity.Role role);
     Page<User> findAll(Pageable pageable);
+
+    // Keyset-пагинация по id
+    @Query("SELECT u FROM User u LEFT JOIN FETCH u.unp WHERE u.id > :afterId ORDER BY u.id")
+    List<User> findPageAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Проверка пачки пользователей одним запросом (фоновая запись активностей)
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT u.id, u.username FROM User u WHERE u.username IN :usernames")
+    List<Object[]> findIdsByUsernames(@Param("usernames") Collection<String> usernames);
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package com.example.curs4.repository;
+
+import com.example.curs4.entity.RentalEndReason;
+import com.example.curs4.entity.VehicleRental;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+// Записи истории вставляются SQL-запросами возврата и планового завершения; здесь только чтение
+@Repository
+public interface VehicleRentalRepository extends JpaRepository<VehicleRental, Long> {
+    long countByVehicleIdAndDriverIdAndEndReason(Long vehicleId, Long driverId, RentalEndReason endReason);
+}
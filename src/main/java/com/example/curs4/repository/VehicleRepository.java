@@ -2,11 +2,17 @@ package com.example.curs4.repository;
 
 import com.example.curs4.entity.User;
 import com.example.curs4.entity.Vehicle;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +27,23 @@ public interface VehicleRepository extends JpaRepository<Vehicle, Long> {
 
     boolean existsByLicensePlate(String licensePlate);
 
+    // Keyset-пагинация по id
+    @Query("SELECT v FROM Vehicle v JOIN FETCH v.client LEFT JOIN FETCH v.driver " +
+            "WHERE v.id > :afterId ORDER BY v.id")
+    List<Vehicle> findPageAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("SELECT v FROM Vehicle v JOIN FETCH v.client LEFT JOIN FETCH v.driver " +
+            "WHERE v.client.id = :clientId AND v.id > :afterId ORDER BY v.id")
+    List<Vehicle> findPageByClientIdAfter(@Param("clientId") Long clientId, @Param("afterId") Long afterId,
+                                          Pageable pageable);
+
+    // Только владелец — для проверок доступа без загрузки сущности
+    @Query("SELECT v.client.id FROM Vehicle v WHERE v.id = :id")
+    Optional<Long> findClientIdById(@Param("id") Long id);
+
+    @Query("SELECT v.client.id FROM Vehicle v WHERE v.licensePlate = :licensePlate")
+    Optional<Long> findClientIdByLicensePlate(@Param("licensePlate") String licensePlate);
+
     List<Vehicle> findByVehicleTypeContainingIgnoreCase(String vehicleType);
 
     @Query("SELECT COUNT(v) FROM Vehicle v WHERE v.client = :client AND LOWER(v.vehicleType) LIKE '%груз%'")
@@ -35,9 +58,45 @@ public interface VehicleRepository extends JpaRepository<Vehicle, Long> {
     @Query("SELECT v FROM Vehicle v WHERE (v.isAvailable = true OR v.isAvailable IS NULL) AND v.driver IS NULL")
     List<Vehicle> findAvailableVehicles(); // Доступные для аренды машины (isAvailable = true или NULL, и driver = NULL)
 
+    @Query("SELECT v FROM Vehicle v JOIN FETCH v.client JOIN FETCH v.driver ORDER BY v.id")
+    List<Vehicle> findRentedVehicles(); // Арендованные машины (driver != null)
+
     List<Vehicle> findByIsAvailableTrue(); // Доступные для аренды машины (только isAvailable = true)
 
     List<Vehicle> findByDriver(User driver); // Машины, арендованные водителем
 
     List<Vehicle> findByDriverId(Long driverId); // Машины по ID водителя
+
+    @Query("SELECT DISTINCT v.client.id FROM Vehicle v WHERE v.driver.id = :driverId")
+    List<Long> findClientIdsByDriverId(@Param("driverId") Long driverId); // Владельцы машин, арендованных водителем
+
+    // Аренда одним условным UPDATE: из конкурирующих водителей строку получает только первый,
+    // остальные видят 0 изменённых строк. Затронутая таблица указана явно — иначе нативный UPDATE
+    // сбрасывает весь кэш второго уровня
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "vehicles"))
+    @Query(value = "UPDATE vehicles SET driver_id = :driverId, is_available = false, " +
+            "rental_start_date = :now, rental_end_date = :endDate, updated_at = :now " +
+            "WHERE id = :id AND driver_id IS NULL AND (is_available = true OR is_available IS NULL)",
+            nativeQuery = true)
+    int rentIfAvailable(@Param("id") Long id, @Param("driverId") Long driverId,
+                        @Param("now") LocalDateTime now, @Param("endDate") LocalDateTime endDate);
+
+    // Возврат только водителем, который арендовал транспорт; запись в историю аренд — в том же операторе
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "vehicles"))
+    @Query(value = "WITH rented AS (" +
+            "SELECT id, license_plate, driver_id, rental_start_date, rental_end_date FROM vehicles " +
+            "WHERE id = :id AND driver_id = :driverId FOR UPDATE), " +
+            "returned AS (" +
+            "UPDATE vehicles v SET driver_id = NULL, is_available = true, " +
+            "rental_start_date = NULL, rental_end_date = NULL, updated_at = :now " +
+            "FROM rented r WHERE v.id = r.id " +
+            "RETURNING r.id, r.license_plate, r.driver_id, r.rental_start_date, r.rental_end_date) " +
+            "INSERT INTO vehicle_rentals (id, vehicle_id, license_plate, driver_id, rental_start_date, " +
+            "rental_end_date, returned_at, end_reason, created_at) " +
+            "SELECT nextval('vehicle_rentals_seq'), id, license_plate, driver_id, rental_start_date, " +
+            "rental_end_date, :now, 'RETURNED', :now FROM returned",
+            nativeQuery = true)
+    int returnIfRentedBy(@Param("id") Long id, @Param("driverId") Long driverId, @Param("now") LocalDateTime now);
 }
\ No newline at end of file
@@ -11,7 +11,6 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,6 +27,7 @@ public class ActivityService {
     private final ActivityRepository activityRepository;
     private final UserRepository userRepository;
     private final ActivityMapper activityMapper;
+    private final ActivityWriter activityWriter;
 
     // CREATE
     public ActivityDTO createActivity(ActivityDTO dto) {
@@ -35,6 +35,21 @@ public class ActivityService {
 
         validateActivity(dto);
 
+        // Пользователь проверяется до постановки в очередь: неизвестный получает 400, а не 202
+        if (activityWriter.isEnabled()) {
+            if (dto.getUserId() == null || !userRepository.existsById(dto.getUserId())) {
+                throw new CustomException("Пользователь не найден");
+            }
+            LocalDateTime activityDate = dto.getActivityDate() != null ? dto.getActivityDate() : LocalDateTime.now();
+            activityWriter.enqueue(new ActivityWriter.PendingActivity(
+                    dto.getUserId(), null, dto.getDescription(), activityDate));
+            return ActivityDTO.builder()
+                    .userId(dto.getUserId())
+                    .description(dto.getDescription())
+                    .activityDate(activityDate)
+                    .build();
+        }
+
         User user = userRepository.findById(dto.getUserId())
                 .orElseThrow(() -> new CustomException("Пользователь не найден"));
 
@@ -56,6 +71,19 @@ public class ActivityService {
     public ActivityDTO createActivityForUser(String username, String description) {
         log.info("Создание активности для пользователя: {}", username);
 
+        if (activityWriter.isEnabled()) {
+            if (!userRepository.existsByUsername(username)) {
+                throw new CustomException("Пользователь не найден");
+            }
+            LocalDateTime activityDate = LocalDateTime.now();
+            activityWriter.enqueue(new ActivityWriter.PendingActivity(null, username, description, activityDate));
+            return ActivityDTO.builder()
+                    .userName(username)
+                    .description(description)
+                    .activityDate(activityDate)
+                    .build();
+        }
+
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new CustomException("Пользователь не найден"));
 
@@ -237,30 +265,4 @@ public class ActivityService {
     public boolean activityExists(Long id) {
         return activityRepository.existsById(id);
     }
-    public boolean isUserOwner(Long userId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return currentUser.getId().equals(userId);
-    }
-
-    public boolean isActivityOwner(Long activityId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        Activity activity = activityRepository.findById(activityId)
-                .orElseThrow(() -> new CustomException("Активность не найдена"));
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return activity.getUser().getId().equals(currentUser.getId());
-    }
 }
\ No newline at end of file
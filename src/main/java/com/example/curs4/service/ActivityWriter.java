@@ -0,0 +1,364 @@
+package com.example.curs4.service;
+
+import com.example.curs4.entity.Activity;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.ActivityRepository;
+import com.example.curs4.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Асинхронная запись активностей.
+ * Вызывающий код проверяет пользователя и после фиксации своей транзакции кладёт запись в ограниченный
+ * кольцевой буфер, фоновый поток сохраняет накопленное пачками — по достижении размера пачки или по таймауту.
+ * При переполнении буфера действует настроенная политика: ждать, вытеснить самую старую запись
+ * или сбросить запись в локальный файл, который дочитывается, когда писатель простаивает.
+ */
+@Slf4j
+@Service
+public class ActivityWriter {
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, SPILL
+    }
+
+    public record PendingActivity(Long userId, String username, String description, LocalDateTime activityDate) {
+    }
+
+    private final ActivityRepository activityRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final Path replayFile;
+    private final Object spillLock = new Object();
+
+    private final BlockingQueue<PendingActivity> queue;
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter droppedCounter;
+    private final Counter spilledCounter;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public ActivityWriter(ActivityRepository activityRepository,
+                          UserRepository userRepository,
+                          PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.activity.writer.enabled:true}") boolean enabled,
+                          @Value("${app.activity.writer.capacity:10000}") int capacity,
+                          @Value("${app.activity.writer.batch-size:200}") int batchSize,
+                          @Value("${app.activity.writer.flush-interval-ms:500}") long flushIntervalMs,
+                          @Value("${app.activity.writer.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+                          @Value("${app.activity.writer.spill-file:activity-spill.ndjson}") String spillFile) {
+        this.activityRepository = activityRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = Path.of(spillFile);
+        this.replayFile = Path.of(spillFile + ".replay");
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        Gauge.builder("activity.writer.queue.depth", queue, BlockingQueue::size)
+                .description("Активности, ожидающие записи")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("activity.writer.flush")
+                .description("Время записи одной пачки активностей")
+                .register(meterRegistry);
+        this.writtenCounter = meterRegistry.counter("activity.writer.written");
+        this.droppedCounter = meterRegistry.counter("activity.writer.dropped");
+        this.spilledCounter = meterRegistry.counter("activity.writer.spilled");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "activity-writer");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("Асинхронная запись активностей запущена (пачка: {}, интервал: {} мс, переполнение: {})",
+                batchSize, flushIntervalMs, overflowPolicy);
+    }
+
+    // Дописываем всё, что осталось в буфере, пока транзакции и пул соединений ещё доступны
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+        if (worker.isAlive()) {
+            log.warn("Запись активностей не завершилась за 30 секунд, в буфере осталось: {}", queue.size());
+        }
+    }
+
+    // Запись попадает в буфер только после фиксации транзакции вызывающего кода
+    public void enqueue(PendingActivity activity) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            offer(activity);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                offer(activity);
+            }
+        });
+    }
+
+    private void offer(PendingActivity activity) {
+        if (!running) {
+            log.warn("Запись активностей остановлена, активность пропущена: {}", activity.description());
+            droppedCounter.increment();
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    queue.put(activity);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCounter.increment();
+                }
+            }
+            case DROP_OLDEST -> {
+                while (!queue.offer(activity)) {
+                    if (queue.poll() != null) {
+                        droppedCounter.increment();
+                    }
+                }
+            }
+            case SPILL -> {
+                if (!queue.offer(activity)) {
+                    spill(List.of(activity));
+                }
+            }
+        }
+    }
+
+    private void run() {
+        List<PendingActivity> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingActivity first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpilled();
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingActivity next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Остановка — цикл дочитает буфер и завершится
+                running = false;
+            } catch (RuntimeException e) {
+                log.error("Ошибка фоновой записи активностей", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingActivity> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Integer written = transactionTemplate.execute(status -> persist(batch));
+            writtenCounter.increment(written != null ? written : 0);
+        } catch (RuntimeException e) {
+            log.error("Не удалось сохранить пачку из {} активностей", batch.size(), e);
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(batch);
+            } else {
+                droppedCounter.increment(batch.size());
+            }
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Пользователи пачки проверяются двумя запросами, сами активности вставляются JDBC-батчем
+    private int persist(List<PendingActivity> batch) {
+        Set<Long> userIds = new HashSet<>();
+        Set<String> usernames = new HashSet<>();
+        for (PendingActivity pending : batch) {
+            if (pending.userId() != null) {
+                userIds.add(pending.userId());
+            } else if (pending.username() != null) {
+                usernames.add(pending.username());
+            }
+        }
+
+        Set<Long> existingIds = userIds.isEmpty() ? Set.of() : new HashSet<>(userRepository.findExistingIds(userIds));
+        Map<String, Long> idsByUsername = new HashMap<>();
+        if (!usernames.isEmpty()) {
+            for (Object[] row : userRepository.findIdsByUsernames(usernames)) {
+                idsByUsername.put((String) row[1], (Long) row[0]);
+            }
+        }
+
+        List<Activity> activities = new ArrayList<>(batch.size());
+        for (PendingActivity pending : batch) {
+            Long userId = pending.userId() != null
+                    ? (existingIds.contains(pending.userId()) ? pending.userId() : null)
+                    : idsByUsername.get(pending.username());
+            // Пользователь проверен при приёме, но мог быть удалён до записи пачки
+            if (userId == null) {
+                log.warn("Активность пропущена, пользователь не найден: {}",
+                        pending.userId() != null ? pending.userId() : pending.username());
+                droppedCounter.increment();
+                continue;
+            }
+            activities.add(Activity.builder()
+                    .user(entityManager.getReference(User.class, userId))
+                    .description(pending.description())
+                    .activityDate(pending.activityDate())
+                    .build());
+        }
+
+        entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+        activityRepository.saveAll(activities);
+        entityManager.flush();
+        entityManager.clear();
+        return activities.size();
+    }
+
+    // SPILL
+    private void spill(List<PendingActivity> activities) {
+        synchronized (spillLock) {
+            try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (PendingActivity activity : activities) {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("userId", activity.userId());
+                    line.put("username", activity.username());
+                    line.put("description", activity.description());
+                    line.put("activityDate", activity.activityDate().toString());
+                    writer.write(objectMapper.writeValueAsString(line));
+                    writer.newLine();
+                }
+                spilledCounter.increment(activities.size());
+            } catch (IOException e) {
+                log.error("Не удалось сбросить {} активностей в файл {}", activities.size(), spillFile, e);
+                droppedCounter.increment(activities.size());
+            }
+        }
+    }
+
+    // Файл переименовывается, чтобы новые сбросы во время дочитывания шли в новый файл
+    private void replaySpilled() {
+        try {
+            if (!Files.exists(replayFile)) {
+                synchronized (spillLock) {
+                    if (!Files.exists(spillFile)) {
+                        return;
+                    }
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+            log.info("Дочитывание сброшенных активностей из {}", replayFile);
+            List<PendingActivity> batch = new ArrayList<>(batchSize);
+            try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JsonNode node = objectMapper.readTree(line);
+                        batch.add(new PendingActivity(
+                                node.hasNonNull("userId") ? node.get("userId").asLong() : null,
+                                node.hasNonNull("username") ? node.get("username").asText() : null,
+                                node.path("description").asText(null),
+                                LocalDateTime.parse(node.get("activityDate").asText())));
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Пропущена некорректная строка файла активностей: {}", line);
+                        droppedCounter.increment();
+                    }
+                    if (batch.size() >= batchSize) {
+                        flush(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            flush(batch);
+            Files.delete(replayFile);
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка дочитывания сброшенных активностей из {}", replayFile, e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.curs4.service;
+
+import com.example.curs4.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Инкрементальная выгрузка деклараций, платежей, транспорта, активностей и истории аренд для аналитики.
+ * Каждый запуск выгружает только строки, изменённые после предыдущего запуска (водяной знак
+ * по updated_at / created_at), в колоночные файлы Parquet, разложенные по партициям:
+ * {dir}/{таблица}/export_date=YYYY-MM-DD/part-{время запуска}.parquet
+ * Удаления водяной знак не видит: триггеры записывают id удалённых строк в analytics_tombstones (schema.sql),
+ * и запуск выгружает надгробия за тот же интервал в {dir}/{таблица}_deletes/... (id, deleted_at),
+ * после чего удаляет выгруженные из таблицы.
+ * Водяные знаки хранятся в файле _watermarks.properties в том же каталоге.
+ */
+@Slf4j
+@Service
+public class AnalyticsExportService {
+
+    private enum Dataset {
+        DECLARATIONS("declarations", "updated_at",
+                "SELECT id, declaration_number, client_id, declaration_type, tnved_code, product_description, " +
+                        "product_value, net_weight, quantity, country_of_origin, country_of_destination, " +
+                        "customs_office, status, submitted_at, reviewed_at, created_at, updated_at " +
+                        "FROM declarations"),
+        PAYMENTS("payments", "updated_at",
+                "SELECT id, payment_number, client_id, declaration_id, amount, currency, payment_type, status, " +
+                        "due_date, paid_at, created_at, updated_at FROM payments"),
+        VEHICLES("vehicles", "updated_at",
+                "SELECT id, license_plate, model, vehicle_type, year_of_manufacture, capacity, client_id, " +
+                        "driver_id, is_available, rental_start_date, rental_end_date, created_at, updated_at " +
+                        "FROM vehicles"),
+        ACTIVITIES("activities", "created_at",
+                "SELECT id, user_id, description, activity_date, created_at FROM activities"),
+        VEHICLE_RENTALS("vehicle_rentals", "created_at",
+                "SELECT id, vehicle_id, license_plate, driver_id, rental_start_date, rental_end_date, returned_at, " +
+                        "end_reason, created_at FROM vehicle_rentals");
+
+        private final String name;
+        private final String watermarkColumn;
+        private final String select;
+
+        Dataset(String name, String watermarkColumn, String select) {
+            this.name = name;
+            this.watermarkColumn = watermarkColumn;
+            this.select = select;
+        }
+    }
+
+    private static final String TOMBSTONES_SQL =
+            "SELECT row_id AS id, deleted_at FROM analytics_tombstones " +
+                    "WHERE table_name = ? AND deleted_at > ? AND deleted_at <= ? ORDER BY deleted_at, row_id";
+    private static final String WATERMARKS_FILE = "_watermarks.properties";
+    private static final DateTimeFormatter RUN_ID = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Path directory;
+    private final boolean scheduleEnabled;
+    private final long safetyLagSeconds;
+    private final int rowGroupRows;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    public AnalyticsExportService(DataSource dataSource,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.analytics-export.directory:analytics-export}") String directory,
+                                  @Value("${app.analytics-export.enabled:false}") boolean scheduleEnabled,
+                                  @Value("${app.analytics-export.safety-lag-seconds:60}") long safetyLagSeconds,
+                                  @Value("${app.analytics-export.fetch-size:1000}") int fetchSize,
+                                  @Value("${app.analytics-export.row-group-rows:10000}") int rowGroupRows) {
+        // Отдельный JdbcTemplate: fetch size не должен влиять на остальные запросы приложения
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.directory = Path.of(directory);
+        this.scheduleEnabled = scheduleEnabled;
+        this.safetyLagSeconds = safetyLagSeconds;
+        this.rowGroupRows = rowGroupRows;
+    }
+
+    @Scheduled(cron = "${app.analytics-export.cron:0 0 2 * * *}")
+    public void scheduledExport() {
+        if (!scheduleEnabled) {
+            return;
+        }
+        try {
+            export();
+        } catch (RuntimeException e) {
+            log.error("Ошибка плановой выгрузки для аналитики", e);
+        }
+    }
+
+    /**
+     * @return количество выгруженных строк и удалений ({таблица}_deletes) по каждой таблице
+     */
+    public Map<String, Long> export() {
+        if (!runLock.tryLock()) {
+            throw new CustomException("Выгрузка для аналитики уже выполняется");
+        }
+        try {
+            Files.createDirectories(directory);
+            Properties watermarks = loadWatermarks();
+
+            LocalDateTime runStart = LocalDateTime.now();
+            // Строки, изменённые в ещё не завершённых транзакциях, попадут в следующий запуск
+            LocalDateTime upperBound = runStart.minusSeconds(safetyLagSeconds);
+
+            Map<String, Long> exported = new LinkedHashMap<>();
+            for (Dataset dataset : Dataset.values()) {
+                String stored = watermarks.getProperty(dataset.name);
+                LocalDateTime lowerBound = stored != null ? LocalDateTime.parse(stored) : LocalDateTime.of(1970, 1, 1, 0, 0);
+                if (!upperBound.isAfter(lowerBound)) {
+                    exported.put(dataset.name, 0L);
+                    exported.put(dataset.name + "_deletes", 0L);
+                    continue;
+                }
+
+                long rows = exportDataset(dataset, lowerBound, upperBound, runStart);
+                exported.put(dataset.name, rows);
+                exported.put(dataset.name + "_deletes", exportDeletes(dataset, lowerBound, upperBound, runStart));
+
+                // Водяной знак сохраняется после каждой таблицы: сбой не приводит к повторной выгрузке готовых
+                watermarks.setProperty(dataset.name, upperBound.toString());
+                saveWatermarks(watermarks);
+            }
+
+            log.info("Выгрузка для аналитики завершена: {}", exported);
+            return exported;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи выгрузки для аналитики", e);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private long exportDataset(Dataset dataset, LocalDateTime from, LocalDateTime to, LocalDateTime runStart)
+            throws IOException {
+        String sql = dataset.select + " WHERE " + dataset.watermarkColumn + " > ? AND "
+                + dataset.watermarkColumn + " <= ? ORDER BY " + dataset.watermarkColumn + ", id";
+        long rows = writePartition(dataset.name, runStart, sql, Timestamp.valueOf(from), Timestamp.valueOf(to));
+        log.info("Выгрузка {} для аналитики: {} строк ({} - {})", dataset.name, rows, from, to);
+        return rows;
+    }
+
+    // Выгруженные надгробия удаляются: следующий запуск начинает с водяного знака to
+    private long exportDeletes(Dataset dataset, LocalDateTime from, LocalDateTime to, LocalDateTime runStart)
+            throws IOException {
+        long deletes = writePartition(dataset.name + "_deletes", runStart, TOMBSTONES_SQL,
+                dataset.name, Timestamp.valueOf(from), Timestamp.valueOf(to));
+        jdbcTemplate.update("DELETE FROM analytics_tombstones WHERE table_name = ? AND deleted_at <= ?",
+                dataset.name, Timestamp.valueOf(to));
+        log.debug("Удаления {} для аналитики: {}", dataset.name, deletes);
+        return deletes;
+    }
+
+    // Пустой результат файла не создаёт
+    private long writePartition(String name, LocalDateTime runStart, String sql, Object... args) throws IOException {
+        Path partition = directory.resolve(name)
+                .resolve("export_date=" + LocalDate.from(runStart));
+        Files.createDirectories(partition);
+        Path target = partition.resolve("part-" + RUN_ID.format(runStart) + ".parquet");
+        Path temp = partition.resolve(target.getFileName() + ".tmp");
+
+        ParquetRowWriter rows = new ParquetRowWriter(temp, rowGroupRows);
+        try {
+            // Курсор PostgreSQL работает только внутри транзакции
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(sql, rows, args));
+        } finally {
+            rows.close();
+        }
+
+        long count = rows.count();
+        if (count == 0) {
+            Files.deleteIfExists(temp);
+        } else {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return count;
+    }
+
+    private Properties loadWatermarks() throws IOException {
+        Properties watermarks = new Properties();
+        Path file = directory.resolve(WATERMARKS_FILE);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                watermarks.load(in);
+            }
+        }
+        return watermarks;
+    }
+
+    private void saveWatermarks(Properties watermarks) throws IOException {
+        Path file = directory.resolve(WATERMARKS_FILE);
+        Path temp = directory.resolve(WATERMARKS_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            watermarks.store(out, "Analytics export watermarks");
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Схема файла берётся из метаданных запроса; файл открывается на первой строке
+    private static class ParquetRowWriter implements RowCallbackHandler {
+        private final Path file;
+        private final int rowGroupRows;
+        private ParquetFileWriter writer;
+        private Object[] row;
+
+        private ParquetRowWriter(Path file, int rowGroupRows) {
+            this.file = file;
+            this.rowGroupRows = rowGroupRows;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            try {
+                if (writer == null) {
+                    List<ParquetFileWriter.Column> columns = columns(rs.getMetaData());
+                    writer = new ParquetFileWriter(
+                            new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), columns, rowGroupRows);
+                    row = new Object[columns.size()];
+                }
+                for (int i = 0; i < row.length; i++) {
+                    Object value = rs.getObject(i + 1);
+                    if (value instanceof Timestamp timestamp) {
+                        value = timestamp.toLocalDateTime();
+                    } else if (value instanceof Date date) {
+                        value = date.toLocalDate();
+                    }
+                    row[i] = value;
+                }
+                writer.write(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long count() {
+            return writer != null ? writer.rowCount() : 0;
+        }
+
+        private void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        private static List<ParquetFileWriter.Column> columns(ResultSetMetaData meta) throws SQLException {
+            List<ParquetFileWriter.Column> columns = new ArrayList<>();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(new ParquetFileWriter.Column(meta.getColumnLabel(i),
+                        columnType(meta.getColumnType(i), meta.getPrecision(i), meta.getScale(i)),
+                        meta.getPrecision(i), meta.getScale(i)));
+            }
+            return columns;
+        }
+
+        // NUMERIC без заданной точности пишется строкой: масштаб у таких значений разный
+        private static ParquetFileWriter.ColumnType columnType(int sqlType, int precision, int scale) {
+            return switch (sqlType) {
+                case Types.BIT, Types.BOOLEAN -> ParquetFileWriter.ColumnType.BOOLEAN;
+                case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> ParquetFileWriter.ColumnType.INT32;
+                case Types.BIGINT -> ParquetFileWriter.ColumnType.INT64;
+                case Types.REAL, Types.FLOAT, Types.DOUBLE -> ParquetFileWriter.ColumnType.DOUBLE;
+                case Types.NUMERIC, Types.DECIMAL -> precision > 0 && precision <= 1000 && scale >= 0
+                        ? ParquetFileWriter.ColumnType.DECIMAL : ParquetFileWriter.ColumnType.STRING;
+                case Types.DATE -> ParquetFileWriter.ColumnType.DATE;
+                case Types.TIMESTAMP -> ParquetFileWriter.ColumnType.TIMESTAMP;
+                default -> ParquetFileWriter.ColumnType.STRING;
+            };
+        }
+    }
+}
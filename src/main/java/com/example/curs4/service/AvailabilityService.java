@@ -0,0 +1,259 @@
+package com.example.curs4.service;
+
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.repository.VehicleRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Проверки «логин / email / госномер занят?» для публичных эндпоинтов, которые формы вызывают на каждое нажатие.
+ * На каждое поле — фильтр Блума по значениям из БД: отрицательный ответ фильтра означает «точно свободно»
+ * и возвращается без запроса; при возможном совпадении выполняется индексный запрос.
+ * Сервисы добавляют значение в фильтр до записи в БД, поэтому фильтр не отвечает «свободно» для
+ * сохранённого на этом узле значения. Записи других узлов догружаются частым инкрементальным обновлением
+ * (строки с updated_at после предыдущего обновления с запасом app.availability.refresh-overlap-seconds),
+ * поэтому «свободно» на занятое чужим узлом значение отвечается не дольше интервала обновления.
+ * Это влияет только на подсказку формы: регистрация и создание транспорта проверяют уникальность по БД.
+ * Одинаковые одновременные запросы с одного IP выполняют один запрос к БД.
+ */
+@Slf4j
+@Service
+public class AvailabilityService {
+
+    public enum Field {
+        USERNAME("SELECT username FROM users WHERE username IS NOT NULL"),
+        EMAIL("SELECT email FROM users WHERE email IS NOT NULL"),
+        LICENSE_PLATE("SELECT license_plate FROM vehicles WHERE license_plate IS NOT NULL");
+
+        private final String loadSql;
+        private final String refreshSql;
+
+        Field(String loadSql) {
+            this.loadSql = loadSql;
+            this.refreshSql = loadSql + " AND updated_at > ?";
+        }
+    }
+
+    private record Addition(Field field, String value) {
+    }
+
+    private final UserRepository userRepository;
+    private final VehicleRepository vehicleRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final double falsePositiveRate;
+    private final boolean filtersEnabled;
+    private final boolean rebuildEnabled;
+    private final long refreshOverlapSeconds;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private volatile Map<Field, BloomFilter> filters;
+    // Значения, добавленные во время пересборки: повторяются в новых фильтрах
+    private List<Addition> additionsDuringRebuild;
+    // Строки, изменённые до этого момента, уже есть в фильтрах
+    private volatile LocalDateTime loadedUpTo;
+
+    public AvailabilityService(UserRepository userRepository,
+                               VehicleRepository vehicleRepository,
+                               DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${app.availability.false-positive-rate:0.01}") double falsePositiveRate,
+                               @Value("${app.availability.fetch-size:10000}") int fetchSize,
+                               @Value("${app.availability.filters-enabled:true}") boolean filtersEnabled,
+                               @Value("${app.availability.rebuild-enabled:true}") boolean rebuildEnabled,
+                               @Value("${app.availability.refresh-overlap-seconds:60}") long refreshOverlapSeconds) {
+        this.userRepository = userRepository;
+        this.vehicleRepository = vehicleRepository;
+        // Отдельный JdbcTemplate: fetch size не должен влиять на остальные запросы приложения
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.falsePositiveRate = falsePositiveRate;
+        this.filtersEnabled = filtersEnabled;
+        this.rebuildEnabled = rebuildEnabled;
+        this.refreshOverlapSeconds = refreshOverlapSeconds;
+    }
+
+    // LOOKUPS
+    public boolean exists(Field field, String value, String clientIp) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        // Без фильтров (null) — всегда запрос к БД
+        Map<Field, BloomFilter> current = filters;
+        if (current != null && !current.get(field).mightContain(value)) {
+            return false;
+        }
+
+        String key = clientIp + '\u0000' + field + '\u0000' + value;
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            boolean exists = switch (field) {
+                case USERNAME -> userRepository.existsByUsername(value);
+                case EMAIL -> userRepository.existsByEmail(value);
+                case LICENSE_PLATE -> vehicleRepository.existsByLicensePlate(value);
+            };
+            mine.complete(exists);
+            return exists;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // Вызывается до записи значения в БД
+    public void added(Field field, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        // Под той же блокировкой, что и подмена фильтров, — значение не потеряется при пересборке
+        synchronized (this) {
+            if (filters != null) {
+                filters.get(field).add(value);
+            }
+            if (additionsDuringRebuild != null) {
+                additionsDuringRebuild.add(new Addition(field, value));
+            }
+        }
+    }
+
+    // REBUILD
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.error("Не удалось построить фильтры доступности, проверки будут выполняться по БД", e);
+        }
+    }
+
+    @Scheduled(cron = "${app.availability.rebuild-cron:0 20 * * * *}")
+    public void scheduledRebuild() {
+        if (!rebuildEnabled) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.error("Ошибка пересборки фильтров доступности", e);
+        }
+    }
+
+    public void rebuild() {
+        if (!filtersEnabled) {
+            return;
+        }
+        synchronized (this) {
+            if (additionsDuringRebuild != null) {
+                return;
+            }
+            additionsDuringRebuild = new ArrayList<>();
+        }
+        try {
+            long startedAt = System.currentTimeMillis();
+            LocalDateTime loadStartedAt = LocalDateTime.now();
+            Map<Field, BloomFilter> rebuilt = new EnumMap<>(Field.class);
+            for (Field field : Field.values()) {
+                rebuilt.put(field, readOnlyTransaction.execute(status -> load(field)));
+            }
+            synchronized (this) {
+                additionsDuringRebuild.forEach(addition -> rebuilt.get(addition.field()).add(addition.value()));
+                filters = rebuilt;
+                loadedUpTo = loadStartedAt.minusSeconds(refreshOverlapSeconds);
+            }
+            log.info("Фильтры доступности построены за {} мс", System.currentTimeMillis() - startedAt);
+        } finally {
+            synchronized (this) {
+                additionsDuringRebuild = null;
+            }
+        }
+    }
+
+    @Scheduled(cron = "${app.availability.refresh-cron:*/10 * * * * *}")
+    public void scheduledRefresh() {
+        if (!rebuildEnabled) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.error("Ошибка обновления фильтров доступности", e);
+        }
+    }
+
+    /**
+     * Добавляет в фильтры значения строк, изменённых после предыдущей загрузки (в том числе другими узлами).
+     * Запас refresh-overlap-seconds покрывает транзакции, зафиксированные позже своего updated_at,
+     * и расхождение часов узлов; повторное добавление значения в фильтр ничего не меняет.
+     */
+    public void refresh() {
+        if (!filtersEnabled || !refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime since = loadedUpTo;
+            if (filters == null || since == null) {
+                return;
+            }
+            LocalDateTime startedAt = LocalDateTime.now();
+            int values = 0;
+            for (Field field : Field.values()) {
+                List<String> changed = jdbcTemplate.queryForList(field.refreshSql, String.class, Timestamp.valueOf(since));
+                changed.forEach(value -> added(field, value));
+                values += changed.size();
+            }
+            synchronized (this) {
+                // Пересборка за это время могла сдвинуть границу дальше
+                LocalDateTime refreshed = startedAt.minusSeconds(refreshOverlapSeconds);
+                if (loadedUpTo == null || refreshed.isAfter(loadedUpTo)) {
+                    loadedUpTo = refreshed;
+                }
+            }
+            log.debug("Фильтры доступности обновлены: {} значений с {}", values, since);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    // Значения читаются дважды — сначала количество для размера фильтра, затем курсором сами значения
+    private BloomFilter load(Field field) {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM (" + field.loadSql + ") v", Long.class);
+        // Запас вдвое на рост до следующей пересборки
+        BloomFilter filter = new BloomFilter(Math.max(10_000, (count != null ? count : 0) * 2), falsePositiveRate);
+        jdbcTemplate.query(field.loadSql, rs -> {
+            filter.add(rs.getString(1));
+        });
+        return filter;
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.curs4.service;
+
+import com.example.curs4.entity.ClientSummary;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.ClientSummaryRepository;
+import com.example.curs4.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Сводка по клиенту (client_summaries): декларации по статусам, платежи по статусам с суммами,
+ * количество транспорта, грузовиков и общая грузоподъёмность.
+ * Сервисы документов сообщают об изменениях в своей транзакции, сводка меняется атомарным
+ * SQL-инкрементом (INSERT ... ON CONFLICT DO UPDATE SET x = x + delta), поэтому статистика
+ * читается одной строкой независимо от объёма истории клиента.
+ * Неоплаченные платежи с прошедшим сроком пересчитываются по индексу при каждой записи платежей клиента.
+ * Расхождения (прямые правки в БД, данные до появления сводки) исправляет пересборка по расписанию.
+ * В той же строке хранятся версии документов клиента для ETag (см. ResourceVersions); пересборка их не меняет.
+ * Пересборка клиента закрыта advisory-блокировкой клиента, которую инкременты берут в разделяемом режиме;
+ * полную пересборку в каждый момент выполняет только один узел.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional
+public class ClientSummaryService {
+
+    private static final List<String> COLUMNS = List.of(
+            "declarations_total", "declarations_pending", "declarations_under_review",
+            "declarations_approved", "declarations_rejected", "declarations_suspended",
+            "payments_total", "payments_pending", "payments_paid", "payments_overdue",
+            "payments_total_amount", "payments_pending_amount", "payments_paid_amount", "payments_overdue_amount",
+            "vehicles_total", "vehicles_trucks", "vehicles_total_capacity");
+
+    private static final Map<String, String> DECLARATION_STATUS_COLUMNS = Map.of(
+            "PENDING", "declarations_pending",
+            "UNDER_REVIEW", "declarations_under_review",
+            "APPROVED", "declarations_approved",
+            "REJECTED", "declarations_rejected",
+            "SUSPENDED", "declarations_suspended");
+
+    private static final List<String> VERSION_COLUMNS = List.of(
+            "declarations_version", "payments_version", "vehicles_version");
+
+    // Неоплаченные платежи клиента с прошедшим сроком, до которых ещё не дошла плановая отметка OVERDUE
+    private static final String PAST_DUE_COLUMN = "payments_pending_past_due";
+    private static final String PAST_DUE_COUNT_SQL =
+            "(SELECT COUNT(*) FROM payments p WHERE p.client_id = :clientId " +
+                    "AND p.status = 'PENDING' AND p.due_date < :today)";
+
+    // Advisory-блокировки: сводка клиента (ключ — id клиента) и полная пересборка (один ключ на кластер)
+    private static final int CLIENT_LOCK_CLASS = 14_001;
+    private static final int REBUILD_ALL_LOCK_CLASS = 14_002;
+
+    // Грузовиком считается транспорт, в типе которого есть "груз" (как и в прежних запросах статистики)
+    private static final String TRUCK_MARKER = "груз";
+
+    private final ClientSummaryRepository clientSummaryRepository;
+    private final UserRepository userRepository;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final DataSource dataSource;
+
+    @Value("${app.client-summary.repair-enabled:true}")
+    private boolean repairEnabled;
+
+    @Value("${app.client-summary.rebuild-chunk-size:500}")
+    private int rebuildChunkSize;
+
+    // READ
+    @Transactional(readOnly = true)
+    public ClientSummary getSummary(Long clientId) {
+        return clientSummaryRepository.findById(clientId).orElseGet(() -> {
+            // Строки нет, пока у клиента не было ни одного документа
+            if (!userRepository.existsById(clientId)) {
+                throw new CustomException("Клиент не найден");
+            }
+            return ClientSummary.empty(clientId);
+        });
+    }
+
+    // DECLARATIONS
+    public void declarationCreated(Long clientId, String status) {
+        apply(clientId, new Delta().declaration(status, 1));
+    }
+
+    // Чанк импорта: количество созданных деклараций по клиенту и статусу
+    public void declarationsCreated(Map<Long, Map<String, Long>> countsByClient) {
+        new TreeMap<>(countsByClient).forEach((clientId, counts) -> {
+            Delta delta = new Delta();
+            counts.forEach((status, count) -> delta.declaration(status, count));
+            apply(clientId, delta);
+        });
+    }
+
+    public void declarationStatusChanged(Long clientId, String previousStatus, String status) {
+        apply(clientId, new Delta().declaration(previousStatus, -1).declaration(status, 1));
+    }
+
+    // Массовая смена статуса: количество изменённых деклараций по клиенту и прежнему статусу
+    public void declarationsTransitioned(Map<Long, Map<String, Long>> countsByClient, String status) {
+        new TreeMap<>(countsByClient).forEach((clientId, counts) -> {
+            Delta delta = new Delta();
+            counts.forEach((previousStatus, count) -> {
+                delta.declaration(previousStatus, -count);
+                delta.declaration(status, count);
+            });
+            apply(clientId, delta);
+        });
+    }
+
+    public void declarationDeleted(Long clientId, String status) {
+        apply(clientId, new Delta().declaration(status, -1));
+    }
+
+    // PAYMENTS
+    public void paymentCreated(Long clientId, PaymentStatus status, BigDecimal amount) {
+        apply(clientId, new Delta().payment(status, amount, 1));
+    }
+
+    public void paymentChanged(Long clientId, PaymentStatus previousStatus, BigDecimal previousAmount,
+                               PaymentStatus status, BigDecimal amount) {
+        apply(clientId, new Delta().payment(previousStatus, previousAmount, -1).payment(status, amount, 1));
+    }
+
+    public void paymentDeleted(Long clientId, PaymentStatus status, BigDecimal amount) {
+        apply(clientId, new Delta().payment(status, amount, -1));
+    }
+
+    // Массовая смена статуса платежей: суммы изменённых платежей по клиентам
+    public void paymentsTransitioned(Map<Long, List<BigDecimal>> amountsByClient,
+                                     PaymentStatus previousStatus, PaymentStatus status) {
+        new TreeMap<>(amountsByClient).forEach((clientId, amounts) -> {
+            long count = amounts.size();
+            BigDecimal total = amounts.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+            apply(clientId, new Delta()
+                    .payments(previousStatus, -count, total.negate())
+                    .payments(status, count, total));
+        });
+    }
+
+    // VEHICLES
+    public void vehicleCreated(Long clientId, String vehicleType, Double capacity) {
+        apply(clientId, new Delta().vehicle(vehicleType, capacity, 1));
+    }
+
+    public void vehicleChanged(Long previousClientId, String previousType, Double previousCapacity,
+                               Long clientId, String vehicleType, Double capacity) {
+        if (previousClientId.equals(clientId)) {
+            apply(clientId, new Delta().vehicle(previousType, previousCapacity, -1).vehicle(vehicleType, capacity, 1));
+            return;
+        }
+        // Смена владельца: строки двух клиентов обновляются в порядке id, чтобы не ловить взаимоблокировки
+        Map<Long, Delta> deltas = new TreeMap<>();
+        deltas.put(previousClientId, new Delta().vehicle(previousType, previousCapacity, -1));
+        deltas.put(clientId, new Delta().vehicle(vehicleType, capacity, 1));
+        deltas.forEach(this::apply);
+    }
+
+    public void vehicleDeleted(Long clientId, String vehicleType, Double capacity) {
+        apply(clientId, new Delta().vehicle(vehicleType, capacity, -1));
+    }
+
+    // VERSIONS
+    // Версия (declarations_version, payments_version или vehicles_version) увеличивается в транзакции записи;
+    // строки обновляются в порядке id, как и дельты
+    public void versionChanged(String column, Collection<Long> clientIds) {
+        if (!VERSION_COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("Неизвестная колонка версии: " + column);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        clientIds.stream().filter(Objects::nonNull).distinct().sorted().forEach(clientId ->
+                namedParameterJdbcTemplate.update(
+                        "INSERT INTO client_summaries (client_id, " + String.join(", ", COLUMNS) + ", " +
+                                PAST_DUE_COLUMN + ", " + column + ", updated_at) " +
+                                "SELECT :clientId, " + "0, ".repeat(COLUMNS.size()) + "0, 1, :now " +
+                                "FROM (SELECT pg_advisory_xact_lock_shared(:lockClass, :lockKey)) summary_guard " +
+                                "ON CONFLICT (client_id) DO UPDATE SET " +
+                                column + " = client_summaries." + column + " + 1",
+                        new MapSqlParameterSource()
+                                .addValue("clientId", clientId)
+                                .addValue("now", Timestamp.valueOf(now))
+                                .addValue("lockClass", CLIENT_LOCK_CLASS)
+                                .addValue("lockKey", lockKey(clientId))));
+    }
+
+    // CLIENTS
+    public void clientDeleted(Long clientId) {
+        namedParameterJdbcTemplate.update("DELETE FROM client_summaries WHERE client_id = :clientId",
+                new MapSqlParameterSource("clientId", clientId));
+    }
+
+    // REPAIR
+    @Scheduled(cron = "${app.client-summary.repair-cron:0 30 3 * * *}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void scheduledRepair() {
+        if (!repairEnabled) {
+            return;
+        }
+        int rebuilt = rebuildAll();
+        log.info("Плановая пересборка сводок клиентов: {} строк", rebuilt);
+    }
+
+    // Первый запуск со сводками: заполняем таблицу по уже существующим документам
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void seedIfEmpty() {
+        if (clientSummaryRepository.count() == 0 && userRepository.count() > 0) {
+            int rebuilt = rebuildAll();
+            log.info("Сводки клиентов заполнены по существующим данным: {} строк", rebuilt);
+        }
+    }
+
+    /**
+     * Пересчитывает сводки всех клиентов из деклараций, платежей и транспорта: клиенты идут чанками
+     * по app.client-summary.rebuild-chunk-size, каждый чанк — отдельная транзакция.
+     * Если пересборка уже идёт на другом узле, ничего не делает.
+     * @return количество пересчитанных строк
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int rebuildAll() {
+        // Сессионная try-блокировка держится на отдельном соединении всё время пересборки,
+        // чанки идут в своих транзакциях на других соединениях пула
+        try (Connection connection = dataSource.getConnection()) {
+            if (!advisoryLock(connection, "pg_try_advisory_lock")) {
+                log.info("Пересборка сводок клиентов уже выполняется на другом узле");
+                return 0;
+            }
+            try {
+                return rebuildAllClients();
+            } finally {
+                advisoryLock(connection, "pg_advisory_unlock");
+            }
+        } catch (SQLException e) {
+            log.error("Ошибка блокировки пересборки сводок клиентов", e);
+            throw new CustomException("Ошибка пересборки сводок клиентов");
+        }
+    }
+
+    private int rebuildAllClients() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int rebuilt = 0;
+        long lastClientId = 0;
+        List<Long> clientIds;
+        do {
+            clientIds = namedParameterJdbcTemplate.queryForList(
+                    "SELECT user_id FROM users WHERE user_id > :after ORDER BY user_id LIMIT :limit",
+                    new MapSqlParameterSource("after", lastClientId).addValue("limit", rebuildChunkSize),
+                    Long.class);
+            if (clientIds.isEmpty()) {
+                break;
+            }
+            List<Long> chunk = clientIds;
+            Integer chunkRebuilt = transactionTemplate.execute(status -> rebuildClients(chunk));
+            rebuilt += chunkRebuilt != null ? chunkRebuilt : 0;
+            lastClientId = clientIds.get(clientIds.size() - 1);
+        } while (clientIds.size() == rebuildChunkSize);
+
+        int removed = namedParameterJdbcTemplate.getJdbcTemplate().update(
+                "DELETE FROM client_summaries s WHERE NOT EXISTS (SELECT 1 FROM users u WHERE u.user_id = s.client_id)");
+        log.info("Сводки клиентов пересобраны: {} строк, удалено лишних: {}", rebuilt, removed);
+        return rebuilt;
+    }
+
+    private static boolean advisoryLock(Connection connection, String function) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + function + "(" + REBUILD_ALL_LOCK_CLASS + ", 0)");
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    public int rebuildClients(Collection<Long> clientIds) {
+        if (clientIds.isEmpty()) {
+            return 0;
+        }
+        lockClients(clientIds);
+        return namedParameterJdbcTemplate.update(
+                rebuildSql("WHERE x.client_id IN (:clientIds)", "WHERE u.user_id IN (:clientIds)"),
+                rebuildParams().addValue("clientIds", clientIds));
+    }
+
+    // Ждём транзакции, уже изменившие сводки клиентов, и не пускаем новые до конца пересчёта:
+    // начавшиеся позже применят свою дельту поверх пересчитанных значений. Порядок id исключает взаимоблокировки
+    private void lockClients(Collection<Long> clientIds) {
+        clientIds.stream().distinct().sorted().forEach(clientId -> namedParameterJdbcTemplate.getJdbcTemplate()
+                .execute("SELECT pg_advisory_xact_lock(" + CLIENT_LOCK_CLASS + ", " + lockKey(clientId) + ")"));
+    }
+
+    private static int lockKey(Long clientId) {
+        return Long.hashCode(clientId);
+    }
+
+    private static MapSqlParameterSource rebuildParams() {
+        return new MapSqlParameterSource()
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                .addValue("today", Date.valueOf(LocalDate.now()))
+                .addValue("truckPattern", "%" + TRUCK_MARKER + "%");
+    }
+
+    private static String rebuildSql(String rowFilter, String userFilter) {
+        StringBuilder set = new StringBuilder();
+        for (String column : COLUMNS) {
+            set.append(column).append(" = EXCLUDED.").append(column).append(", ");
+        }
+        set.append(PAST_DUE_COLUMN).append(" = EXCLUDED.").append(PAST_DUE_COLUMN).append(", ");
+        set.append("updated_at = EXCLUDED.updated_at");
+
+        return "INSERT INTO client_summaries (client_id, " + String.join(", ", COLUMNS) + ", " +
+                PAST_DUE_COLUMN + ", updated_at) " +
+                "SELECT u.user_id, " +
+                "COALESCE(d.total, 0), COALESCE(d.pending, 0), COALESCE(d.under_review, 0), " +
+                "COALESCE(d.approved, 0), COALESCE(d.rejected, 0), COALESCE(d.suspended, 0), " +
+                "COALESCE(p.total, 0), COALESCE(p.pending, 0), COALESCE(p.paid, 0), COALESCE(p.overdue, 0), " +
+                "COALESCE(p.total_amount, 0), COALESCE(p.pending_amount, 0), " +
+                "COALESCE(p.paid_amount, 0), COALESCE(p.overdue_amount, 0), " +
+                "COALESCE(v.total, 0), COALESCE(v.trucks, 0), COALESCE(v.total_capacity, 0), " +
+                "COALESCE(p.pending_past_due, 0), :now " +
+                "FROM users u " +
+                "LEFT JOIN (SELECT x.client_id, COUNT(*) AS total, " +
+                "COUNT(*) FILTER (WHERE x.status = 'PENDING') AS pending, " +
+                "COUNT(*) FILTER (WHERE x.status = 'UNDER_REVIEW') AS under_review, " +
+                "COUNT(*) FILTER (WHERE x.status = 'APPROVED') AS approved, " +
+                "COUNT(*) FILTER (WHERE x.status = 'REJECTED') AS rejected, " +
+                "COUNT(*) FILTER (WHERE x.status = 'SUSPENDED') AS suspended " +
+                "FROM declarations x " + rowFilter + " GROUP BY x.client_id) d ON d.client_id = u.user_id " +
+                "LEFT JOIN (SELECT x.client_id, COUNT(*) AS total, " +
+                "COUNT(*) FILTER (WHERE x.status = 'PENDING') AS pending, " +
+                "COUNT(*) FILTER (WHERE x.status = 'PAID') AS paid, " +
+                "COUNT(*) FILTER (WHERE x.status = 'OVERDUE') AS overdue, " +
+                "SUM(x.amount) AS total_amount, " +
+                "SUM(x.amount) FILTER (WHERE x.status = 'PENDING') AS pending_amount, " +
+                "SUM(x.amount) FILTER (WHERE x.status = 'PAID') AS paid_amount, " +
+                "SUM(x.amount) FILTER (WHERE x.status = 'OVERDUE') AS overdue_amount, " +
+                "COUNT(*) FILTER (WHERE x.status = 'PENDING' AND x.due_date < :today) AS pending_past_due " +
+                "FROM payments x " + rowFilter + " GROUP BY x.client_id) p ON p.client_id = u.user_id " +
+                "LEFT JOIN (SELECT x.client_id, COUNT(*) AS total, " +
+                "COUNT(*) FILTER (WHERE LOWER(x.vehicle_type) LIKE :truckPattern) AS trucks, " +
+                "SUM(x.capacity) AS total_capacity " +
+                "FROM vehicles x " + rowFilter + " GROUP BY x.client_id) v ON v.client_id = u.user_id " +
+                userFilter + " " +
+                "ON CONFLICT (client_id) DO UPDATE SET " + set;
+    }
+
+    // Дельта применяется одним UPSERT: первая запись создаёт строку, следующие прибавляют к ней.
+    // Строка клиента остаётся заблокированной до конца транзакции — изменения одного клиента идут по очереди;
+    // разделяемая advisory-блокировка клиента держится до конца транзакции и задерживает его пересборку.
+    private void apply(Long clientId, Delta delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("clientId", clientId)
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                .addValue("lockClass", CLIENT_LOCK_CLASS)
+                .addValue("lockKey", lockKey(clientId));
+        StringBuilder values = new StringBuilder(":clientId");
+        StringBuilder set = new StringBuilder();
+        for (String column : COLUMNS) {
+            Number value = delta.values.get(column);
+            if (value == null) {
+                values.append(", 0");
+                continue;
+            }
+            values.append(", :").append(column);
+            params.addValue(column, value);
+            set.append(column).append(" = client_summaries.").append(column)
+                    .append(" + EXCLUDED.").append(column).append(", ");
+        }
+        if (delta.recountPastDue) {
+            values.append(", ").append(PAST_DUE_COUNT_SQL);
+            params.addValue("today", Date.valueOf(LocalDate.now()));
+            set.append(PAST_DUE_COLUMN).append(" = EXCLUDED.").append(PAST_DUE_COLUMN).append(", ");
+        } else {
+            values.append(", 0");
+        }
+        set.append("updated_at = EXCLUDED.updated_at");
+
+        namedParameterJdbcTemplate.update(
+                "INSERT INTO client_summaries (client_id, " + String.join(", ", COLUMNS) + ", " +
+                        PAST_DUE_COLUMN + ", updated_at) " +
+                        "SELECT " + values + ", :now " +
+                        "FROM (SELECT pg_advisory_xact_lock_shared(:lockClass, :lockKey)) summary_guard " +
+                        "ON CONFLICT (client_id) DO UPDATE SET " + set,
+                params);
+    }
+
+    private static boolean isTruck(String vehicleType) {
+        return vehicleType != null && vehicleType.toLowerCase().contains(TRUCK_MARKER);
+    }
+
+    // Изменения колонок сводки; нулевые изменения (например, статус не поменялся) не записываются
+    private static final class Delta {
+        private final Map<String, Number> values = new LinkedHashMap<>();
+        // Любое изменение платежей (в том числе срока) пересчитывает неоплаченные с прошедшим сроком
+        private boolean recountPastDue;
+
+        private Delta declaration(String status, long count) {
+            add("declarations_total", count);
+            String column = status != null ? DECLARATION_STATUS_COLUMNS.get(status) : null;
+            if (column != null) {
+                add(column, count);
+            }
+            return this;
+        }
+
+        private Delta payment(PaymentStatus status, BigDecimal amount, long count) {
+            BigDecimal signed = (amount != null ? amount : BigDecimal.ZERO).multiply(BigDecimal.valueOf(count));
+            return payments(status, count, signed);
+        }
+
+        // count и amount — итоговые изменения количества и суммы (со знаком)
+        private Delta payments(PaymentStatus status, long count, BigDecimal amount) {
+            recountPastDue = true;
+            add("payments_total", count);
+            add("payments_total_amount", amount);
+            if (status != null) {
+                String prefix = "payments_" + status.name().toLowerCase();
+                add(prefix, count);
+                add(prefix + "_amount", amount);
+            }
+            return this;
+        }
+
+        private Delta vehicle(String vehicleType, Double capacity, long count) {
+            add("vehicles_total", count);
+            if (isTruck(vehicleType)) {
+                add("vehicles_trucks", count);
+            }
+            add("vehicles_total_capacity", (capacity != null ? capacity : 0d) * count);
+            return this;
+        }
+
+        private void add(String column, Number value) {
+            values.merge(column, value, Delta::sum);
+        }
+
+        // Колонка всегда получает значения одного типа: long, double или BigDecimal
+        private static Number sum(Number a, Number b) {
+            if (a instanceof BigDecimal decimal) {
+                return decimal.add((BigDecimal) b);
+            }
+            if (a instanceof Double number) {
+                return number + b.doubleValue();
+            }
+            return a.longValue() + b.longValue();
+        }
+
+        private boolean isEmpty() {
+            values.values().removeIf(value -> value instanceof BigDecimal decimal
+                    ? decimal.signum() == 0
+                    : value.doubleValue() == 0);
+            return values.isEmpty() && !recountPastDue;
+        }
+    }
+}
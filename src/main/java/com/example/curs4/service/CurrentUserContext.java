@@ -0,0 +1,68 @@
+package com.example.curs4.service;
+
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Текущий пользователь в рамках HTTP-запроса.
+ * ID берётся из principal (UserDetailsImpl), который JWT-фильтр уже заполнил.
+ * Если principal не содержит ID, пользователь ищется по username один раз и запоминается
+ * в атрибутах запроса, поэтому проверки владельца и SecurityService не повторяют findByUsername.
+ */
+@Component
+@RequiredArgsConstructor
+public class CurrentUserContext {
+
+    private static final String USER_ID_ATTRIBUTE = CurrentUserContext.class.getName() + ".userId.";
+
+    private final UserRepository userRepository;
+
+    public Long getCurrentUserId() {
+        return getUserId(SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    public Long getUserId(Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return null;
+        }
+
+        if (authentication.getPrincipal() instanceof UserDetailsServiceImpl.UserDetailsImpl userDetails
+                && userDetails.getId() != null) {
+            return userDetails.getId();
+        }
+
+        String username = authentication.getName();
+        if (username == null) {
+            return null;
+        }
+
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        String attributeName = USER_ID_ATTRIBUTE + username;
+        if (attributes != null
+                && attributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST) instanceof Long cachedId) {
+            return cachedId;
+        }
+
+        Long userId = userRepository.findByUsername(username)
+                .map(User::getId)
+                .orElse(null);
+
+        if (attributes != null && userId != null) {
+            attributes.setAttribute(attributeName, userId, RequestAttributes.SCOPE_REQUEST);
+        }
+        return userId;
+    }
+
+    public boolean isCurrentUser(Long userId, Authentication authentication) {
+        if (userId == null) {
+            return false;
+        }
+        return userId.equals(getUserId(authentication));
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.curs4.service;
+
+import com.example.curs4.dto.DeclarationDTO;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.UserRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковый импорт деклараций из CSV (первая строка — заголовок) или NDJSON (один JSON-объект на строку).
+ * Файл читается построчно, строки копятся в чанк и сохраняются одной транзакцией,
+ * результат по каждой строке сразу пишется в ответ — память не зависит от размера файла.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeclarationImportService {
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final DeclarationService declarationService;
+    private final UserRepository userRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${app.import.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * @param restrictedClientId если задан, все строки должны относиться к этому клиенту (импорт от имени клиента)
+     * @param out                отчёт в формате NDJSON: строка на каждую запись и итоговая строка
+     */
+    public void importDeclarations(BufferedReader reader, Format format, Long restrictedClientId, Writer out)
+            throws IOException {
+        ImportState state = new ImportState(restrictedClientId, out);
+
+        String[] header = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            if (format == Format.CSV && header == null) {
+                // Excel сохраняет CSV с BOM в начале файла
+                header = parseCsvLine(line.replace("\uFEFF", "")).toArray(new String[0]);
+                continue;
+            }
+
+            try {
+                Map<String, String> fields = format == Format.CSV
+                        ? csvFields(header, parseCsvLine(line))
+                        : jsonFields(line);
+                DeclarationDTO dto = toDto(fields);
+                declarationService.validateDeclaration(dto);
+                checkClient(dto.getClientId(), state);
+                state.accept(lineNumber, dto);
+            } catch (CustomException e) {
+                state.reject(lineNumber, e.getMessage());
+            }
+
+            // Ошибочные строки тоже ждут записи в ответ, поэтому ограничиваем общее число строк
+            if (state.results.size() >= chunkSize) {
+                flush(state);
+            }
+        }
+        flush(state);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("total", state.total);
+        summary.put("created", state.created);
+        summary.put("failed", state.failed);
+        writeLine(out, summary);
+        out.flush();
+
+        log.info("Импорт деклараций завершен: всего {}, создано {}, с ошибками {}",
+                state.total, state.created, state.failed);
+    }
+
+    private void flush(ImportState state) throws IOException {
+        if (!state.chunk.isEmpty()) {
+            try {
+                List<String> numbers = declarationService.createDeclarationsChunk(state.chunk);
+                for (int i = 0; i < numbers.size(); i++) {
+                    state.results.get(state.chunkPositions.get(i)).put("declarationNumber", numbers.get(i));
+                }
+                state.created += numbers.size();
+            } catch (RuntimeException e) {
+                log.error("Ошибка сохранения чанка импорта деклараций", e);
+                for (Integer position : state.chunkPositions) {
+                    Map<String, Object> result = state.results.get(position);
+                    result.put("status", "ERROR");
+                    result.put("error", "Ошибка сохранения в БД");
+                }
+                state.failed += state.chunk.size();
+            }
+        }
+
+        for (Map<String, Object> result : state.results) {
+            writeLine(state.out, result);
+        }
+        state.out.flush();
+
+        state.chunk.clear();
+        state.chunkPositions.clear();
+        state.results.clear();
+    }
+
+    // Клиент проверяется один раз на каждый уникальный clientId
+    private void checkClient(Long clientId, ImportState state) {
+        if (state.restrictedClientId != null && !state.restrictedClientId.equals(clientId)) {
+            throw new CustomException("Нельзя импортировать декларации другого клиента");
+        }
+        boolean exists = state.knownClients.computeIfAbsent(clientId, userRepository::existsById);
+        if (!exists) {
+            throw new CustomException("Клиент не найден");
+        }
+    }
+
+    // PARSING
+    private DeclarationDTO toDto(Map<String, String> fields) {
+        return DeclarationDTO.builder()
+                .clientId(parseLong(fields, "clientId"))
+                .declarationType(fields.get("declarationType"))
+                .tnvedCode(fields.get("tnvedCode"))
+                .productDescription(fields.get("productDescription"))
+                .productValue(parseDecimal(fields, "productValue"))
+                .netWeight(parseDecimal(fields, "netWeight"))
+                .quantity(parseInteger(fields, "quantity"))
+                .countryOfOrigin(fields.get("countryOfOrigin"))
+                .countryOfDestination(fields.get("countryOfDestination"))
+                .customsOffice(fields.get("customsOffice"))
+                .build();
+    }
+
+    private Map<String, String> jsonFields(String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new CustomException("Некорректный JSON");
+        }
+        if (node == null || !node.isObject()) {
+            throw new CustomException("Ожидается JSON-объект");
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (Map.Entry<String, JsonNode> entry : node.properties()) {
+            if (!entry.getValue().isNull()) {
+                fields.put(entry.getKey(), entry.getValue().asText());
+            }
+        }
+        return fields;
+    }
+
+    private Map<String, String> csvFields(String[] header, List<String> values) {
+        if (values.size() > header.length) {
+            throw new CustomException("Количество значений больше количества колонок");
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            if (!values.get(i).isEmpty()) {
+                fields.put(header[i].trim(), values.get(i));
+            }
+        }
+        return fields;
+    }
+
+    // Разбор строки CSV с запятой-разделителем и значениями в двойных кавычках ("" внутри кавычек — кавычка)
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new CustomException("Незакрытая кавычка в строке CSV");
+        }
+        values.add(current.toString().trim());
+        return values;
+    }
+
+    private static Long parseLong(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        try {
+            return value != null ? Long.valueOf(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            throw new CustomException("Некорректное значение поля " + name + ": " + value);
+        }
+    }
+
+    private static Integer parseInteger(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        try {
+            return value != null ? Integer.valueOf(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            throw new CustomException("Некорректное значение поля " + name + ": " + value);
+        }
+    }
+
+    private static BigDecimal parseDecimal(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        try {
+            return value != null ? new BigDecimal(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            throw new CustomException("Некорректное значение поля " + name + ": " + value);
+        }
+    }
+
+    private void writeLine(Writer out, Map<String, Object> value) throws IOException {
+        out.write(objectMapper.writeValueAsString(value));
+        out.write('\n');
+    }
+
+    // Состояние одного импорта: текущий чанк и результаты строк, ещё не записанные в ответ
+    private static class ImportState {
+        private final Long restrictedClientId;
+        private final Writer out;
+        private final Map<Long, Boolean> knownClients = new HashMap<>();
+        private final List<DeclarationDTO> chunk = new ArrayList<>();
+        private final List<Integer> chunkPositions = new ArrayList<>();
+        private final List<Map<String, Object>> results = new ArrayList<>();
+        private long total;
+        private long created;
+        private long failed;
+
+        private ImportState(Long restrictedClientId, Writer out) {
+            this.restrictedClientId = restrictedClientId;
+            this.out = out;
+        }
+
+        private void accept(int lineNumber, DeclarationDTO dto) {
+            Map<String, Object> result = result(lineNumber, "CREATED");
+            chunkPositions.add(results.size());
+            results.add(result);
+            chunk.add(dto);
+        }
+
+        private void reject(int lineNumber, String error) {
+            Map<String, Object> result = result(lineNumber, "ERROR");
+            result.put("error", error);
+            results.add(result);
+            failed++;
+        }
+
+        private Map<String, Object> result(int lineNumber, String status) {
+            total++;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("line", lineNumber);
+            result.put("status", status);
+            return result;
+        }
+    }
+}
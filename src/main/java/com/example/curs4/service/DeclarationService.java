@@ -1,14 +1,25 @@
 package com.example.curs4.service;
 
+import com.example.curs4.dto.BulkStatusUpdateRequest;
+import com.example.curs4.dto.BulkStatusUpdateResponse;
 import com.example.curs4.dto.DeclarationDTO;
+import com.example.curs4.dto.KeysetPage;
 import com.example.curs4.entity.Declaration;
+import com.example.curs4.entity.DeclarationStatus;
 import com.example.curs4.entity.User;
 import com.example.curs4.exception.CustomException;
 import com.example.curs4.mapper.DeclarationMapper;
 import com.example.curs4.repository.DeclarationRepository;
 import com.example.curs4.repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -16,8 +27,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -28,7 +45,18 @@ public class DeclarationService {
 
     private final DeclarationRepository declarationRepository;
     private final UserRepository userRepository;
+    private final DocumentNumberAllocator documentNumberAllocator;
     private final DeclarationMapper declarationMapper;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final KeysetPagination keysetPagination;
+    private final ClientSummaryService clientSummaryService;
+    private final ResourceVersions resourceVersions;
+
+    @Value("${app.declarations.bulk-status.max-ids:10000}")
+    private int bulkStatusMaxIds;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     // CREATE
     public DeclarationDTO createDeclaration(DeclarationDTO dto) {
@@ -39,9 +67,46 @@ public class DeclarationService {
         User client = userRepository.findById(dto.getClientId())
                 .orElseThrow(() -> new CustomException("Клиент не найден"));
 
+        Declaration declaration = buildDeclaration(dto, client);
+
+        Declaration savedDeclaration = declarationRepository.save(declaration);
+        clientSummaryService.declarationCreated(client.getId(), savedDeclaration.getStatus());
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, client.getId());
+        log.info("Декларация создана: {}", savedDeclaration.getDeclarationNumber());
+
+        return declarationMapper.toDto(savedDeclaration);
+    }
+
+    // BULK CREATE — один чанк импорта в одной транзакции.
+    // Строки уже провалидированы, существование клиентов проверено вызывающим кодом.
+    public List<String> createDeclarationsChunk(List<DeclarationDTO> dtos) {
+        // INSERT-ы чанка уходят в JDBC одним батчем (id берутся из пула последовательности)
+        entityManager.unwrap(Session.class).setJdbcBatchSize(dtos.size());
+
+        List<Declaration> declarations = dtos.stream()
+                .map(dto -> buildDeclaration(dto, userRepository.getReferenceById(dto.getClientId())))
+                .collect(Collectors.toList());
+
+        declarationRepository.saveAll(declarations);
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, declarations.stream()
+                .map(d -> d.getClient().getId())
+                .collect(Collectors.toSet()));
+        clientSummaryService.declarationsCreated(declarations.stream()
+                .collect(Collectors.groupingBy(d -> d.getClient().getId(),
+                        Collectors.groupingBy(Declaration::getStatus, Collectors.counting()))));
+        entityManager.flush();
+        // Не держим импортированные сущности в контексте — память не растёт с размером файла
+        entityManager.clear();
+
+        return declarations.stream()
+                .map(Declaration::getDeclarationNumber)
+                .collect(Collectors.toList());
+    }
+
+    private Declaration buildDeclaration(DeclarationDTO dto, User client) {
         Declaration declaration = declarationMapper.toEntity(dto);
         declaration.setClient(client);
-        declaration.setDeclarationNumber(generateDeclarationNumber());
+        declaration.setDeclarationNumber(documentNumberAllocator.nextNumber(DocumentNumberAllocator.DocumentType.DECLARATION));
         declaration.setSubmittedAt(LocalDateTime.now());
 
         // Устанавливаем значения по умолчанию
@@ -49,10 +114,7 @@ public class DeclarationService {
         if (declaration.getNetWeight() == null) declaration.setNetWeight(BigDecimal.ZERO);
         if (declaration.getQuantity() == null) declaration.setQuantity(0);
 
-        Declaration savedDeclaration = declarationRepository.save(declaration);
-        log.info("Декларация создана: {}", savedDeclaration.getDeclarationNumber());
-
-        return declarationMapper.toDto(savedDeclaration);
+        return declaration;
     }
 
     // READ
@@ -64,17 +126,28 @@ public class DeclarationService {
     }
 
     @Transactional(readOnly = true)
-    public List<DeclarationDTO> getAllDeclarations() {
-        return declarationRepository.findAll().stream()
-                .map(declarationMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<DeclarationDTO> getDeclarationsPage(String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decodeCreated(cursor);
+
+        List<Declaration> rows = after == null
+                ? declarationRepository.findPage(keysetPagination.probe(pageSize))
+                : declarationRepository.findPageAfter(after.createdAt(), after.id(), keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, declarationMapper::toDto,
+                d -> keysetPagination.encode(d.getCreatedAt(), d.getId()));
     }
 
     @Transactional(readOnly = true)
-    public List<DeclarationDTO> getDeclarationsByClientId(Long clientId) {
-        return declarationRepository.findByClientId(clientId).stream()
-                .map(declarationMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<DeclarationDTO> getDeclarationsPageByClientId(Long clientId, String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decodeCreated(cursor);
+
+        List<Declaration> rows = after == null
+                ? declarationRepository.findPageByClientId(clientId, keysetPagination.probe(pageSize))
+                : declarationRepository.findPageByClientIdAfter(clientId, after.createdAt(), after.id(),
+                        keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, declarationMapper::toDto,
+                d -> keysetPagination.encode(d.getCreatedAt(), d.getId()));
     }
 
     @Transactional(readOnly = true)
@@ -94,6 +167,11 @@ public class DeclarationService {
             throw new CustomException("Редактирование невозможно. Декларация уже обработана.");
         }
 
+        // Клиент редактировал устаревшую копию — отвечаем конфликтом, а не перезаписываем чужие изменения
+        if (dto.getVersion() != null && !dto.getVersion().equals(existingDeclaration.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Declaration.class, id);
+        }
+
         // Обновляем разрешенные поля
         existingDeclaration.setDeclarationType(dto.getDeclarationType());
         existingDeclaration.setTnvedCode(dto.getTnvedCode());
@@ -106,6 +184,7 @@ public class DeclarationService {
         existingDeclaration.setCustomsOffice(dto.getCustomsOffice());
 
         Declaration updatedDeclaration = declarationRepository.save(existingDeclaration);
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, updatedDeclaration.getClient().getId());
         log.info("Декларация обновлена: {}", updatedDeclaration.getDeclarationNumber());
 
         return declarationMapper.toDto(updatedDeclaration);
@@ -116,6 +195,7 @@ public class DeclarationService {
         Declaration declaration = declarationRepository.findById(id)
                 .orElseThrow(() -> new CustomException("Декларация не найдена"));
 
+        String previousStatus = declaration.getStatus();
         declaration.setStatus(status);
 
         if ("APPROVED".equals(status) || "REJECTED".equals(status)) {
@@ -123,12 +203,91 @@ public class DeclarationService {
         }
 
         Declaration updatedDeclaration = declarationRepository.save(declaration);
+        clientSummaryService.declarationStatusChanged(declaration.getClient().getId(), previousStatus, status);
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, declaration.getClient().getId());
         log.info("Статус декларации {} изменен на: {}",
                 updatedDeclaration.getDeclarationNumber(), status);
 
         return declarationMapper.toDto(updatedDeclaration);
     }
 
+    // BULK UPDATE STATUS — один UPDATE по множеству вместо findById + save на каждую декларацию.
+    // Переход выполняется только для деклараций в допустимых предшествующих статусах.
+    public BulkStatusUpdateResponse updateDeclarationStatuses(BulkStatusUpdateRequest request) {
+        DeclarationStatus target = parseStatus(request.getTargetStatus());
+        List<Long> ids = request.getIds();
+
+        boolean hasIds = ids != null && !ids.isEmpty();
+        boolean hasFilter = request.getStatus() != null || request.getCustomsOffice() != null
+                || request.getClientId() != null;
+        if (!hasIds && !hasFilter) {
+            throw new CustomException("Укажите список ID или фильтр деклараций");
+        }
+        if (hasIds && ids.size() > bulkStatusMaxIds) {
+            throw new CustomException("Слишком много ID в одном запросе (максимум " + bulkStatusMaxIds + ")");
+        }
+
+        Set<DeclarationStatus> predecessors = EnumSet.copyOf(target.allowedPredecessors());
+        if (request.getStatus() != null) {
+            predecessors.retainAll(EnumSet.of(parseStatus(request.getStatus())));
+        }
+        if (predecessors.isEmpty()) {
+            return BulkStatusUpdateResponse.builder()
+                    .targetStatus(target.name())
+                    .updatedCount(0)
+                    .updatedIds(List.of())
+                    .build();
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("target", target.name())
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                .addValue("predecessors", predecessors.stream().map(Enum::name).collect(Collectors.toList()));
+
+        // Прежний статус берётся из заблокированной выборки — он нужен для сводок клиентов
+        StringBuilder filter = new StringBuilder("SELECT id, status FROM declarations WHERE status IN (:predecessors)");
+        if (hasIds) {
+            filter.append(" AND id IN (:ids)");
+            params.addValue("ids", ids);
+        }
+        if (request.getCustomsOffice() != null) {
+            filter.append(" AND customs_office = :customsOffice");
+            params.addValue("customsOffice", request.getCustomsOffice());
+        }
+        if (request.getClientId() != null) {
+            filter.append(" AND client_id = :clientId");
+            params.addValue("clientId", request.getClientId());
+        }
+        filter.append(" FOR UPDATE");
+
+        String sql = "UPDATE declarations d SET status = :target, updated_at = :now"
+                + ", version = COALESCE(d.version, 0) + 1"
+                + (target.isReviewDecision() ? ", reviewed_at = :now" : "")
+                + " FROM (" + filter + ") previous WHERE d.id = previous.id"
+                + " RETURNING d.id, d.client_id, previous.status";
+
+        // Загруженные ранее сущности стали бы устаревшими — сбрасываем контекст до и после UPDATE
+        entityManager.flush();
+        List<Long> updatedIds = new ArrayList<>();
+        Map<Long, Map<String, Long>> transitions = new HashMap<>();
+        namedParameterJdbcTemplate.query(sql, params, rs -> {
+            updatedIds.add(rs.getLong(1));
+            transitions.computeIfAbsent(rs.getLong(2), clientId -> new HashMap<>())
+                    .merge(rs.getString(3), 1L, Long::sum);
+        });
+        entityManager.clear();
+        clientSummaryService.declarationsTransitioned(transitions, target.name());
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, transitions.keySet());
+
+        log.info("Статус {} деклараций изменен на: {}", updatedIds.size(), target);
+
+        return BulkStatusUpdateResponse.builder()
+                .targetStatus(target.name())
+                .updatedCount(updatedIds.size())
+                .updatedIds(updatedIds)
+                .build();
+    }
+
     // DELETE
     public void deleteDeclaration(Long id) {
         Declaration declaration = declarationRepository.findById(id)
@@ -152,11 +311,13 @@ public class DeclarationService {
         }
 
         declarationRepository.delete(declaration);
+        clientSummaryService.declarationDeleted(declaration.getClient().getId(), declaration.getStatus());
+        resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, declaration.getClient().getId());
         log.info("Декларация удалена: {}", declaration.getDeclarationNumber());
     }
 
     // VALIDATION
-    private void validateDeclaration(DeclarationDTO dto) {
+    void validateDeclaration(DeclarationDTO dto) {
         if (dto.getClientId() == null) {
             throw new CustomException("ID клиента обязателен");
         }
@@ -178,69 +339,20 @@ public class DeclarationService {
         }
     }
 
-    // UTILITY METHODS
-    private String generateDeclarationNumber() {
-        String baseNumber = "TD-" + LocalDateTime.now().getYear() + "-";
-        String declarationNumber;
-        int attempt = 0;
-        
-        do {
-            long count = declarationRepository.count() + 1 + attempt;
-            declarationNumber = baseNumber + String.format("%05d", count);
-            attempt++;
-            
-            // Защита от бесконечного цикла
-            if (attempt > 1000) {
-                declarationNumber = baseNumber + String.format("%05d", System.currentTimeMillis() % 100000);
-                break;
-            }
-        } while (declarationRepository.existsByDeclarationNumber(declarationNumber));
-        
-        return declarationNumber;
+    private DeclarationStatus parseStatus(String status) {
+        if (status == null) {
+            throw new CustomException("Статус декларации обязателен");
+        }
+        try {
+            return DeclarationStatus.valueOf(status.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new CustomException("Неизвестный статус декларации: " + status);
+        }
     }
 
+    // UTILITY METHODS
     @Transactional(readOnly = true)
     public boolean declarationExists(Long id) {
         return declarationRepository.existsById(id);
     }
-
-    @Transactional(readOnly = true)
-    public long getDeclarationsCountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return declarationRepository.countByClient(client);
-    }
-
-    @Transactional(readOnly = true)
-    public long getDeclarationsCountByClientAndStatus(Long clientId, String status) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return declarationRepository.countByClientAndStatus(client, status);
-    }
-    public boolean isClientOwner(Long clientId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return currentUser.getId().equals(clientId);
-    }
-
-    public boolean isDeclarationOwner(Long declarationId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        Declaration declaration = declarationRepository.findById(declarationId)
-                .orElseThrow(() -> new CustomException("Декларация не найдена"));
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return declaration.getClient().getId().equals(currentUser.getId());
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+package com.example.curs4.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Year;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Выдача номеров документов вида TD-2026-00001 и PMT-2026-00001.
+ * Для каждого префикса и года в БД заводится отдельная последовательность, из которой
+ * узел резервирует блок номеров (hi/lo) и дальше выдаёт их из памяти.
+ * С началом нового года нумерация автоматически начинается с новой последовательности.
+ */
+@Slf4j
+@Service
+public class DocumentNumberAllocator {
+
+    public enum DocumentType {
+        DECLARATION("TD", "declarations", "declaration_number"),
+        PAYMENT("PMT", "payments", "payment_number");
+
+        private final String prefix;
+        private final String table;
+        private final String numberColumn;
+
+        DocumentType(String prefix, String table, String numberColumn) {
+            this.prefix = prefix;
+            this.table = table;
+            this.numberColumn = numberColumn;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate requiresNew;
+    private final int blockSize;
+
+    private final Map<String, NumberBlock> blocks = new ConcurrentHashMap<>();
+
+    public DocumentNumberAllocator(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${app.document-numbers.block-size:100}") int blockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.blockSize = blockSize;
+    }
+
+    public String nextNumber(DocumentType type) {
+        int year = Year.now().getValue();
+        String sequenceName = sequenceName(type, year);
+        NumberBlock block = blocks.computeIfAbsent(sequenceName, name -> new NumberBlock());
+
+        long number = block.next(() -> reserveBlock(block, type, year, sequenceName));
+        return type.prefix + "-" + year + "-" + String.format("%05d", number);
+    }
+
+    // Одно обращение к БД на блок номеров; выполняется в отдельной транзакции,
+    // чтобы откат транзакции вызывающего кода не откатывал создание последовательности.
+    // Вызывается без удержания блокировок: ожидание соединения из пула не задерживает другие потоки
+    private Range reserveBlock(NumberBlock block, DocumentType type, int year, String sequenceName) {
+        Range reserved = requiresNew.execute(status -> {
+            if (block.increment == 0) {
+                block.increment = ensureSequence(type, year, sequenceName);
+            }
+            Long hi = jdbcTemplate.queryForObject("SELECT nextval('" + sequenceName + "')", Long.class);
+            return new Range(hi, hi + block.increment - 1);
+        });
+
+        log.debug("Зарезервирован блок номеров {}: {}-{}", sequenceName, reserved.first, reserved.last);
+        return reserved;
+    }
+
+    private long ensureSequence(DocumentType type, int year, String sequenceName) {
+        Long increment = findSequenceIncrement(sequenceName);
+        if (increment != null) {
+            return increment;
+        }
+
+        // Продолжаем нумерацию после уже выданных номеров этого года
+        String numberPrefix = type.prefix + "-" + year + "-";
+        Long maxIssued = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(CAST(SUBSTRING(" + type.numberColumn + " FROM ?) AS BIGINT)), 0) " +
+                        "FROM " + type.table + " WHERE " + type.numberColumn + " ~ ?",
+                Long.class,
+                numberPrefix.length() + 1,
+                "^" + numberPrefix + "[0-9]+$");
+
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + sequenceName +
+                " INCREMENT BY " + blockSize + " START WITH " + (maxIssued + 1));
+        log.info("Создана последовательность номеров {} (начало: {}, блок: {})",
+                sequenceName, maxIssued + 1, blockSize);
+
+        // Последовательность могла быть создана другим узлом с другим размером блока
+        increment = findSequenceIncrement(sequenceName);
+        return increment != null ? increment : blockSize;
+    }
+
+    private Long findSequenceIncrement(String sequenceName) {
+        return jdbcTemplate.query(
+                "SELECT increment_by FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?",
+                (ResultSetExtractor<Long>) rs -> rs.next() ? rs.getLong(1) : null,
+                sequenceName);
+    }
+
+    private static String sequenceName(DocumentType type, int year) {
+        return "doc_number_" + type.prefix.toLowerCase() + "_" + year;
+    }
+
+    private static class Range {
+        private final long first;
+        private final long last;
+        private final AtomicLong next;
+
+        Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+            this.next = new AtomicLong(first);
+        }
+    }
+
+    // Текущий блок меняется через CAS; блоки, зарезервированные параллельно, не теряются, а ждут в spare
+    private static class NumberBlock {
+        private final AtomicReference<Range> current = new AtomicReference<>();
+        private final Queue<Range> spare = new ConcurrentLinkedQueue<>();
+        private volatile long increment;
+
+        long next(Supplier<Range> reserve) {
+            while (true) {
+                Range range = current.get();
+                if (range != null) {
+                    long number = range.next.getAndIncrement();
+                    if (number <= range.last) {
+                        return number;
+                    }
+                }
+                Range replacement = spare.poll();
+                if (replacement == null) {
+                    replacement = reserve.get();
+                }
+                if (!current.compareAndSet(range, replacement)) {
+                    spare.add(replacement);
+                }
+            }
+        }
+    }
+}
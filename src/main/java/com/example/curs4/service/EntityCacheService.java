@@ -0,0 +1,80 @@
+package com.example.curs4.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш второго уровня Hibernate (регионы users и unp, кэш запросов findByUnp). Аутентификация кэш не использует.
+ * Записи через JPA Hibernate отражает в кэше сам; здесь — сброс после записей в обход Hibernate
+ * и статистика попаданий/промахов по регионам (счётчики ведутся при hibernate.generate_statistics=true).
+ */
+@Slf4j
+@Service
+public class EntityCacheService {
+
+    private final SessionFactory sessionFactory;
+
+    public EntityCacheService(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    // Справочник УНП дополняется через JDBC: закэшированный «не найден» по findByUnp сбрасывается после фиксации
+    public void unpsImported() {
+        Runnable evict = () -> sessionFactory.getCache().evictDefaultQueryRegion();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict.run();
+            }
+        });
+    }
+
+    public void evictAll() {
+        sessionFactory.getCache().evictAllRegions();
+        log.info("Кэш второго уровня очищен");
+    }
+
+    public Map<String, Object> statistics() {
+        Statistics statistics = sessionFactory.getStatistics();
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics stats = statistics.getDomainDataRegionStatistics(region);
+            if (stats != null) {
+                regions.put(region, counters(stats.getHitCount(), stats.getMissCount(), stats.getPutCount()));
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", statistics.isStatisticsEnabled());
+        result.put("secondLevel", counters(statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(), statistics.getSecondLevelCachePutCount()));
+        result.put("queries", counters(statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(), statistics.getQueryCachePutCount()));
+        result.put("regions", regions);
+        result.put("statements", statistics.getPrepareStatementCount());
+        return result;
+    }
+
+    private static Map<String, Object> counters(long hits, long misses, long puts) {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("hits", hits);
+        counters.put("misses", misses);
+        counters.put("puts", puts);
+        long lookups = hits + misses;
+        counters.put("hitRatio", lookups > 0 ? (double) hits / lookups : 0.0);
+        return counters;
+    }
+}
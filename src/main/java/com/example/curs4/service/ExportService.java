@@ -0,0 +1,196 @@
+package com.example.curs4.service;
+
+import com.example.curs4.dto.DeclarationExportRow;
+import com.example.curs4.dto.PaymentExportRow;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.DeclarationRepository;
+import com.example.curs4.repository.PaymentRepository;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Потоковая выгрузка платежей и деклараций в CSV или NDJSON.
+ * Строки читаются из БД однонаправленным курсором (Stream + fetch size) в виде проекций,
+ * поэтому ни сущности, ни весь результат не накапливаются в памяти — каждая строка
+ * сразу пишется в выходной поток.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class ExportService {
+
+    public enum Format {
+        CSV, NDJSON;
+
+        public static Format parse(String value) {
+            if (value == null || value.isBlank()) {
+                return CSV;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new CustomException("Неподдерживаемый формат выгрузки: " + value);
+            }
+        }
+    }
+
+    private record Column<R>(String name, Function<R, Object> value) {
+    }
+
+    private static final List<Column<PaymentExportRow>> PAYMENT_COLUMNS = List.of(
+            new Column<>("id", PaymentExportRow::getId),
+            new Column<>("paymentNumber", PaymentExportRow::getPaymentNumber),
+            new Column<>("clientId", PaymentExportRow::getClientId),
+            new Column<>("clientName", PaymentExportRow::getClientName),
+            new Column<>("declarationId", PaymentExportRow::getDeclarationId),
+            new Column<>("declarationNumber", PaymentExportRow::getDeclarationNumber),
+            new Column<>("amount", PaymentExportRow::getAmount),
+            new Column<>("currency", PaymentExportRow::getCurrency),
+            new Column<>("paymentType", PaymentExportRow::getPaymentType),
+            new Column<>("status", PaymentExportRow::getStatus),
+            new Column<>("dueDate", PaymentExportRow::getDueDate),
+            new Column<>("paidAt", PaymentExportRow::getPaidAt),
+            new Column<>("createdAt", PaymentExportRow::getCreatedAt)
+    );
+
+    private static final List<Column<DeclarationExportRow>> DECLARATION_COLUMNS = List.of(
+            new Column<>("id", DeclarationExportRow::getId),
+            new Column<>("declarationNumber", DeclarationExportRow::getDeclarationNumber),
+            new Column<>("clientId", DeclarationExportRow::getClientId),
+            new Column<>("clientName", DeclarationExportRow::getClientName),
+            new Column<>("declarationType", DeclarationExportRow::getDeclarationType),
+            new Column<>("tnvedCode", DeclarationExportRow::getTnvedCode),
+            new Column<>("productDescription", DeclarationExportRow::getProductDescription),
+            new Column<>("productValue", DeclarationExportRow::getProductValue),
+            new Column<>("netWeight", DeclarationExportRow::getNetWeight),
+            new Column<>("quantity", DeclarationExportRow::getQuantity),
+            new Column<>("countryOfOrigin", DeclarationExportRow::getCountryOfOrigin),
+            new Column<>("countryOfDestination", DeclarationExportRow::getCountryOfDestination),
+            new Column<>("customsOffice", DeclarationExportRow::getCustomsOffice),
+            new Column<>("status", DeclarationExportRow::getStatus),
+            new Column<>("submittedAt", DeclarationExportRow::getSubmittedAt),
+            new Column<>("reviewedAt", DeclarationExportRow::getReviewedAt),
+            new Column<>("createdAt", DeclarationExportRow::getCreatedAt)
+    );
+
+    private final PaymentRepository paymentRepository;
+    private final DeclarationRepository declarationRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public long exportPayments(LocalDateTime from, LocalDateTime to, PaymentStatus status,
+                               Format format, OutputStream out) throws IOException {
+        try (Stream<PaymentExportRow> rows = paymentRepository.streamForExport(from, to, status)) {
+            long count = write(rows, PAYMENT_COLUMNS, format, out);
+            log.info("Выгружено платежей: {}", count);
+            return count;
+        }
+    }
+
+    public long exportDeclarations(LocalDateTime from, LocalDateTime to, String status,
+                                   Format format, OutputStream out) throws IOException {
+        try (Stream<DeclarationExportRow> rows = declarationRepository.streamForExport(from, to, status)) {
+            long count = write(rows, DECLARATION_COLUMNS, format, out);
+            log.info("Выгружено деклараций: {}", count);
+            return count;
+        }
+    }
+
+    private <R> long write(Stream<R> rows, List<Column<R>> columns, Format format, OutputStream out)
+            throws IOException {
+        return format == Format.CSV ? writeCsv(rows, columns, out) : writeNdjson(rows, columns, out);
+    }
+
+    private <R> long writeCsv(Stream<R> rows, List<Column<R>> columns, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(columns.get(i).name());
+        }
+        writer.write('\n');
+
+        long count = 0;
+        Iterator<R> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            R row = iterator.next();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = columns.get(i).value().apply(row);
+                if (value != null) {
+                    writer.write(csvValue(value.toString()));
+                }
+            }
+            writer.write('\n');
+            count++;
+        }
+        writer.flush();
+        return count;
+    }
+
+    private <R> long writeNdjson(Stream<R> rows, List<Column<R>> columns, OutputStream out) throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            // Поток ответа закрывает контейнер
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            Iterator<R> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                R row = iterator.next();
+                generator.writeStartObject();
+                for (Column<R> column : columns) {
+                    generator.writeFieldName(column.name());
+                    writeJsonValue(generator, column.value().apply(row));
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeJsonValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof BigDecimal decimal) {
+            generator.writeNumber(decimal);
+        } else if (value instanceof Long number) {
+            generator.writeNumber(number);
+        } else if (value instanceof Integer number) {
+            generator.writeNumber(number);
+        } else {
+            // Даты и статусы — строками в ISO-формате / по имени
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static String csvValue(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
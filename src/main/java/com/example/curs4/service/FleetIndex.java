@@ -0,0 +1,323 @@
+package com.example.curs4.service;
+
+import com.example.curs4.dto.VehicleDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Индекс парка в памяти: id транспорта -> компактная неизменяемая запись с полями, которые
+ * отдают списки доступного и арендованного транспорта. Списки строятся без обращения к БД.
+ * Изменения (создание, правка, удаление, аренда, возврат, плановое завершение аренд, правка и удаление
+ * пользователей) применяются после фиксации транзакции; плановая перезагрузка подхватывает изменения
+ * других узлов. Сама аренда по-прежнему решается условным UPDATE в БД.
+ * Транзакции фиксируются и применяют изменения в произвольном порядке, поэтому запись транспорта
+ * заменяется только более новой по updated_at; удаление оставляет метку до следующей перезагрузки.
+ * До первой загрузки списки читаются из БД.
+ */
+@Slf4j
+@Service
+public class FleetIndex {
+
+    private static final String LOAD_SQL =
+            "SELECT v.id, v.license_plate, v.model, v.vehicle_type, v.year_of_manufacture, v.capacity, " +
+                    "v.client_id, COALESCE(c.user_name, c.username) AS client_name, " +
+                    "v.driver_id, COALESCE(d.user_name, d.username) AS driver_name, " +
+                    "v.is_available, v.rental_start_date, v.rental_end_date, v.created_at, v.updated_at " +
+                    "FROM vehicles v " +
+                    "LEFT JOIN users c ON c.user_id = v.client_id " +
+                    "LEFT JOIN users d ON d.user_id = v.driver_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean refreshEnabled;
+
+    // Подменяется целиком при перезагрузке; между перезагрузками меняется поштучно
+    private volatile ConcurrentSkipListMap<Long, Entry> entries;
+    // Изменения, пришедшие во время загрузки: повторяются поверх нового индекса
+    private List<Change> changesDuringLoad;
+    // Эпоха узла и номер состояния индекса: растёт с каждым изменением и перезагрузкой
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36)
+            + Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36), 36);
+    private final AtomicLong generation = new AtomicLong();
+
+    public FleetIndex(DataSource dataSource,
+                      PlatformTransactionManager transactionManager,
+                      @Value("${app.fleet-index.fetch-size:1000}") int fetchSize,
+                      @Value("${app.fleet-index.refresh-enabled:true}") boolean refreshEnabled) {
+        // Отдельный JdbcTemplate: fetch size не должен влиять на остальные запросы приложения
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.refreshEnabled = refreshEnabled;
+    }
+
+    // deleted — метка удаления: в списки не попадает, но не даёт запоздавшему изменению вернуть транспорт
+    private record Entry(long id, String licensePlate, String model, String vehicleType, Integer yearOfManufacture,
+                         Double capacity, Long clientId, String clientName, Long driverId, String driverName,
+                         boolean available, LocalDateTime rentalStartDate, LocalDateTime rentalEndDate,
+                         LocalDateTime createdAt, LocalDateTime updatedAt, boolean deleted) {
+
+        static Entry of(VehicleDTO dto) {
+            return new Entry(dto.getId(), dto.getLicensePlate(), dto.getModel(), dto.getVehicleType(),
+                    dto.getYearOfManufacture(), dto.getCapacity(), dto.getClientId(), dto.getClientName(),
+                    dto.getDriverId(), dto.getDriverName(), dto.getDriverId() == null && !Boolean.FALSE.equals(dto.getIsAvailable()),
+                    dto.getRentalStartDate(), dto.getRentalEndDate(), dto.getCreatedAt(), dto.getUpdatedAt(), false);
+        }
+
+        static Entry deletedAt(long id, LocalDateTime deletedAt) {
+            return new Entry(id, null, null, null, null, null, null, null, null, null,
+                    false, null, null, null, deletedAt, true);
+        }
+
+        Entry released(LocalDateTime releasedAt) {
+            return new Entry(id, licensePlate, model, vehicleType, yearOfManufacture, capacity, clientId, clientName,
+                    null, null, true, null, null, createdAt, releasedAt, false);
+        }
+
+        Entry renamed(long userId, String name) {
+            return new Entry(id, licensePlate, model, vehicleType, yearOfManufacture, capacity, clientId,
+                    clientId != null && clientId == userId ? name : clientName,
+                    driverId, driverId != null && driverId == userId ? name : driverName,
+                    available, rentalStartDate, rentalEndDate, createdAt, updatedAt, deleted);
+        }
+
+        // Без updated_at порядок неизвестен — побеждает пришедшее позже, как до сравнения версий
+        boolean isOlderThan(Entry other) {
+            return other != null && updatedAt != null && other.updatedAt != null && updatedAt.isBefore(other.updatedAt);
+        }
+
+        VehicleDTO toDto() {
+            return VehicleDTO.builder()
+                    .id(id)
+                    .licensePlate(licensePlate)
+                    .model(model)
+                    .vehicleType(vehicleType)
+                    .yearOfManufacture(yearOfManufacture)
+                    .capacity(capacity)
+                    .clientId(clientId)
+                    .clientName(clientName)
+                    .driverId(driverId)
+                    .driverName(driverName)
+                    .isAvailable(available)
+                    .rentalStartDate(rentalStartDate)
+                    .rentalEndDate(rentalEndDate)
+                    .createdAt(createdAt)
+                    .build();
+        }
+    }
+
+    // vehicleId == null — изменение затрагивает весь парк
+    private record Change(Long vehicleId, UnaryOperator<Entry> operator) {
+    }
+
+    // LOOKUPS (null — индекс ещё не загружен, список нужно читать из БД)
+    public List<VehicleDTO> available(String vehicleType, Double minCapacity) {
+        return select(entry -> entry.available(), vehicleType, minCapacity);
+    }
+
+    public List<VehicleDTO> rented(String vehicleType, Double minCapacity) {
+        return select(entry -> entry.driverId() != null, vehicleType, minCapacity);
+    }
+
+    public List<VehicleDTO> rentedBy(Long driverId) {
+        return select(entry -> driverId.equals(entry.driverId()), null, null);
+    }
+
+    private List<VehicleDTO> select(Predicate<Entry> state, String vehicleType, Double minCapacity) {
+        ConcurrentSkipListMap<Long, Entry> current = entries;
+        if (current == null) {
+            return null;
+        }
+        String type = vehicleType != null && !vehicleType.isBlank() ? vehicleType.toLowerCase(Locale.ROOT) : null;
+        List<VehicleDTO> result = new ArrayList<>();
+        for (Entry entry : current.values()) {
+            if (entry.deleted() || !state.test(entry)) {
+                continue;
+            }
+            if (type != null && (entry.vehicleType() == null
+                    || !entry.vehicleType().toLowerCase(Locale.ROOT).contains(type))) {
+                continue;
+            }
+            if (minCapacity != null && (entry.capacity() == null || entry.capacity() < minCapacity)) {
+                continue;
+            }
+            result.add(entry.toDto());
+        }
+        return result;
+    }
+
+    // Версия списков, которые отдаёт этот узел (null — индекс не загружен).
+    // Списки строятся из памяти узла, поэтому и версия принадлежит узлу
+    public String version() {
+        return entries != null ? epoch + "." + generation.get() : null;
+    }
+
+    // CHANGES (применяются после фиксации текущей транзакции)
+    public void vehicleChanged(VehicleDTO vehicle) {
+        Entry entry = Entry.of(vehicle);
+        afterCommit(entry.id(), previous -> entry.isOlderThan(previous) ? previous : entry);
+    }
+
+    public void vehicleDeleted(Long vehicleId) {
+        Entry tombstone = Entry.deletedAt(vehicleId, LocalDateTime.now());
+        afterCommit(vehicleId, previous -> tombstone.isOlderThan(previous) ? previous : tombstone);
+    }
+
+    // releasedAt — updated_at, записанный при освобождении
+    public void rentalsEnded(Collection<Long> vehicleIds, LocalDateTime releasedAt) {
+        UnaryOperator<Entry> release = previous -> previous == null || previous.deleted()
+                || previous.updatedAt() != null && previous.updatedAt().isAfter(releasedAt)
+                ? previous
+                : previous.released(releasedAt);
+        afterCommit(() -> vehicleIds.forEach(id -> apply(new Change(id, release))));
+    }
+
+    public void userRenamed(Long userId, String name) {
+        afterCommit(null, entry -> entry.renamed(userId, name));
+    }
+
+    // Транспорт пользователя удаляется вместе с ним
+    public void userDeleted(Long userId) {
+        afterCommit(null, entry -> userId.equals(entry.clientId()) || userId.equals(entry.driverId()) ? null : entry);
+    }
+
+    private void afterCommit(Long vehicleId, UnaryOperator<Entry> operator) {
+        Change change = new Change(vehicleId, operator);
+        afterCommit(() -> apply(change));
+    }
+
+    private synchronized void apply(Change change) {
+        if (entries != null) {
+            apply(entries, change);
+            generation.incrementAndGet();
+        }
+        if (changesDuringLoad != null) {
+            changesDuringLoad.add(change);
+        }
+    }
+
+    private static void apply(ConcurrentSkipListMap<Long, Entry> target, Change change) {
+        if (change.vehicleId() != null) {
+            target.compute(change.vehicleId(), (id, previous) -> change.operator().apply(previous));
+            return;
+        }
+        for (Long id : target.keySet()) {
+            target.computeIfPresent(id, (key, entry) -> change.operator().apply(entry));
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // LOADING
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить индекс парка, списки будут читаться из БД", e);
+        }
+    }
+
+    @Scheduled(cron = "${app.fleet-index.refresh-cron:30 */5 * * * *}")
+    public void scheduledRefresh() {
+        if (!refreshEnabled) {
+            return;
+        }
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Ошибка перезагрузки индекса парка", e);
+        }
+    }
+
+    public void reload() {
+        synchronized (this) {
+            if (changesDuringLoad != null) {
+                return;
+            }
+            changesDuringLoad = new ArrayList<>();
+        }
+        try {
+            long startedAt = System.currentTimeMillis();
+            ConcurrentSkipListMap<Long, Entry> loaded = new ConcurrentSkipListMap<>();
+            readOnlyTransaction.executeWithoutResult(status ->
+                    jdbcTemplate.query(LOAD_SQL, rs -> {
+                        Entry entry = read(rs);
+                        loaded.put(entry.id(), entry);
+                    }));
+            synchronized (this) {
+                changesDuringLoad.forEach(change -> apply(loaded, change));
+                entries = loaded;
+                generation.incrementAndGet();
+            }
+            log.info("Индекс парка загружен: {} единиц транспорта за {} мс",
+                    loaded.size(), System.currentTimeMillis() - startedAt);
+        } finally {
+            synchronized (this) {
+                changesDuringLoad = null;
+            }
+        }
+    }
+
+    private static Entry read(ResultSet rs) throws SQLException {
+        Long driverId = rs.getObject("driver_id", Long.class);
+        Boolean isAvailable = rs.getObject("is_available", Boolean.class);
+        return new Entry(
+                rs.getLong("id"),
+                rs.getString("license_plate"),
+                rs.getString("model"),
+                rs.getString("vehicle_type"),
+                rs.getObject("year_of_manufacture", Integer.class),
+                rs.getObject("capacity", Double.class),
+                rs.getObject("client_id", Long.class),
+                rs.getString("client_name"),
+                driverId,
+                rs.getString("driver_name"),
+                driverId == null && !Boolean.FALSE.equals(isAvailable),
+                toLocalDateTime(rs.getTimestamp("rental_start_date")),
+                toLocalDateTime(rs.getTimestamp("rental_end_date")),
+                toLocalDateTime(rs.getTimestamp("created_at")),
+                toLocalDateTime(rs.getTimestamp("updated_at")),
+                false);
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.curs4.service;
+
+import com.example.curs4.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Повторы запросов с заголовком Idempotency-Key.
+ * Ключ действует в пределах операции и пользователя. Уже выполненные ключи ищутся сначала
+ * в LRU-кэше узла, затем в таблице idempotency_keys; строка ключа вставляется в той же транзакции,
+ * что и сама операция, поэтому повтор после таймаута не выполнит её второй раз даже на другом узле.
+ * Одновременные запросы с одним ключом на узле ждут первый запрос, а не выполняют операцию сами.
+ * Повтор возвращает текущее состояние ресурса по сохранённому ID.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private static final String CLAIM_SQL =
+            "INSERT INTO idempotency_keys (id, fingerprint, created_at, expires_at) " +
+                    "VALUES (:id, :fingerprint, :now, :expiresAt) ON CONFLICT (id) DO NOTHING";
+
+    private static final String FIND_SQL =
+            "SELECT fingerprint, resource_id, expires_at FROM idempotency_keys WHERE id = :id FOR UPDATE";
+
+    private static final String RECLAIM_SQL =
+            "UPDATE idempotency_keys SET fingerprint = :fingerprint, resource_id = NULL, " +
+                    "created_at = :now, expires_at = :expiresAt WHERE id = :id";
+
+    private static final String COMPLETE_SQL =
+            "UPDATE idempotency_keys SET resource_id = :resourceId WHERE id = :id";
+
+    private static final String PURGE_SQL =
+            "DELETE FROM idempotency_keys WHERE id IN (" +
+                    "SELECT id FROM idempotency_keys WHERE expires_at < :now LIMIT :limit)";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration ttl;
+    private final long waitTimeoutSeconds;
+    private final int purgeChunkSize;
+    private final Map<String, Completed> completed;
+    private final ConcurrentHashMap<String, CompletableFuture<Completed>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${app.idempotency.ttl-hours:24}") long ttlHours,
+                              @Value("${app.idempotency.cache-size:10000}") int cacheSize,
+                              @Value("${app.idempotency.wait-timeout-seconds:30}") long waitTimeoutSeconds,
+                              @Value("${app.idempotency.purge-chunk-size:1000}") int purgeChunkSize) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ttl = Duration.ofHours(ttlHours);
+        this.waitTimeoutSeconds = waitTimeoutSeconds;
+        this.purgeChunkSize = purgeChunkSize;
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Completed> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public record Outcome<T>(T body, boolean replayed) {
+    }
+
+    private record Completed(String fingerprint, long resourceId, LocalDateTime expiresAt) {
+    }
+
+    // body == null — операция не выполнялась, ключ уже был использован
+    private record Execution<T>(Completed completed, T body) {
+    }
+
+    /**
+     * Выполняет операцию один раз для ключа. Вызывается вне транзакции: операция выполняется
+     * в транзакции вместе с записью ключа.
+     *
+     * @param operation   операция, при повторе не вызывается
+     * @param resourceId  ID ресурса из результата операции
+     * @param reload      загрузка ресурса по сохранённому ID для повтора
+     */
+    public <T> Outcome<T> execute(String operationName, String key, String fingerprint,
+                                  Supplier<T> operation, Function<T, Long> resourceId, LongFunction<T> reload) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Идемпотентную операцию нельзя выполнять внутри транзакции");
+        }
+        String id = scopedKey(operationName, key);
+
+        Completed cached = completed.get(id);
+        if (cached != null && cached.expiresAt().isAfter(LocalDateTime.now())) {
+            return replay(cached, fingerprint, reload);
+        }
+
+        CompletableFuture<Completed> mine = new CompletableFuture<>();
+        CompletableFuture<Completed> running = inFlight.putIfAbsent(id, mine);
+        if (running != null) {
+            return replay(await(running), fingerprint, reload);
+        }
+
+        try {
+            Execution<T> execution = transactionTemplate.execute(status -> {
+                Completed existing = claim(id, fingerprint);
+                if (existing != null) {
+                    return new Execution<T>(existing, null);
+                }
+                T body = operation.get();
+                Long createdId = resourceId.apply(body);
+                namedParameterJdbcTemplate.update(COMPLETE_SQL, new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("resourceId", createdId));
+                return new Execution<>(new Completed(fingerprint, createdId, LocalDateTime.now().plus(ttl)), body);
+            });
+            Completed stored = execution.completed();
+            completed.put(id, stored);
+            mine.complete(stored);
+
+            if (execution.body() == null) {
+                return replay(stored, fingerprint, reload);
+            }
+            return new Outcome<>(execution.body(), false);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, mine);
+        }
+    }
+
+    // Вставка ключа ждёт незафиксированную вставку того же ключа с другого узла.
+    // null — ключ наш и операцию нужно выполнить; иначе — результат прошлого выполнения
+    private Completed claim(String id, String fingerprint) {
+        LocalDateTime now = LocalDateTime.now();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("fingerprint", fingerprint)
+                .addValue("now", Timestamp.valueOf(now))
+                .addValue("expiresAt", Timestamp.valueOf(now.plus(ttl)));
+        if (namedParameterJdbcTemplate.update(CLAIM_SQL, params) == 1) {
+            return null;
+        }
+
+        List<Completed> rows = namedParameterJdbcTemplate.query(FIND_SQL, params, (rs, rowNum) -> {
+            long storedId = rs.getLong("resource_id");
+            return new Completed(rs.getString("fingerprint"), rs.wasNull() ? -1 : storedId,
+                    rs.getTimestamp("expires_at").toLocalDateTime());
+        });
+        if (rows.isEmpty()) {
+            // Строку удалила очистка между вставкой и чтением
+            return claim(id, fingerprint);
+        }
+        Completed existing = rows.get(0);
+        if (existing.resourceId() < 0 || !existing.expiresAt().isAfter(now)) {
+            namedParameterJdbcTemplate.update(RECLAIM_SQL, params);
+            return null;
+        }
+        return existing;
+    }
+
+    private <T> Outcome<T> replay(Completed stored, String fingerprint, LongFunction<T> reload) {
+        if (!stored.fingerprint().equals(fingerprint)) {
+            throw new CustomException("Ключ идемпотентности уже использован для другого запроса");
+        }
+        return new Outcome<>(reload.apply(stored.resourceId()), true);
+    }
+
+    private Completed await(CompletableFuture<Completed> running) {
+        try {
+            return running.get(waitTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new CustomException("Запрос с этим ключом идемпотентности ещё выполняется");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание запроса с тем же ключом прервано", e);
+        }
+    }
+
+    private static String scopedKey(String operationName, String key) {
+        if (key == null || key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new CustomException("Заголовок " + HEADER + " должен содержать от 1 до " + MAX_KEY_LENGTH + " символов");
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        String principal = authentication != null ? authentication.getName() : "anonymous";
+        return operationName + ":" + principal + ":" + key;
+    }
+
+    // SHA-256 от параметров запроса: тот же ключ с другими параметрами — ошибка клиента
+    public static String fingerprint(Object... parts) {
+        StringBuilder canonical = new StringBuilder();
+        for (Object part : parts) {
+            canonical.append(Objects.toString(part, "")).append('\u001f');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // MAINTENANCE
+    @Scheduled(cron = "${app.idempotency.purge-cron:0 15 * * * *}")
+    public void purgeExpired() {
+        try {
+            long total = 0;
+            int deleted;
+            do {
+                MapSqlParameterSource params = new MapSqlParameterSource()
+                        .addValue("now", Timestamp.valueOf(LocalDateTime.now()))
+                        .addValue("limit", purgeChunkSize);
+                Integer chunk = transactionTemplate.execute(status ->
+                        namedParameterJdbcTemplate.update(PURGE_SQL, params));
+                deleted = chunk != null ? chunk : 0;
+                total += deleted;
+            } while (deleted == purgeChunkSize);
+
+            LocalDateTime now = LocalDateTime.now();
+            synchronized (completed) {
+                completed.values().removeIf(entry -> !entry.expiresAt().isAfter(now));
+            }
+            if (total > 0) {
+                log.info("Удалено истёкших ключей идемпотентности: {}", total);
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка очистки ключей идемпотентности", e);
+        }
+    }
+}
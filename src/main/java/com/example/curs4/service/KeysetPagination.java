@@ -0,0 +1,96 @@
+package com.example.curs4.service;
+
+import com.example.curs4.dto.KeysetPage;
+import com.example.curs4.exception.CustomException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keyset-пагинация списков: страница продолжается с позиции последней записи
+ * ((createdAt, id) или id), а не через OFFSET, и без COUNT(*).
+ * Позиция передаётся клиенту непрозрачным токеном.
+ */
+@Component
+public class KeysetPagination {
+
+    public record Cursor(LocalDateTime createdAt, Long id) {
+    }
+
+    private final int defaultSize;
+    private final int maxSize;
+
+    public KeysetPagination(@Value("${app.pagination.default-size:500}") int defaultSize,
+                            @Value("${app.pagination.max-size:1000}") int maxSize) {
+        this.defaultSize = defaultSize;
+        this.maxSize = maxSize;
+    }
+
+    public int resolveSize(Integer size) {
+        if (size == null || size <= 0) {
+            return defaultSize;
+        }
+        return Math.min(size, maxSize);
+    }
+
+    // Запрашиваем на одну запись больше, чтобы узнать, есть ли следующая страница
+    public Pageable probe(int size) {
+        return PageRequest.of(0, size + 1);
+    }
+
+    public Cursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = value.indexOf('|');
+            if (separator < 0) {
+                return new Cursor(null, Long.valueOf(value));
+            }
+            return new Cursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.valueOf(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new CustomException("Некорректный курсор страницы");
+        }
+    }
+
+    public Cursor decodeCreated(String token) {
+        Cursor cursor = decode(token);
+        if (cursor != null && cursor.createdAt() == null) {
+            throw new CustomException("Некорректный курсор страницы");
+        }
+        return cursor;
+    }
+
+    public String encode(Long id) {
+        return encodeValue(String.valueOf(id));
+    }
+
+    public String encode(LocalDateTime createdAt, Long id) {
+        return encodeValue(createdAt + "|" + id);
+    }
+
+    public <E, T> KeysetPage<T> page(List<E> rows, int size, Function<E, T> mapper, Function<E, String> cursorOf) {
+        boolean hasMore = rows.size() > size;
+        List<E> pageRows = hasMore ? rows.subList(0, size) : rows;
+
+        return KeysetPage.<T>builder()
+                .items(pageRows.stream().map(mapper).collect(Collectors.toList()))
+                .nextCursor(hasMore ? cursorOf.apply(pageRows.get(pageRows.size() - 1)) : null)
+                .build();
+    }
+
+    private static String encodeValue(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
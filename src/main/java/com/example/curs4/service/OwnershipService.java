@@ -0,0 +1,116 @@
+package com.example.curs4.service;
+
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.ActivityRepository;
+import com.example.curs4.repository.DeclarationRepository;
+import com.example.curs4.repository.PaymentRepository;
+import com.example.curs4.repository.VehicleRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Проверки владельца для @PreAuthorize.
+ * Читает только ID владельца ("select client_id ... where id = ?") вместо загрузки сущности
+ * и запоминает результат на время HTTP-запроса.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class OwnershipService {
+
+    private static final String OWNER_ATTRIBUTE = OwnershipService.class.getName() + ".";
+    private static final Long NOT_FOUND = -1L;
+
+    private final DeclarationRepository declarationRepository;
+    private final PaymentRepository paymentRepository;
+    private final VehicleRepository vehicleRepository;
+    private final ActivityRepository activityRepository;
+    private final CurrentUserContext currentUserContext;
+
+    public boolean isClientOwner(Long clientId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        return currentUserContext.isCurrentUser(clientId, authentication);
+    }
+
+    public boolean isDeclarationOwner(Long declarationId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        Long clientId = ownerOf("declaration:" + declarationId,
+                () -> declarationRepository.findClientIdById(declarationId), "Декларация не найдена");
+        return currentUserContext.isCurrentUser(clientId, authentication);
+    }
+
+    public boolean isSinglePaymentOwner(Long paymentId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        Long clientId = ownerOf("payment:" + paymentId,
+                () -> paymentRepository.findClientIdById(paymentId), "Платеж не найден");
+        return currentUserContext.isCurrentUser(clientId, authentication);
+    }
+
+    public boolean isPaymentByDeclarationOwner(Long declarationId, Authentication authentication) {
+        // Платежи декларации принадлежат владельцу самой декларации
+        return isDeclarationOwner(declarationId, authentication);
+    }
+
+    public boolean isSingleVehicleOwner(Long vehicleId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        Long clientId = ownerOf("vehicle:" + vehicleId,
+                () -> vehicleRepository.findClientIdById(vehicleId), "Транспорт не найден");
+        return currentUserContext.isCurrentUser(clientId, authentication);
+    }
+
+    public boolean isVehicleLicensePlateOwner(String licensePlate, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        Long clientId = ownerOf("vehicle-plate:" + licensePlate,
+                () -> vehicleRepository.findClientIdByLicensePlate(licensePlate),
+                "Транспорт с номером " + licensePlate + " не найден");
+        return currentUserContext.isCurrentUser(clientId, authentication);
+    }
+
+    public boolean isActivityOwner(Long activityId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        Long userId = ownerOf("activity:" + activityId,
+                () -> activityRepository.findUserIdById(activityId), "Активность не найдена");
+        return currentUserContext.isCurrentUser(userId, authentication);
+    }
+
+    private Long ownerOf(String key, Supplier<Optional<Long>> lookup, String notFoundMessage) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        String attributeName = OWNER_ATTRIBUTE + key;
+
+        Long ownerId = null;
+        if (attributes != null
+                && attributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST) instanceof Long cached) {
+            ownerId = cached;
+        }
+        if (ownerId == null) {
+            ownerId = lookup.get().orElse(NOT_FOUND);
+            if (attributes != null) {
+                attributes.setAttribute(attributeName, ownerId, RequestAttributes.SCOPE_REQUEST);
+            }
+        }
+
+        if (NOT_FOUND.equals(ownerId)) {
+            throw new CustomException(notFoundMessage);
+        }
+        return ownerId;
+    }
+}
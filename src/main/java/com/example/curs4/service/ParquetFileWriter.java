@@ -0,0 +1,403 @@
+package com.example.curs4.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Минимальная запись файла Apache Parquet для плоских таблиц без вложенных полей.
+ * Строки копятся по колонкам и сбрасываются группами строк (row group) по rowGroupRows:
+ * в каждой группе на колонку одна страница данных v1 — уровни определения (RLE/bit-packed)
+ * и значения в PLAIN, сжатые GZIP. Все колонки OPTIONAL, null допустим в любой из них.
+ * Метаданные (FileMetaData) пишутся в конце файла в Thrift compact protocol.
+ * Дата — INT32 DATE, время — INT64 TIMESTAMP(MICROS, isAdjustedToUTC=false) — локальное, без зоны,
+ * BigDecimal — BYTE_ARRAY DECIMAL с масштабом колонки, строки — BYTE_ARRAY UTF8.
+ */
+final class ParquetFileWriter implements Closeable {
+
+    enum ColumnType {
+        BOOLEAN(0, -1),
+        INT32(1, -1),
+        INT64(2, -1),
+        DOUBLE(5, -1),
+        DECIMAL(6, 5),
+        STRING(6, 0),
+        DATE(1, 6),
+        TIMESTAMP(2, -1);
+
+        // parquet.thrift: Type и ConvertedType (-1 — без логического типа)
+        private final int physicalType;
+        private final int convertedType;
+
+        ColumnType(int physicalType, int convertedType) {
+            this.physicalType = physicalType;
+            this.convertedType = convertedType;
+        }
+    }
+
+    record Column(String name, ColumnType type, int precision, int scale) {
+    }
+
+    private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+    private static final int ENCODING_PLAIN = 0;
+    private static final int ENCODING_RLE = 3;
+    private static final int CODEC_GZIP = 2;
+    private static final int REPETITION_OPTIONAL = 1;
+
+    private final OutputStream out;
+    private final List<Column> columns;
+    private final int rowGroupRows;
+    private final ColumnBuffer[] buffers;
+    private final List<byte[]> rowGroups = new ArrayList<>();
+    private long position;
+    private long totalRows;
+    private int groupRows;
+
+    ParquetFileWriter(OutputStream out, List<Column> columns, int rowGroupRows) throws IOException {
+        this.out = out;
+        this.columns = List.copyOf(columns);
+        this.rowGroupRows = Math.max(1, rowGroupRows);
+        this.buffers = new ColumnBuffer[columns.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new ColumnBuffer(columns.get(i));
+        }
+        write(MAGIC);
+    }
+
+    void write(Object[] row) throws IOException {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].add(groupRows, row[i]);
+        }
+        groupRows++;
+        totalRows++;
+        if (groupRows >= rowGroupRows) {
+            flushRowGroup();
+        }
+    }
+
+    long rowCount() {
+        return totalRows;
+    }
+
+    // Дописывает последнюю группу строк и метаданные файла
+    @Override
+    public void close() throws IOException {
+        try {
+            if (groupRows > 0) {
+                flushRowGroup();
+            }
+            byte[] footer = fileMetaData();
+            write(footer);
+            write(littleEndian(footer.length, 4));
+            write(MAGIC);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushRowGroup() throws IOException {
+        Thrift group = new Thrift();
+        long groupBytes = 0;
+        group.listBegin(1, Thrift.STRUCT, buffers.length);
+        for (ColumnBuffer buffer : buffers) {
+            byte[] body = buffer.page(groupRows);
+            byte[] compressed = gzip(body);
+
+            Thrift header = new Thrift();
+            header.i32(1, 0);
+            header.i32(2, body.length);
+            header.i32(3, compressed.length);
+            header.structBegin(5);
+            header.i32(1, groupRows);
+            header.i32(2, ENCODING_PLAIN);
+            header.i32(3, ENCODING_RLE);
+            header.i32(4, ENCODING_RLE);
+            header.structEnd();
+            header.stop();
+            byte[] headerBytes = header.toByteArray();
+
+            long offset = position;
+            write(headerBytes);
+            write(compressed);
+            groupBytes += headerBytes.length + body.length;
+
+            group.elementBegin();
+            group.i64(2, offset);
+            group.structBegin(3);
+            group.i32(1, buffer.column.type().physicalType);
+            group.listBegin(2, Thrift.I32, 2);
+            group.element(ENCODING_PLAIN);
+            group.element(ENCODING_RLE);
+            group.listBegin(3, Thrift.BINARY, 1);
+            group.element(buffer.column.name());
+            group.i32(4, CODEC_GZIP);
+            group.i64(5, groupRows);
+            group.i64(6, headerBytes.length + body.length);
+            group.i64(7, headerBytes.length + compressed.length);
+            group.i64(9, offset);
+            group.structEnd();
+            group.elementEnd();
+            buffer.reset();
+        }
+        group.i64(2, groupBytes);
+        group.i64(3, groupRows);
+        rowGroups.add(group.toByteArray());
+        groupRows = 0;
+    }
+
+    private byte[] fileMetaData() {
+        Thrift meta = new Thrift();
+        meta.i32(1, 1);
+        meta.listBegin(2, Thrift.STRUCT, columns.size() + 1);
+        meta.elementBegin();
+        meta.binary(4, "schema");
+        meta.i32(5, columns.size());
+        meta.elementEnd();
+        for (Column column : columns) {
+            meta.elementBegin();
+            meta.i32(1, column.type().physicalType);
+            meta.i32(3, REPETITION_OPTIONAL);
+            meta.binary(4, column.name());
+            if (column.type().convertedType >= 0) {
+                meta.i32(6, column.type().convertedType);
+            }
+            if (column.type() == ColumnType.DECIMAL) {
+                meta.i32(7, column.scale());
+                meta.i32(8, column.precision());
+            }
+            if (column.type() == ColumnType.TIMESTAMP) {
+                // LogicalType.TIMESTAMP: у локального времени ConvertedType нет
+                meta.structBegin(10);
+                meta.structBegin(8);
+                meta.bool(1, false);
+                meta.structBegin(2);
+                meta.structBegin(2);
+                meta.structEnd();
+                meta.structEnd();
+                meta.structEnd();
+                meta.structEnd();
+            }
+            meta.elementEnd();
+        }
+        meta.i64(3, totalRows);
+        meta.listBegin(4, Thrift.STRUCT, rowGroups.size());
+        for (byte[] group : rowGroups) {
+            // Тело группы уже записано без заголовка структуры и завершающего stop
+            meta.raw(group);
+            meta.raw(new byte[]{Thrift.STOP});
+        }
+        meta.binary(6, "curs4 analytics export");
+        meta.stop();
+        return meta.toByteArray();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] littleEndian(long value, int bytes) {
+        byte[] result = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            result[i] = (byte) (value >>> (8 * i));
+        }
+        return result;
+    }
+
+    // Значения одной колонки текущей группы строк
+    private static final class ColumnBuffer {
+        private final Column column;
+        private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+        private final BitSet defined = new BitSet();
+        private final BitSet booleans = new BitSet();
+        private int booleanCount;
+
+        private ColumnBuffer(Column column) {
+            this.column = column;
+        }
+
+        private void add(int row, Object value) {
+            if (value == null) {
+                return;
+            }
+            defined.set(row);
+            switch (column.type()) {
+                case BOOLEAN -> booleans.set(booleanCount++, (Boolean) value);
+                case INT32 -> values.writeBytes(littleEndian(((Number) value).intValue(), 4));
+                case INT64 -> values.writeBytes(littleEndian(((Number) value).longValue(), 8));
+                case DOUBLE -> values.writeBytes(littleEndian(
+                        Double.doubleToLongBits(((Number) value).doubleValue()), 8));
+                case DATE -> values.writeBytes(littleEndian(((LocalDate) value).toEpochDay(), 4));
+                case TIMESTAMP -> {
+                    LocalDateTime timestamp = (LocalDateTime) value;
+                    long micros = timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + timestamp.getNano() / 1_000;
+                    values.writeBytes(littleEndian(micros, 8));
+                }
+                // Масштаб значения из колонки NUMERIC(p, s) совпадает с масштабом колонки
+                case DECIMAL -> byteArray(((BigDecimal) value).setScale(column.scale(), RoundingMode.UNNECESSARY)
+                        .unscaledValue().toByteArray());
+                case STRING -> byteArray(value.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void byteArray(byte[] bytes) {
+            values.writeBytes(littleEndian(bytes.length, 4));
+            values.writeBytes(bytes);
+        }
+
+        // Уровни определения одним bit-packed прогоном (ширина 1 бит) с длиной впереди, затем значения
+        private byte[] page(int rows) {
+            int groups = (rows + 7) / 8;
+            ByteArrayOutputStream levels = new ByteArrayOutputStream(groups + 5);
+            unsignedVarint(levels, ((long) groups << 1) | 1);
+            levels.writeBytes(Arrays.copyOf(defined.toByteArray(), groups));
+
+            ByteArrayOutputStream page = new ByteArrayOutputStream(4 + levels.size() + values.size());
+            page.writeBytes(littleEndian(levels.size(), 4));
+            page.writeBytes(levels.toByteArray());
+            if (column.type() == ColumnType.BOOLEAN) {
+                page.writeBytes(Arrays.copyOf(booleans.toByteArray(), (booleanCount + 7) / 8));
+            } else {
+                page.writeBytes(values.toByteArray());
+            }
+            return page.toByteArray();
+        }
+
+        private void reset() {
+            values.reset();
+            defined.clear();
+            booleans.clear();
+            booleanCount = 0;
+        }
+    }
+
+    private static void unsignedVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // Thrift compact protocol: только то, что нужно для метаданных Parquet
+    private static final class Thrift {
+        private static final byte STOP = 0;
+        private static final int BOOLEAN_TRUE = 1;
+        private static final int BOOLEAN_FALSE = 2;
+        private static final int I32 = 5;
+        private static final int I64 = 6;
+        private static final int BINARY = 8;
+        private static final int LIST = 9;
+        private static final int STRUCT = 12;
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int[] lastField = new int[8];
+        private int depth;
+
+        private void fieldHeader(int id, int type) {
+            int delta = id - lastField[depth];
+            if (delta > 0 && delta <= 15) {
+                out.write((delta << 4) | type);
+            } else {
+                out.write(type);
+                unsignedVarint(out, zigzag(id));
+            }
+            lastField[depth] = id;
+        }
+
+        private void bool(int id, boolean value) {
+            fieldHeader(id, value ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+        }
+
+        private void i32(int id, int value) {
+            fieldHeader(id, I32);
+            unsignedVarint(out, zigzag(value));
+        }
+
+        private void i64(int id, long value) {
+            fieldHeader(id, I64);
+            unsignedVarint(out, zigzag(value));
+        }
+
+        private void binary(int id, String value) {
+            fieldHeader(id, BINARY);
+            element(value);
+        }
+
+        private void structBegin(int id) {
+            fieldHeader(id, STRUCT);
+            lastField[++depth] = 0;
+        }
+
+        private void structEnd() {
+            out.write(STOP);
+            depth--;
+        }
+
+        private void listBegin(int id, int elementType, int size) {
+            fieldHeader(id, LIST);
+            if (size < 15) {
+                out.write((size << 4) | elementType);
+            } else {
+                out.write(0xF0 | elementType);
+                unsignedVarint(out, size);
+            }
+        }
+
+        // Структура — элемент списка: поля нумеруются заново, заголовка поля нет
+        private void elementBegin() {
+            lastField[++depth] = 0;
+        }
+
+        private void elementEnd() {
+            structEnd();
+        }
+
+        private void element(int value) {
+            unsignedVarint(out, zigzag(value));
+        }
+
+        private void element(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            unsignedVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        private void raw(byte[] bytes) {
+            out.writeBytes(bytes);
+        }
+
+        private void stop() {
+            out.write(STOP);
+        }
+
+        private byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.curs4.service;
+
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Плановый перевод неоплаченных платежей с истёкшим сроком в статус OVERDUE.
+ * Платежи выбираются по индексу (status, due_date) чанками и меняются одним UPDATE на чанк;
+ * каждый чанк — отдельная транзакция, в которой обновляются и сводки клиентов, и агрегаты выручки.
+ * Строки, заблокированные пользователями (например, идёт оплата), пропускаются до следующего запуска.
+ */
+@Slf4j
+@Service
+public class PaymentOverdueService {
+
+    private static final String MARK_OVERDUE_SQL =
+            "UPDATE payments p SET status = 'OVERDUE', overdue_at = :now, updated_at = :now, " +
+                    "version = COALESCE(p.version, 0) + 1 " +
+                    "FROM (SELECT id FROM payments WHERE status = 'PENDING' AND due_date < :today " +
+                    "ORDER BY due_date, id LIMIT :limit FOR UPDATE SKIP LOCKED) due " +
+                    "WHERE p.id = due.id " +
+                    "RETURNING p.client_id, p.amount, p.payment_type, p.currency, p.created_at";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final ClientSummaryService clientSummaryService;
+    private final PaymentRollupService paymentRollupService;
+    private final ResourceVersions resourceVersions;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int chunkSize;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    public PaymentOverdueService(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                 ClientSummaryService clientSummaryService,
+                                 PaymentRollupService paymentRollupService,
+                                 ResourceVersions resourceVersions,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${app.payments.overdue.enabled:true}") boolean enabled,
+                                 @Value("${app.payments.overdue.chunk-size:1000}") int chunkSize) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.clientSummaryService = clientSummaryService;
+        this.paymentRollupService = paymentRollupService;
+        this.resourceVersions = resourceVersions;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(cron = "${app.payments.overdue.cron:0 5 * * * *}")
+    public void scheduledRun() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            markOverdue();
+        } catch (RuntimeException e) {
+            log.error("Ошибка плановой отметки просроченных платежей", e);
+        }
+    }
+
+    /**
+     * @return количество платежей, переведённых в OVERDUE
+     */
+    public long markOverdue() {
+        if (!runLock.tryLock()) {
+            throw new CustomException("Отметка просроченных платежей уже выполняется");
+        }
+        try {
+            LocalDate today = LocalDate.now();
+            long total = 0;
+            int marked;
+            do {
+                Integer chunk = transactionTemplate.execute(status -> markChunk(today));
+                marked = chunk != null ? chunk : 0;
+                total += marked;
+            } while (marked == chunkSize);
+
+            if (total > 0) {
+                log.info("Переведено в OVERDUE платежей: {}", total);
+            }
+            return total;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private int markChunk(LocalDate today) {
+        LocalDateTime now = LocalDateTime.now();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", Timestamp.valueOf(now))
+                .addValue("today", Date.valueOf(today))
+                .addValue("limit", chunkSize);
+
+        Map<Long, List<BigDecimal>> amountsByClient = new HashMap<>();
+        List<PaymentRollupService.Entry> entries = new ArrayList<>();
+        namedParameterJdbcTemplate.query(MARK_OVERDUE_SQL, params, rs -> {
+            BigDecimal amount = rs.getBigDecimal("amount");
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            amountsByClient.computeIfAbsent(rs.getLong("client_id"), clientId -> new ArrayList<>()).add(amount);
+            entries.add(new PaymentRollupService.Entry(
+                    createdAt != null ? createdAt.toLocalDateTime().toLocalDate() : null,
+                    rs.getString("payment_type") != null ? rs.getString("payment_type") : "",
+                    rs.getString("currency") != null ? rs.getString("currency") : "",
+                    PaymentStatus.PENDING,
+                    amount));
+        });
+
+        clientSummaryService.paymentsTransitioned(amountsByClient, PaymentStatus.PENDING, PaymentStatus.OVERDUE);
+        paymentRollupService.paymentsTransitioned(entries, PaymentStatus.OVERDUE);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, amountsByClient.keySet());
+        return entries.size();
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.curs4.service;
+
+import com.example.curs4.dto.PaymentRollupDTO;
+import com.example.curs4.entity.Payment;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.PaymentRevenueRollupRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Дневные агрегаты выручки (payment_revenue_rollups) по типу платежа, валюте и статусу.
+ * Платёж относится ко дню своего создания; смена статуса, суммы или типа переносит его
+ * между строками агрегата в транзакции изменения платежа. Недели и месяцы собираются из дней при запросе.
+ * Пересборка идёт по месяцам параллельно; месяц на время пересборки закрыт
+ * advisory-блокировкой, которую инкременты берут в разделяемом режиме.
+ */
+@Slf4j
+@Service
+@Transactional
+public class PaymentRollupService {
+
+    public enum Granularity {
+        DAY, WEEK, MONTH;
+
+        public static Granularity parse(String value) {
+            if (value == null || value.isBlank()) {
+                return DAY;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new CustomException("Неподдерживаемый период агрегации: " + value);
+            }
+        }
+
+        // Границы запроса расширяются до целых периодов
+        private LocalDate periodStart(LocalDate date) {
+            return switch (this) {
+                case DAY -> date;
+                case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> date.withDayOfMonth(1);
+            };
+        }
+
+        private LocalDate periodEnd(LocalDate date) {
+            return switch (this) {
+                case DAY -> date;
+                case WEEK -> date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+                case MONTH -> date.with(TemporalAdjusters.lastDayOfMonth());
+            };
+        }
+
+        private LocalDate defaultFrom(LocalDate to) {
+            return switch (this) {
+                case DAY -> to.minusDays(30);
+                case WEEK -> to.minusWeeks(12);
+                case MONTH -> to.minusMonths(12);
+            };
+        }
+    }
+
+    // Поля платежа, определяющие его строку агрегата, — снимаются до изменения платежа
+    public record Entry(LocalDate bucketDate, String paymentType, String currency, PaymentStatus status,
+                        BigDecimal amount) {
+
+        public static Entry of(Payment payment) {
+            return new Entry(
+                    payment.getCreatedAt() != null ? payment.getCreatedAt().toLocalDate() : null,
+                    payment.getPaymentType() != null ? payment.getPaymentType() : "",
+                    payment.getCurrency() != null ? payment.getCurrency() : "",
+                    payment.getStatus(),
+                    payment.getAmount() != null ? payment.getAmount() : BigDecimal.ZERO);
+        }
+
+        public Entry withStatus(PaymentStatus newStatus) {
+            return new Entry(bucketDate, paymentType, currency, newStatus, amount);
+        }
+
+        private Key key() {
+            return new Key(bucketDate, paymentType, currency, status);
+        }
+    }
+
+    private record Key(LocalDate bucketDate, String paymentType, String currency, PaymentStatus status) {
+    }
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::bucketDate)
+            .thenComparing(Key::paymentType)
+            .thenComparing(Key::currency)
+            .thenComparing(Key::status);
+
+    private static final int BACKFILL_LOCK_CLASS = 15_001;
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO payment_revenue_rollups " +
+                    "(bucket_date, payment_type, currency, status, payment_count, total_amount, updated_at) " +
+                    "SELECT :bucketDate, :paymentType, :currency, :status, :count, :amount, :now " +
+                    "FROM (SELECT pg_advisory_xact_lock_shared(:lockClass, :lockKey)) backfill_guard " +
+                    "ON CONFLICT (bucket_date, payment_type, currency, status) DO UPDATE SET " +
+                    "payment_count = payment_revenue_rollups.payment_count + EXCLUDED.payment_count, " +
+                    "total_amount = payment_revenue_rollups.total_amount + EXCLUDED.total_amount, " +
+                    "updated_at = EXCLUDED.updated_at";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final PaymentRevenueRollupRepository rollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int backfillThreads;
+    private final ReentrantLock backfillLock = new ReentrantLock();
+
+    public PaymentRollupService(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                PaymentRevenueRollupRepository rollupRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.payment-rollups.backfill-threads:4}") int backfillThreads) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.rollupRepository = rollupRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.backfillThreads = backfillThreads;
+    }
+
+    // INCREMENTAL
+    public void paymentCreated(Payment payment) {
+        apply(Map.of(Entry.of(payment), 1L));
+    }
+
+    public void paymentChanged(Entry previous, Payment payment) {
+        Map<Entry, Long> changes = new LinkedHashMap<>();
+        changes.put(previous, -1L);
+        changes.merge(Entry.of(payment), 1L, Long::sum);
+        apply(changes);
+    }
+
+    public void paymentDeleted(Payment payment) {
+        apply(Map.of(Entry.of(payment), -1L));
+    }
+
+    // Массовая смена статуса: платежи переносятся в строки нового статуса тех же дней
+    public void paymentsTransitioned(List<Entry> previous, PaymentStatus status) {
+        Map<Entry, Long> changes = new LinkedHashMap<>();
+        for (Entry entry : previous) {
+            changes.merge(entry, -1L, Long::sum);
+            changes.merge(entry.withStatus(status), 1L, Long::sum);
+        }
+        apply(changes);
+    }
+
+    // Изменения сворачиваются по ключу и пишутся в порядке ключа, чтобы встречные
+    // переходы статусов в параллельных транзакциях не блокировали друг друга
+    private void apply(Map<Entry, Long> changes) {
+        Map<Key, Long> counts = new LinkedHashMap<>();
+        Map<Key, BigDecimal> amounts = new LinkedHashMap<>();
+        changes.forEach((entry, sign) -> {
+            if (entry.bucketDate() == null || entry.status() == null) {
+                return;
+            }
+            counts.merge(entry.key(), sign, Long::sum);
+            amounts.merge(entry.key(), entry.amount().multiply(BigDecimal.valueOf(sign)), BigDecimal::add);
+        });
+
+        LocalDateTime now = LocalDateTime.now();
+        counts.keySet().stream().sorted(KEY_ORDER).forEach(key -> {
+            long count = counts.get(key);
+            BigDecimal amount = amounts.get(key);
+            if (count == 0 && amount.signum() == 0) {
+                return;
+            }
+            namedParameterJdbcTemplate.update(UPSERT_SQL, new MapSqlParameterSource()
+                    .addValue("bucketDate", Date.valueOf(key.bucketDate()))
+                    .addValue("paymentType", key.paymentType())
+                    .addValue("currency", key.currency())
+                    .addValue("status", key.status().name())
+                    .addValue("count", count)
+                    .addValue("amount", amount)
+                    .addValue("now", Timestamp.valueOf(now))
+                    .addValue("lockClass", BACKFILL_LOCK_CLASS)
+                    .addValue("lockKey", lockKey(YearMonth.from(key.bucketDate()))));
+        });
+    }
+
+    // QUERY
+    @Transactional(readOnly = true)
+    public List<PaymentRollupDTO> getRollups(Granularity granularity, LocalDate from, LocalDate to,
+                                             String paymentType, String currency, PaymentStatus status) {
+        LocalDate end = granularity.periodEnd(to != null ? to : LocalDate.now());
+        LocalDate start = granularity.periodStart(from != null ? from : granularity.defaultFrom(end));
+        if (start.isAfter(end)) {
+            throw new CustomException("Начало периода позже окончания");
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("granularity", granularity.name().toLowerCase())
+                .addValue("start", Date.valueOf(start))
+                .addValue("end", Date.valueOf(end));
+        StringBuilder sql = new StringBuilder(
+                "SELECT CAST(date_trunc(:granularity, CAST(bucket_date AS timestamp)) AS date) AS period_start, " +
+                        "payment_type, currency, status, SUM(payment_count) AS payment_count, " +
+                        "SUM(total_amount) AS total_amount " +
+                        "FROM payment_revenue_rollups WHERE bucket_date >= :start AND bucket_date <= :end");
+        if (paymentType != null) {
+            sql.append(" AND payment_type = :paymentType");
+            params.addValue("paymentType", paymentType);
+        }
+        if (currency != null) {
+            sql.append(" AND currency = :currency");
+            params.addValue("currency", currency);
+        }
+        if (status != null) {
+            sql.append(" AND status = :status");
+            params.addValue("status", status.name());
+        }
+        sql.append(" GROUP BY 1, 2, 3, 4 HAVING SUM(payment_count) <> 0 ORDER BY 1, 2, 3, 4");
+
+        return namedParameterJdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> PaymentRollupDTO.builder()
+                .periodStart(rs.getDate("period_start").toLocalDate())
+                .paymentType(rs.getString("payment_type").isEmpty() ? null : rs.getString("payment_type"))
+                .currency(rs.getString("currency"))
+                .status(PaymentStatus.valueOf(rs.getString("status")))
+                .paymentCount(rs.getLong("payment_count"))
+                .totalAmount(rs.getBigDecimal("total_amount"))
+                .build());
+    }
+
+    // BACKFILL
+    // Первый запуск с агрегатами: собираем их по уже существующим платежам
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void seedIfEmpty() {
+        if (rollupRepository.count() == 0) {
+            Map<String, Integer> rebuilt = rebuildAll();
+            if (!rebuilt.isEmpty()) {
+                log.info("Агрегаты выручки заполнены по существующим платежам: {} месяцев", rebuilt.size());
+            }
+        }
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Map<String, Integer> rebuildAll() {
+        Timestamp first = namedParameterJdbcTemplate.getJdbcTemplate()
+                .queryForObject("SELECT MIN(created_at) FROM payments", Timestamp.class);
+        if (first == null) {
+            return Map.of();
+        }
+        return rebuild(YearMonth.from(first.toLocalDateTime()), YearMonth.now());
+    }
+
+    /**
+     * Пересобирает агрегаты за месяцы [from, to]: каждый месяц — отдельная транзакция
+     * в пуле из app.payment-rollups.backfill-threads потоков.
+     * @return количество строк агрегата по каждому месяцу
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Map<String, Integer> rebuild(YearMonth from, YearMonth to) {
+        if (from.isAfter(to)) {
+            throw new CustomException("Начало периода позже окончания");
+        }
+        if (!backfillLock.tryLock()) {
+            throw new CustomException("Пересборка агрегатов выручки уже выполняется");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(backfillThreads);
+        try {
+            Map<YearMonth, Future<Integer>> tasks = new LinkedHashMap<>();
+            for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+                YearMonth target = month;
+                tasks.put(target, executor.submit(() -> transactionTemplate.execute(status -> rebuildMonth(target))));
+            }
+
+            Map<String, Integer> rebuilt = new LinkedHashMap<>();
+            for (Map.Entry<YearMonth, Future<Integer>> task : tasks.entrySet()) {
+                rebuilt.put(task.getKey().toString(), task.getValue().get());
+            }
+            log.info("Агрегаты выручки пересобраны за {} - {}: {}", from, to, rebuilt);
+            return rebuilt;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CustomException("Пересборка агрегатов выручки прервана");
+        } catch (ExecutionException e) {
+            log.error("Ошибка пересборки агрегатов выручки", e.getCause());
+            throw new CustomException("Ошибка пересборки агрегатов выручки");
+        } finally {
+            executor.shutdownNow();
+            backfillLock.unlock();
+        }
+    }
+
+    private int rebuildMonth(YearMonth month) {
+        // Ждём транзакции, уже изменившие агрегаты месяца, и не пускаем новые до конца пересборки
+        namedParameterJdbcTemplate.getJdbcTemplate()
+                .execute("SELECT pg_advisory_xact_lock(" + BACKFILL_LOCK_CLASS + ", " + lockKey(month) + ")");
+
+        LocalDate start = month.atDay(1);
+        LocalDate end = month.plusMonths(1).atDay(1);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("startDate", Date.valueOf(start))
+                .addValue("endDate", Date.valueOf(end))
+                .addValue("start", Timestamp.valueOf(start.atStartOfDay()))
+                .addValue("end", Timestamp.valueOf(end.atStartOfDay()))
+                .addValue("now", Timestamp.valueOf(LocalDateTime.now()));
+
+        namedParameterJdbcTemplate.update(
+                "DELETE FROM payment_revenue_rollups WHERE bucket_date >= :startDate AND bucket_date < :endDate",
+                params);
+        return namedParameterJdbcTemplate.update(
+                "INSERT INTO payment_revenue_rollups " +
+                        "(bucket_date, payment_type, currency, status, payment_count, total_amount, updated_at) " +
+                        "SELECT CAST(created_at AS date), COALESCE(payment_type, ''), COALESCE(currency, ''), " +
+                        "status, COUNT(*), COALESCE(SUM(amount), 0), :now " +
+                        "FROM payments WHERE created_at >= :start AND created_at < :end " +
+                        "GROUP BY 1, 2, 3, 4",
+                params);
+    }
+
+    private static int lockKey(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+}
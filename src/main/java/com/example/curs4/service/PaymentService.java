@@ -1,6 +1,9 @@
 package com.example.curs4.service;
 
+import com.example.curs4.dto.KeysetPage;
 import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.dto.PaymentStatsDTO;
+import com.example.curs4.entity.ClientSummary;
 import com.example.curs4.entity.Declaration;
 import com.example.curs4.entity.Payment;
 import com.example.curs4.entity.PaymentStatus;
@@ -12,7 +15,7 @@ import com.example.curs4.repository.PaymentRepository;
 import com.example.curs4.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.core.Authentication;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,9 +33,14 @@ public class PaymentService {
 
     private final PaymentRepository paymentRepository;
     private final UserRepository userRepository;
+    private final DocumentNumberAllocator documentNumberAllocator;
     private final DeclarationRepository declarationRepository;
     private final PaymentMapper paymentMapper;
     private final SecurityService securityService;
+    private final KeysetPagination keysetPagination;
+    private final ClientSummaryService clientSummaryService;
+    private final PaymentRollupService paymentRollupService;
+    private final ResourceVersions resourceVersions;
 
     // CREATE
     public PaymentDTO createPayment(PaymentDTO dto) {
@@ -45,7 +53,7 @@ public class PaymentService {
 
         Payment payment = paymentMapper.toEntity(dto);
         payment.setClient(client);
-        payment.setPaymentNumber(generatePaymentNumber());
+        payment.setPaymentNumber(documentNumberAllocator.nextNumber(DocumentNumberAllocator.DocumentType.PAYMENT));
 
         // Привязка декларации если указана
         if (dto.getDeclarationId() != null) {
@@ -63,6 +71,9 @@ public class PaymentService {
         }
 
         Payment savedPayment = paymentRepository.save(payment);
+        clientSummaryService.paymentCreated(client.getId(), savedPayment.getStatus(), savedPayment.getAmount());
+        paymentRollupService.paymentCreated(savedPayment);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, client.getId());
         log.info("Платеж создан: {}", savedPayment.getPaymentNumber());
 
         return paymentMapper.toDto(savedPayment);
@@ -77,17 +88,28 @@ public class PaymentService {
     }
 
     @Transactional(readOnly = true)
-    public List<PaymentDTO> getAllPayments() {
-        return paymentRepository.findAll().stream()
-                .map(paymentMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<PaymentDTO> getPaymentsPage(String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decodeCreated(cursor);
+
+        List<Payment> rows = after == null
+                ? paymentRepository.findPage(keysetPagination.probe(pageSize))
+                : paymentRepository.findPageAfter(after.createdAt(), after.id(), keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, paymentMapper::toDto,
+                p -> keysetPagination.encode(p.getCreatedAt(), p.getId()));
     }
 
     @Transactional(readOnly = true)
-    public List<PaymentDTO> getPaymentsByClientId(Long clientId) {
-        return paymentRepository.findByClientId(clientId).stream()
-                .map(paymentMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<PaymentDTO> getPaymentsPageByClientId(Long clientId, String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decodeCreated(cursor);
+
+        List<Payment> rows = after == null
+                ? paymentRepository.findPageByClientId(clientId, keysetPagination.probe(pageSize))
+                : paymentRepository.findPageByClientIdAfter(clientId, after.createdAt(), after.id(),
+                        keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, paymentMapper::toDto,
+                p -> keysetPagination.encode(p.getCreatedAt(), p.getId()));
     }
 
     @Transactional(readOnly = true)
@@ -114,6 +136,14 @@ public class PaymentService {
             throw new CustomException("Редактирование невозможно. Платеж уже обработан.");
         }
 
+        // Клиент редактировал устаревшую копию — отвечаем конфликтом, а не перезаписываем чужие изменения
+        if (dto.getVersion() != null && !dto.getVersion().equals(existingPayment.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Payment.class, id);
+        }
+
+        BigDecimal previousAmount = existingPayment.getAmount();
+        PaymentRollupService.Entry previous = PaymentRollupService.Entry.of(existingPayment);
+
         // Обновляем разрешенные поля
         existingPayment.setAmount(dto.getAmount());
         existingPayment.setPaymentType(dto.getPaymentType());
@@ -130,6 +160,10 @@ public class PaymentService {
         }
 
         Payment updatedPayment = paymentRepository.save(existingPayment);
+        clientSummaryService.paymentChanged(existingPayment.getClient().getId(),
+                PaymentStatus.PENDING, previousAmount, PaymentStatus.PENDING, updatedPayment.getAmount());
+        paymentRollupService.paymentChanged(previous, updatedPayment);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, existingPayment.getClient().getId());
         log.info("Платеж обновлен: {}", updatedPayment.getPaymentNumber());
 
         return paymentMapper.toDto(updatedPayment);
@@ -140,15 +174,23 @@ public class PaymentService {
         Payment payment = paymentRepository.findById(id)
                 .orElseThrow(() -> new CustomException("Платеж не найден"));
 
-        if (payment.getStatus() != PaymentStatus.PENDING) {
+        // Просроченный платеж тоже можно оплатить
+        PaymentStatus previousStatus = payment.getStatus();
+        if (previousStatus != PaymentStatus.PENDING && previousStatus != PaymentStatus.OVERDUE) {
             throw new CustomException("Платеж уже обработан");
         }
 
+        PaymentRollupService.Entry previous = PaymentRollupService.Entry.of(payment);
+
         // Имитация успешной оплаты
         payment.setStatus(PaymentStatus.PAID);
         payment.setPaidAt(LocalDateTime.now());
 
         Payment processedPayment = paymentRepository.save(payment);
+        clientSummaryService.paymentChanged(payment.getClient().getId(),
+                previousStatus, payment.getAmount(), PaymentStatus.PAID, payment.getAmount());
+        paymentRollupService.paymentChanged(previous, processedPayment);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, payment.getClient().getId());
         log.info("Платеж обработан: {}", processedPayment.getPaymentNumber());
 
         return paymentMapper.toDto(processedPayment);
@@ -159,6 +201,8 @@ public class PaymentService {
         Payment payment = paymentRepository.findById(id)
                 .orElseThrow(() -> new CustomException("Платеж не найден"));
 
+        PaymentStatus previousStatus = payment.getStatus();
+        PaymentRollupService.Entry previous = PaymentRollupService.Entry.of(payment);
         payment.setStatus(status);
 
         if (status == PaymentStatus.PAID && payment.getPaidAt() == null) {
@@ -166,6 +210,10 @@ public class PaymentService {
         }
 
         Payment updatedPayment = paymentRepository.save(payment);
+        clientSummaryService.paymentChanged(payment.getClient().getId(),
+                previousStatus, payment.getAmount(), status, payment.getAmount());
+        paymentRollupService.paymentChanged(previous, updatedPayment);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, payment.getClient().getId());
         log.info("Статус платежа {} изменен на: {}",
                 updatedPayment.getPaymentNumber(), status);
 
@@ -184,6 +232,9 @@ public class PaymentService {
         }
 
         paymentRepository.delete(payment);
+        clientSummaryService.paymentDeleted(payment.getClient().getId(), payment.getStatus(), payment.getAmount());
+        paymentRollupService.paymentDeleted(payment);
+        resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, payment.getClient().getId());
         log.info("Платеж удален: {}", payment.getPaymentNumber());
     }
 
@@ -203,102 +254,37 @@ public class PaymentService {
     }
 
     // STATISTICS
+    // Одна строка сводки клиента. Просроченными также считаются неоплаченные с прошедшим сроком,
+    // до которых ещё не дошла плановая отметка OVERDUE (сводка пересчитывает их при записи платежей)
     @Transactional(readOnly = true)
-    public BigDecimal getTotalAmountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        BigDecimal amount = paymentRepository.getTotalAmountByClient(client);
-        return amount != null ? amount : BigDecimal.ZERO;
-    }
-
-    @Transactional(readOnly = true)
-    public BigDecimal getTotalPaidAmountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        BigDecimal amount = paymentRepository.getTotalPaidAmountByClient(client);
-        return amount != null ? amount : BigDecimal.ZERO;
-    }
-
-    @Transactional(readOnly = true)
-    public BigDecimal getTotalPendingAmountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        BigDecimal amount = paymentRepository.getTotalPendingAmountByClient(client);
-        return amount != null ? amount : BigDecimal.ZERO;
+    public PaymentStatsDTO getClientStats(Long clientId) {
+        ClientSummary summary = clientSummaryService.getSummary(clientId);
+
+        return PaymentStatsDTO.builder()
+                .totalPayments(summary.getPaymentsTotal())
+                .pendingPayments(summary.getPaymentsPending())
+                .paidPayments(summary.getPaymentsPaid())
+                .overduePayments(summary.getPaymentsOverdue() + summary.getPaymentsPendingPastDue())
+                .totalAmount(summary.getPaymentsTotalAmount())
+                .paidAmount(summary.getPaymentsPaidAmount())
+                .pendingAmount(summary.getPaymentsPendingAmount())
+                .build();
     }
 
     @Transactional(readOnly = true)
     public List<PaymentDTO> getOverduePayments(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return paymentRepository.findOverduePayments(client, LocalDate.now()).stream()
+        if (!userRepository.existsById(clientId)) {
+            throw new CustomException("Клиент не найден");
+        }
+        return paymentRepository.findOverduePayments(clientId, LocalDate.now()).stream()
                 .map(paymentMapper::toDto)
                 .collect(Collectors.toList());
     }
 
     // UTILITY METHODS
-    private String generatePaymentNumber() {
-        String baseNumber = "PMT-" + LocalDateTime.now().getYear() + "-";
-        String paymentNumber;
-        int attempt = 0;
-        
-        do {
-            long count = paymentRepository.count() + 1 + attempt;
-            paymentNumber = baseNumber + String.format("%05d", count);
-            attempt++;
-            
-            // Защита от бесконечного цикла
-            if (attempt > 1000) {
-                paymentNumber = baseNumber + String.format("%05d", System.currentTimeMillis() % 100000);
-                break;
-            }
-        } while (paymentRepository.existsByPaymentNumber(paymentNumber));
-        
-        return paymentNumber;
-    }
-
     @Transactional(readOnly = true)
     public boolean paymentExists(Long id) {
         return paymentRepository.existsById(id);
     }
 
-    @Transactional(readOnly = true)
-    public long getPaymentsCountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return paymentRepository.countByClient(client);
-    }
-
-    @Transactional(readOnly = true)
-    public long getPaymentsCountByClientAndStatus(Long clientId, PaymentStatus status) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return paymentRepository.countByClientAndStatus(client, status);
-    }
-    public boolean isPaymentOwner(Long clientId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return currentUser.getId().equals(clientId);
-    }
-
-    public boolean isSinglePaymentOwner(Long paymentId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        Payment payment = paymentRepository.findById(paymentId)
-                .orElseThrow(() -> new CustomException("Платеж не найден"));
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return payment.getClient().getId().equals(currentUser.getId());
-    }
 }
\ No newline at end of file
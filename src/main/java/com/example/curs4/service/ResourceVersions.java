@@ -0,0 +1,117 @@
+package com.example.curs4.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Версии для слабых ETag списков и карточек деклараций, платежей и транспорта.
+ * Версия хранится в строке сводки клиента (client_summaries.*_version) и увеличивается в транзакции
+ * каждой записи в документы клиента, поэтому изменения на любом узле видны всем узлам.
+ * Список клиента сверяется по версии клиента, карточка — по версии её владельца; оба чтения идут
+ * по первичному ключу, и If-None-Match отвечает 304 до выборки и сериализации.
+ * Список доступного транспорта отдаётся из индекса парка в памяти и сверяется с версией этого индекса.
+ */
+@Service
+public class ResourceVersions {
+
+    public enum Resource {
+        DECLARATIONS("declarations", "declarations_version"),
+        PAYMENTS("payments", "payments_version"),
+        VEHICLES("vehicles", "vehicles_version");
+
+        private final String table;
+        private final String versionColumn;
+
+        Resource(String table, String versionColumn) {
+            this.table = table;
+            this.versionColumn = versionColumn;
+        }
+    }
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final ClientSummaryService clientSummaryService;
+    private final FleetIndex fleetIndex;
+    private final boolean enabled;
+
+    public ResourceVersions(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                            ClientSummaryService clientSummaryService,
+                            FleetIndex fleetIndex,
+                            @Value("${app.etag.enabled:true}") boolean enabled) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.clientSummaryService = clientSummaryService;
+        this.fleetIndex = fleetIndex;
+        this.enabled = enabled;
+    }
+
+    // TAGS (null — ETag отключены или версию не определить)
+    // Список клиента: меняется при любой записи в его документы
+    public String clientTag(Resource resource, Long clientId, Object... params) {
+        if (!enabled || clientId == null) {
+            return null;
+        }
+        List<Long> versions = namedParameterJdbcTemplate.queryForList(
+                "SELECT " + resource.versionColumn + " FROM client_summaries WHERE client_id = :clientId",
+                new MapSqlParameterSource("clientId", clientId), Long.class);
+        // Строки нет, пока у клиента не было записей
+        long version = versions.isEmpty() ? 0 : versions.get(0);
+        return tag(resource, clientId + "." + version, params);
+    }
+
+    // Карточка: меняется вместе со списком владельца; для несуществующего документа тега нет
+    public String entityTag(Resource resource, Long id) {
+        if (!enabled || id == null) {
+            return null;
+        }
+        List<String> versions = namedParameterJdbcTemplate.queryForList(
+                "SELECT e.client_id || '.' || COALESCE(s." + resource.versionColumn + ", 0) " +
+                        "FROM " + resource.table + " e LEFT JOIN client_summaries s ON s.client_id = e.client_id " +
+                        "WHERE e.id = :id",
+                new MapSqlParameterSource("id", id), String.class);
+        return versions.isEmpty() || versions.get(0) == null ? null : tag(resource, versions.get(0), id);
+    }
+
+    // Доступный транспорт из индекса парка этого узла
+    public String availableVehiclesTag(Object... params) {
+        String version = enabled ? fleetIndex.version() : null;
+        return version != null ? tag(Resource.VEHICLES, "available." + version, params) : null;
+    }
+
+    /**
+     * Ставит ETag и Cache-Control: private, no-cache (ответ можно хранить, но только с перепроверкой).
+     * true — у клиента актуальная версия, статус 304 уже выставлен и тело не нужно.
+     */
+    public boolean checkNotModified(ServletWebRequest request, String etag) {
+        if (etag == null) {
+            return false;
+        }
+        if (request.getResponse() != null) {
+            request.getResponse().setHeader("Cache-Control", "private, no-cache");
+        }
+        return request.checkNotModified(etag);
+    }
+
+    private String tag(Resource resource, String version, Object... params) {
+        return "W/\"" + resource.ordinal() + "-" + version + "-"
+                + Integer.toHexString(Arrays.deepHashCode(params)) + "\"";
+    }
+
+    // CHANGES (в транзакции записи)
+    public void changed(Resource resource, Long clientId) {
+        if (clientId != null) {
+            changed(resource, List.of(clientId));
+        }
+    }
+
+    public void changed(Resource resource, Collection<Long> clientIds) {
+        if (!clientIds.isEmpty()) {
+            clientSummaryService.versionChanged(resource.versionColumn, clientIds);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.springframework.stereotype.Service;
 public class SecurityService {
 
     private final UserService userService;
+    private final CurrentUserContext currentUserContext;
 
     public boolean isCurrentUser(Long userId, Authentication authentication) {
         try {
@@ -24,13 +25,7 @@ public class SecurityService {
                 return false;
             }
 
-            String currentUsername = authentication.getName();
-            if (currentUsername == null) {
-                return false;
-            }
-
-            User currentUser = userService.findByUsername(currentUsername);
-            return currentUser != null && currentUser.getId() != null && currentUser.getId().equals(userId);
+            return currentUserContext.isCurrentUser(userId, authentication);
         } catch (Exception e) {
             // Логируем ошибку, но возвращаем false вместо выбрасывания исключения
             return false;
@@ -47,19 +42,7 @@ public class SecurityService {
 
     public Long getCurrentUserId() {
         try {
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-
-            if (authentication == null || !authentication.isAuthenticated()) {
-                return null;
-            }
-
-            String currentUsername = authentication.getName();
-            if (currentUsername == null) {
-                return null;
-            }
-
-            User currentUser = userService.findByUsername(currentUsername);
-            return currentUser != null && currentUser.getId() != null ? currentUser.getId() : null;
+            return currentUserContext.getCurrentUserId();
         } catch (Exception e) {
             return null;
         }
@@ -79,6 +62,11 @@ public class SecurityService {
             return true;
         }
 
+        // Роль principal из JWT-фильтра уже отражена в authorities — повторный запрос не нужен
+        if (authentication.getPrincipal() instanceof UserDetailsServiceImpl.UserDetailsImpl) {
+            return false;
+        }
+
         // Дополнительная проверка через UserService
         try {
             String currentUsername = authentication.getName();
@@ -0,0 +1,119 @@
+package com.example.curs4.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковая загрузка справочника УНП из текстового файла: один УНП в строке
+ * или CSV, где УНП — первая колонка (строки заголовка и с неверным форматом пропускаются).
+ * Файл читается построчно, пачка УНП вставляется одним INSERT ... SELECT FROM unnest(массив)
+ * ON CONFLICT DO NOTHING RETURNING unp — добавленные УНП возвращает сама БД, независимо от того,
+ * как драйвер считает строки пакетных операторов. Каждая пачка — отдельная транзакция;
+ * память не зависит от размера файла.
+ */
+@Slf4j
+@Service
+public class UnpImportService {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO unp (unp_id, unp) SELECT nextval('unp_seq'), value FROM unnest(CAST(? AS text[])) AS value " +
+                    "ON CONFLICT (unp) DO NOTHING RETURNING unp";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final UnpRegistry unpRegistry;
+    private final EntityCacheService entityCacheService;
+    private final VerificationService verificationService;
+    private final int batchSize;
+
+    public UnpImportService(JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager,
+                            UnpRegistry unpRegistry,
+                            EntityCacheService entityCacheService,
+                            VerificationService verificationService,
+                            @Value("${app.unp-import.batch-size:5000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.unpRegistry = unpRegistry;
+        this.entityCacheService = entityCacheService;
+        this.verificationService = verificationService;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return read — строк с УНП, inserted — новых УНП, skipped — строк с неверным форматом
+     */
+    public Map<String, Long> importUnps(BufferedReader reader) throws IOException {
+        long read = 0;
+        long inserted = 0;
+        long skipped = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String value = firstColumn(line);
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (!verificationService.verifyUNP(value)) {
+                skipped++;
+                continue;
+            }
+            read++;
+            batch.add(value);
+            if (batch.size() == batchSize) {
+                inserted += insertBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            inserted += insertBatch(batch);
+        }
+
+        log.info("Импорт справочника УНП: прочитано {}, добавлено {}, пропущено {}", read, inserted, skipped);
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("read", read);
+        result.put("inserted", inserted);
+        result.put("skipped", skipped);
+        return result;
+    }
+
+    private int insertBatch(List<String> batch) {
+        List<String> added = transactionTemplate.execute(status -> {
+            // УНП, уже бывшие в справочнике, в RETURNING не попадают
+            List<String> rows = jdbcTemplate.queryForList(INSERT_SQL, String.class,
+                    (Object) batch.toArray(new String[0]));
+            unpRegistry.unpsAdded(rows);
+            if (!rows.isEmpty()) {
+                entityCacheService.unpsImported();
+            }
+            return rows;
+        });
+        return added != null ? added.size() : 0;
+    }
+
+    // Excel сохраняет CSV с BOM в начале файла; разделитель — запятая или точка с запятой
+    private static String firstColumn(String line) {
+        String value = line.replace("\uFEFF", "");
+        int separator = value.indexOf(',');
+        int semicolon = value.indexOf(';');
+        if (separator < 0 || (semicolon >= 0 && semicolon < separator)) {
+            separator = semicolon;
+        }
+        if (separator >= 0) {
+            value = value.substring(0, separator);
+        }
+        return value.replace("\"", "").trim();
+    }
+}
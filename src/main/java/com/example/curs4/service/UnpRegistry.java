@@ -0,0 +1,271 @@
+package com.example.curs4.service;
+
+import com.example.curs4.repository.UnpRepository;
+import com.example.curs4.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Справочник УНП в памяти: отсортированный int[] (УНП — 9 цифр и помещается в int)
+ * и битовая карта «УНП уже занят пользователем» по позициям массива — около 4 байт на запись.
+ * Проверки при регистрации идут без обращения к БД. Изменения после загрузки (регистрация,
+ * смена УНП, удаление пользователя, импорт справочника) применяются поверх снимка после фиксации
+ * транзакции; плановая перезагрузка собирает новый снимок и подхватывает изменения других узлов.
+ * УНП, которого нет в памяти, перед отказом проверяется по БД: его мог импортировать другой узел.
+ * До первой загрузки проверки выполняются запросами к БД.
+ */
+@Slf4j
+@Service
+public class UnpRegistry {
+
+    private static final String LOAD_SQL =
+            "SELECT u.unp, EXISTS (SELECT 1 FROM users us WHERE us.unp = u.unp_id) AS taken " +
+                    "FROM unp u WHERE u.unp ~ '^[0-9]{9}$' ORDER BY u.unp";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final UnpRepository unpRepository;
+    private final UserRepository userRepository;
+    private final boolean refreshEnabled;
+
+    private volatile State state;
+    // Изменения, пришедшие во время загрузки снимка: повторяются поверх нового снимка
+    private List<Change> changesDuringLoad;
+
+    public UnpRegistry(DataSource dataSource,
+                       PlatformTransactionManager transactionManager,
+                       UnpRepository unpRepository,
+                       UserRepository userRepository,
+                       @Value("${app.unp-registry.fetch-size:10000}") int fetchSize,
+                       @Value("${app.unp-registry.refresh-enabled:true}") boolean refreshEnabled) {
+        // Отдельный JdbcTemplate: fetch size не должен влиять на остальные запросы приложения
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.unpRepository = unpRepository;
+        this.userRepository = userRepository;
+        this.refreshEnabled = refreshEnabled;
+    }
+
+    private record Snapshot(int[] unps, BitSet taken) {
+    }
+
+    // Снимок и изменения после него; подменяются вместе одной записью в volatile
+    private record State(Snapshot snapshot, Set<Integer> added, Map<Integer, Boolean> taken) {
+        State(Snapshot snapshot) {
+            this(snapshot, ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>());
+        }
+    }
+
+    // added — УНП появился в справочнике; taken != null — УНП занят или освобождён
+    private record Change(int unp, boolean added, Boolean taken) {
+    }
+
+    // LOOKUPS
+    public boolean contains(String unp) {
+        State current = state;
+        if (current == null) {
+            return unpRepository.findByUnp(unp).isPresent();
+        }
+        int value = parse(unp);
+        if (value < 0) {
+            return false;
+        }
+        if (current.added().contains(value) || Arrays.binarySearch(current.snapshot().unps(), value) >= 0) {
+            return true;
+        }
+        if (!unpRepository.existsByUnp(unp)) {
+            return false;
+        }
+        apply(value, true, null);
+        return true;
+    }
+
+    public boolean isTaken(String unp) {
+        State current = state;
+        if (current == null) {
+            return userRepository.existsByUnp_Unp(unp);
+        }
+        int value = parse(unp);
+        if (value < 0) {
+            return false;
+        }
+        Boolean changed = current.taken().get(value);
+        if (changed != null) {
+            return changed;
+        }
+        int position = Arrays.binarySearch(current.snapshot().unps(), value);
+        return position >= 0 && current.snapshot().taken().get(position);
+    }
+
+    public int size() {
+        State current = state;
+        if (current == null) {
+            return 0;
+        }
+        return current.snapshot().unps().length + current.added().size();
+    }
+
+    // CHANGES (применяются после фиксации текущей транзакции)
+    public void unpsAdded(Collection<String> unps) {
+        afterCommit(() -> unps.forEach(unp -> apply(parse(unp), true, null)));
+    }
+
+    public void unpTaken(String unp) {
+        if (unp != null) {
+            afterCommit(() -> apply(parse(unp), false, true));
+        }
+    }
+
+    public void unpReleased(String unp) {
+        if (unp != null) {
+            afterCommit(() -> apply(parse(unp), false, false));
+        }
+    }
+
+    private synchronized void apply(int unp, boolean added, Boolean taken) {
+        if (unp < 0) {
+            return;
+        }
+        Change change = new Change(unp, added, taken);
+        if (state != null) {
+            apply(state, change);
+        }
+        if (changesDuringLoad != null) {
+            changesDuringLoad.add(change);
+        }
+    }
+
+    private static void apply(State target, Change change) {
+        if (change.added() && Arrays.binarySearch(target.snapshot().unps(), change.unp()) < 0) {
+            target.added().add(change.unp());
+        }
+        if (change.taken() != null) {
+            target.taken().put(change.unp(), change.taken());
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // LOADING
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Не удалось загрузить справочник УНП, проверки будут выполняться по БД", e);
+        }
+    }
+
+    @Scheduled(cron = "${app.unp-registry.refresh-cron:0 10 * * * *}")
+    public void scheduledRefresh() {
+        if (!refreshEnabled) {
+            return;
+        }
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.error("Ошибка перезагрузки справочника УНП", e);
+        }
+    }
+
+    public void reload() {
+        synchronized (this) {
+            if (changesDuringLoad != null) {
+                return;
+            }
+            changesDuringLoad = new ArrayList<>();
+        }
+        try {
+            long startedAt = System.currentTimeMillis();
+            Snapshot snapshot = readOnlyTransaction.execute(status -> loadSnapshot());
+            synchronized (this) {
+                State loaded = new State(snapshot);
+                changesDuringLoad.forEach(change -> apply(loaded, change));
+                state = loaded;
+            }
+            log.info("Справочник УНП загружен: {} записей, занято {}, за {} мс",
+                    snapshot.unps().length, snapshot.taken().cardinality(), System.currentTimeMillis() - startedAt);
+        } finally {
+            synchronized (this) {
+                changesDuringLoad = null;
+            }
+        }
+    }
+
+    private Snapshot loadSnapshot() {
+        SnapshotBuilder builder = new SnapshotBuilder();
+        jdbcTemplate.query(LOAD_SQL, rs -> {
+            builder.add(Integer.parseInt(rs.getString(1)), rs.getBoolean(2));
+        });
+        return builder.build();
+    }
+
+    // Значения приходят по возрастанию, массив растёт удвоением
+    private static class SnapshotBuilder {
+        private int[] unps = new int[1024];
+        private final BitSet taken = new BitSet();
+        private int count;
+
+        void add(int unp, boolean isTaken) {
+            if (count == unps.length) {
+                unps = Arrays.copyOf(unps, unps.length * 2);
+            }
+            if (isTaken) {
+                taken.set(count);
+            }
+            unps[count++] = unp;
+        }
+
+        Snapshot build() {
+            return new Snapshot(Arrays.copyOf(unps, count), taken);
+        }
+    }
+
+    // -1 — строка не является УНП из 9 цифр
+    private static int parse(String unp) {
+        if (unp == null || unp.length() != 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < 9; i++) {
+            char c = unp.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -21,7 +21,7 @@ public class UserDetailsServiceImpl implements UserDetailsService {
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username)
+        User user = userRepository.findForAuthentication(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден: " + username));
 
         return new UserDetailsImpl(user);
@@ -34,6 +34,33 @@ public class UserDetailsServiceImpl implements UserDetailsService {
             this.user = user;
         }
 
+        /**
+         * Лёгкий principal, собранный из claims токена без обращения к БД.
+         * Пароль не заполняется, аккаунт считается включённым — токен выдаётся только после входа.
+         */
+        public static UserDetailsImpl fromClaims(Long id, String username, String roles) {
+            com.example.curs4.entity.Role role = null;
+            if (roles != null) {
+                for (String authority : roles.split(",")) {
+                    if (authority.startsWith("ROLE_")) {
+                        role = com.example.curs4.entity.Role.valueOf(authority.substring("ROLE_".length()));
+                        break;
+                    }
+                }
+            }
+            if (role == null) {
+                throw new UsernameNotFoundException("Роль пользователя не указана в токене: " + username);
+            }
+
+            User user = User.builder()
+                    .id(id)
+                    .username(username)
+                    .role(role)
+                    .verified(true)
+                    .build();
+            return new UserDetailsImpl(user);
+        }
+
         @Override
         public Collection<? extends GrantedAuthority> getAuthorities() {
             return Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole().name()));
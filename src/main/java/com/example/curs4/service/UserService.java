@@ -1,5 +1,7 @@
 package com.example.curs4.service;
 
+import com.example.curs4.config.SecurityVersionRegistry;
+import com.example.curs4.dto.KeysetPage;
 import com.example.curs4.dto.UserDTO;
 import com.example.curs4.entity.Role;
 import com.example.curs4.entity.Unp;
@@ -9,10 +11,13 @@ import com.example.curs4.mapper.UserMapper;
 import com.example.curs4.repository.ActivityRepository;
 import com.example.curs4.repository.UnpRepository;
 import com.example.curs4.repository.UserRepository;
+import com.example.curs4.repository.VehicleRepository;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.Authentication;
@@ -21,7 +26,9 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -34,9 +41,17 @@ public class UserService {
     private EntityManager entityManager;
     private final UserRepository userRepository;
     private final UnpRepository unpRepository;
+    private final VehicleRepository vehicleRepository;
     private final VerificationService verificationService;
     private final UserMapper userMapper;
     private final PasswordEncoder passwordEncoder;
+    private final SecurityVersionRegistry securityVersionRegistry;
+    private final KeysetPagination keysetPagination;
+    private final ClientSummaryService clientSummaryService;
+    private final UnpRegistry unpRegistry;
+    private final AvailabilityService availabilityService;
+    private final FleetIndex fleetIndex;
+    private final ResourceVersions resourceVersions;
     private ActivityRepository activityRepository;
 
     // CREATE
@@ -59,9 +74,7 @@ public class UserService {
         user.setVerified(true);
 
         if (dto.getRole() == Role.CLIENT) {
-            boolean isVerified = verificationService.verifyUNP(dto.getUnp());
-            user.setVerified(isVerified);
-
+            // Формат УНП и наличие в справочнике уже проверены в validateUser
             Unp unp = unpRepository.findByUnp(dto.getUnp())
                     .orElseThrow(() -> new CustomException("УНП не найден в справочнике"));
             user.setUnp(unp);
@@ -71,7 +84,18 @@ public class UserService {
             user.setActivityType(null);
         }
 
-        User savedUser = userRepository.save(user);
+        availabilityService.added(AvailabilityService.Field.USERNAME, user.getUsername());
+        availabilityService.added(AvailabilityService.Field.EMAIL, user.getEmail());
+        User savedUser;
+        try {
+            savedUser = userRepository.saveAndFlush(user);
+        } catch (DataIntegrityViolationException e) {
+            // Тот же логин или УНП одновременно зарегистрировали в другом запросе
+            throw new CustomException("Пользователь с таким логином или УНП уже существует");
+        }
+        if (savedUser.getUnp() != null) {
+            unpRegistry.unpTaken(savedUser.getUnp().getUnp());
+        }
         return userMapper.toDto(savedUser);
     }
 
@@ -110,10 +134,13 @@ public class UserService {
         return userDTO;
     }
     @Transactional(readOnly = true)
-    public List<UserDTO> getAllUsers() {
-        return userRepository.findAll().stream()
-                .map(userMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<UserDTO> getUsersPage(String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decode(cursor);
+
+        List<User> rows = userRepository.findPageAfter(after != null ? after.id() : 0L,
+                keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, userMapper::toDto, u -> keysetPagination.encode(u.getId()));
     }
 
     // Метод с пагинацией (если нужен)
@@ -142,6 +169,9 @@ public class UserService {
     public UserDTO updateUser(Long id, UserDTO dto) {
         User existingUser = userRepository.findById(id)
                 .orElseThrow(() -> new CustomException("Пользователь с ID " + id + " не найден"));
+        boolean credentialsChanged = false;
+        String previousName = displayName(existingUser);
+        String previousUnp = existingUser.getUnp() != null ? existingUser.getUnp().getUnp() : null;
 
         // Обновляем username, если он изменился
         if (dto.getUsername() != null && !dto.getUsername().equals(existingUser.getUsername())) {
@@ -149,16 +179,19 @@ public class UserService {
                 throw new CustomException("Пользователь с таким логином уже существует");
             }
             existingUser.setUsername(dto.getUsername());
+            credentialsChanged = true;
         }
 
         // Обновляем пароль, если он указан
         if (dto.getPassword() != null && !dto.getPassword().trim().isEmpty()) {
             existingUser.setPassword(passwordEncoder.encode(dto.getPassword()));
+            credentialsChanged = true;
         }
 
         // Обновляем роль, если указана
-        if (dto.getRole() != null) {
+        if (dto.getRole() != null && dto.getRole() != existingUser.getRole()) {
             existingUser.setRole(dto.getRole());
+            credentialsChanged = true;
         }
 
         // Обновляем email
@@ -184,16 +217,51 @@ public class UserService {
 
         // Обновляем УНП для клиентов
         if (dto.getRole() == Role.CLIENT && dto.getUnp() != null && !dto.getUnp().trim().isEmpty()) {
-            // Проверяем, что УНП существует в справочнике
-            Unp unp = unpRepository.findByUnp(dto.getUnp())
-                    .orElseThrow(() -> new CustomException("УНП не найден в справочнике"));
-            existingUser.setUnp(unp);
+            if (!dto.getUnp().equals(previousUnp)) {
+                // Проверяем по справочнику в памяти, что УНП существует и не занят
+                if (!unpRegistry.contains(dto.getUnp())) {
+                    throw new CustomException("УНП не найден в справочнике");
+                }
+                if (unpRegistry.isTaken(dto.getUnp())) {
+                    throw new CustomException("Пользователь с таким УНП уже существует");
+                }
+                Unp unp = unpRepository.findByUnp(dto.getUnp())
+                        .orElseThrow(() -> new CustomException("УНП не найден в справочнике"));
+                existingUser.setUnp(unp);
+            }
         } else if (dto.getRole() == Role.DRIVER || dto.getRole() == Role.ADMIN) {
             // Для водителя и админа УНП должен быть null
             existingUser.setUnp(null);
         }
 
+        if (credentialsChanged) {
+            // Логин, пароль или роль изменились — ранее выданные токены больше не принимаются
+            existingUser.setSecurityVersion(existingUser.getSecurityVersion() + 1);
+        }
+
+        availabilityService.added(AvailabilityService.Field.USERNAME, existingUser.getUsername());
+        availabilityService.added(AvailabilityService.Field.EMAIL, existingUser.getEmail());
         User updatedUser = userRepository.save(existingUser);
+        String currentUnp = updatedUser.getUnp() != null ? updatedUser.getUnp().getUnp() : null;
+        if (previousUnp != null && !previousUnp.equals(currentUnp)) {
+            unpRegistry.unpReleased(previousUnp);
+        }
+        if (currentUnp != null && !currentUnp.equals(previousUnp)) {
+            unpRegistry.unpTaken(currentUnp);
+        }
+        String name = displayName(updatedUser);
+        if (!name.equals(previousName)) {
+            fleetIndex.userRenamed(updatedUser.getId(), name);
+            // Имя клиента входит в его декларации, платежи и транспорт, имя водителя — в арендованный им транспорт
+            resourceVersions.changed(ResourceVersions.Resource.DECLARATIONS, updatedUser.getId());
+            resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, updatedUser.getId());
+            List<Long> vehicleClients = new ArrayList<>(vehicleRepository.findClientIdsByDriverId(updatedUser.getId()));
+            vehicleClients.add(updatedUser.getId());
+            resourceVersions.changed(ResourceVersions.Resource.VEHICLES, vehicleClients);
+        }
+        if (credentialsChanged) {
+            securityVersionRegistry.changed(id);
+        }
         log.info("Пользователь обновлен: {}", updatedUser.getUsername());
         return userMapper.toDto(updatedUser);
     }
@@ -212,7 +280,18 @@ public class UserService {
         try {
             log.info("Начинаем удаление пользователя {} (ID: {})", id);
 
-            // Удаляем в правильном порядке (от дочерних к родительским)
+            // Удаление транспорта водителя и платежей по декларациям меняет сводки других клиентов
+            @SuppressWarnings("unchecked")
+            List<Number> affectedClients = entityManager.createNativeQuery(
+                            "SELECT client_id FROM vehicles WHERE driver_id = :userId " +
+                                    "UNION SELECT p.client_id FROM payments p " +
+                                    "JOIN declarations d ON d.id = p.declaration_id WHERE d.client_id = :userId")
+                    .setParameter("userId", id)
+                    .getResultList();
+
+            // Удаляем в правильном порядке (от дочерних к родительским).
+            // У каждого DELETE указана таблица: без этого нативный запрос сбрасывает весь кэш второго уровня,
+            // включая закэшированных пользователей
 
             // 1. Сначала удаляем платежи, которые ссылаются на декларации этого пользователя
             int paymentsFromDeclarations = entityManager.createNativeQuery(
@@ -220,6 +299,7 @@ public class UserService {
                                     "  SELECT id FROM declarations WHERE client_id = :userId" +
                                     ")")
                     .setParameter("userId", id)
+                    .setHint(HibernateHints.HINT_NATIVE_SPACES, "payments")
                     .executeUpdate();
             log.info("Удалено платежей по декларациям пользователя: {}", paymentsFromDeclarations);
 
@@ -227,6 +307,7 @@ public class UserService {
             int paymentsDirect = entityManager.createNativeQuery(
                             "DELETE FROM payments WHERE client_id = :userId")
                     .setParameter("userId", id)
+                    .setHint(HibernateHints.HINT_NATIVE_SPACES, "payments")
                     .executeUpdate();
             log.info("Удалено платежей напрямую связанных с пользователем: {}", paymentsDirect);
 
@@ -234,16 +315,32 @@ public class UserService {
             int declarationsDeleted = entityManager.createNativeQuery(
                             "DELETE FROM declarations WHERE client_id = :userId")
                     .setParameter("userId", id)
+                    .setHint(HibernateHints.HINT_NATIVE_SPACES, "declarations")
                     .executeUpdate();
             log.info("Удалено деклараций пользователя: {}", declarationsDeleted);
 
             int vehiclesDeleted = entityManager.createNativeQuery(
                             "DELETE FROM vehicles WHERE driver_id = :userId")
                     .setParameter("userId", id)
+                    .setHint(HibernateHints.HINT_NATIVE_SPACES, "vehicles")
                     .executeUpdate();
             log.info("Удалено транспорта пользователя: {}", vehiclesDeleted);
 
             userRepository.delete(user);
+            if (user.getUnp() != null) {
+                unpRegistry.unpReleased(user.getUnp().getUnp());
+            }
+            clientSummaryService.clientDeleted(id);
+            fleetIndex.userDeleted(id);
+            Set<Long> otherClients = affectedClients.stream()
+                    .map(Number::longValue)
+                    .filter(clientId -> !clientId.equals(id))
+                    .collect(Collectors.toSet());
+            clientSummaryService.rebuildClients(otherClients);
+            // У других клиентов пропали арендованный пользователем транспорт и платежи по его декларациям
+            resourceVersions.changed(ResourceVersions.Resource.VEHICLES, otherClients);
+            resourceVersions.changed(ResourceVersions.Resource.PAYMENTS, otherClients);
+            securityVersionRegistry.changed(id);
             log.info("Пользователь удален: {}", user.getUsername());
         } catch (Exception e) {
             log.error("Ошибка при удалении пользователя: {}", e.getMessage());
@@ -251,6 +348,11 @@ public class UserService {
         }
     }
 
+    // Имя, под которым пользователь показывается в документах и транспорте
+    private static String displayName(User user) {
+        return user.getName() != null ? user.getName() : user.getUsername();
+    }
+
     // Валидация
     private void validateUser(UserDTO dto) {
         if (userRepository.existsByUsername(dto.getUsername())) {
@@ -268,11 +370,12 @@ public class UserService {
                 throw new CustomException("УНП не прошёл валидацию (должно быть 9 цифр)");
             }
 
-            if (unpRepository.findByUnp(unpValue).isEmpty()) {
+            // Справочник и занятые УНП проверяются по индексу в памяти, без запросов к БД
+            if (!unpRegistry.contains(unpValue)) {
                 throw new CustomException("УНП не найден в справочнике");
             }
 
-            if (userRepository.existsByUnp_Unp(unpValue)) {
+            if (unpRegistry.isTaken(unpValue)) {
                 throw new CustomException("Пользователь с таким УНП уже существует");
             }
 
@@ -286,13 +389,4 @@ public class UserService {
         }
     }
 
-    // Дополнительные методы
-    public boolean existsByUsername(String username) {
-        return userRepository.existsByUsername(username);
-    }
-
-    public boolean existsByEmail(String email) {
-        return userRepository.existsByEmail(email);
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+package com.example.curs4.service;
+
+import com.example.curs4.exception.CustomException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Плановое завершение аренд с истёкшим сроком.
+ * Транспорт выбирается по индексу rental_end_date чанками; один оператор на чанк освобождает
+ * транспорт и пишет запись в историю аренд (vehicle_rentals) с причиной EXPIRED.
+ * Строки, заблокированные в этот момент (водитель возвращает транспорт), пропускаются до следующего запуска.
+ */
+@Slf4j
+@Service
+public class VehicleRentalSweeper {
+
+    private static final String RELEASE_EXPIRED_SQL =
+            "WITH expired AS (" +
+                    "SELECT id, license_plate, driver_id, rental_start_date, rental_end_date FROM vehicles " +
+                    "WHERE rental_end_date < :now ORDER BY rental_end_date, id LIMIT :limit FOR UPDATE SKIP LOCKED), " +
+                    "released AS (" +
+                    "UPDATE vehicles v SET driver_id = NULL, is_available = true, " +
+                    "rental_start_date = NULL, rental_end_date = NULL, updated_at = :now " +
+                    "FROM expired e WHERE v.id = e.id " +
+                    "RETURNING e.id, v.client_id, e.license_plate, e.driver_id, e.rental_start_date, e.rental_end_date), " +
+                    "history AS (" +
+                    "INSERT INTO vehicle_rentals (id, vehicle_id, license_plate, driver_id, rental_start_date, " +
+                    "rental_end_date, returned_at, end_reason, created_at) " +
+                    "SELECT nextval('vehicle_rentals_seq'), id, license_plate, driver_id, rental_start_date, " +
+                    "rental_end_date, :now, 'EXPIRED', :now FROM released) " +
+                    "SELECT id, client_id FROM released";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final FleetIndex fleetIndex;
+    private final ResourceVersions resourceVersions;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int chunkSize;
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    public VehicleRentalSweeper(NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                FleetIndex fleetIndex,
+                                ResourceVersions resourceVersions,
+                                @Value("${app.vehicles.rental-sweeper.enabled:true}") boolean enabled,
+                                @Value("${app.vehicles.rental-sweeper.chunk-size:500}") int chunkSize) {
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.fleetIndex = fleetIndex;
+        this.resourceVersions = resourceVersions;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(cron = "${app.vehicles.rental-sweeper.cron:0 * * * * *}")
+    public void scheduledSweep() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.error("Ошибка планового завершения истёкших аренд", e);
+        }
+    }
+
+    /**
+     * @return количество освобождённого транспорта
+     */
+    public long sweep() {
+        if (!runLock.tryLock()) {
+            throw new CustomException("Завершение истёкших аренд уже выполняется");
+        }
+        try {
+            long total = 0;
+            int released;
+            do {
+                LocalDateTime now = LocalDateTime.now();
+                MapSqlParameterSource params = new MapSqlParameterSource()
+                        .addValue("now", Timestamp.valueOf(now))
+                        .addValue("limit", chunkSize);
+                List<Long> chunk = transactionTemplate.execute(status -> {
+                    List<Long> vehicleIds = new ArrayList<>();
+                    Set<Long> clientIds = new HashSet<>();
+                    namedParameterJdbcTemplate.query(RELEASE_EXPIRED_SQL, params, rs -> {
+                        vehicleIds.add(rs.getLong("id"));
+                        Long clientId = rs.getObject("client_id", Long.class);
+                        if (clientId != null) {
+                            clientIds.add(clientId);
+                        }
+                    });
+                    fleetIndex.rentalsEnded(vehicleIds, now);
+                    resourceVersions.changed(ResourceVersions.Resource.VEHICLES, clientIds);
+                    return vehicleIds;
+                });
+                released = chunk != null ? chunk.size() : 0;
+                total += released;
+            } while (released == chunkSize);
+
+            if (total > 0) {
+                log.info("Завершено истёкших аренд: {}", total);
+            }
+            return total;
+        } finally {
+            runLock.unlock();
+        }
+    }
+}
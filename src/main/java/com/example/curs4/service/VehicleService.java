@@ -1,5 +1,6 @@
 package com.example.curs4.service;
 
+import com.example.curs4.dto.KeysetPage;
 import com.example.curs4.dto.VehicleDTO;
 import com.example.curs4.entity.User;
 import com.example.curs4.entity.Vehicle;
@@ -9,12 +10,12 @@ import com.example.curs4.repository.UserRepository;
 import com.example.curs4.repository.VehicleRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -26,6 +27,11 @@ public class VehicleService {
     private final VehicleRepository vehicleRepository;
     private final UserRepository userRepository;
     private final VehicleMapper vehicleMapper;
+    private final KeysetPagination keysetPagination;
+    private final ClientSummaryService clientSummaryService;
+    private final AvailabilityService availabilityService;
+    private final FleetIndex fleetIndex;
+    private final ResourceVersions resourceVersions;
 
     // CREATE
     public VehicleDTO createVehicle(VehicleDTO dto) {
@@ -44,10 +50,15 @@ public class VehicleService {
         Vehicle vehicle = vehicleMapper.toEntity(dto);
         vehicle.setClient(client);
 
+        availabilityService.added(AvailabilityService.Field.LICENSE_PLATE, vehicle.getLicensePlate());
         Vehicle savedVehicle = vehicleRepository.save(vehicle);
+        clientSummaryService.vehicleCreated(client.getId(), savedVehicle.getVehicleType(), savedVehicle.getCapacity());
         log.info("Транспорт создан: {}", savedVehicle.getLicensePlate());
 
-        return vehicleMapper.toDto(savedVehicle);
+        VehicleDTO created = vehicleMapper.toDto(savedVehicle);
+        fleetIndex.vehicleChanged(created);
+        resourceVersions.changed(ResourceVersions.Resource.VEHICLES, client.getId());
+        return created;
     }
 
     // READ
@@ -59,17 +70,23 @@ public class VehicleService {
     }
 
     @Transactional(readOnly = true)
-    public List<VehicleDTO> getAllVehicles() {
-        return vehicleRepository.findAll().stream()
-                .map(vehicleMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<VehicleDTO> getVehiclesPage(String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decode(cursor);
+
+        List<Vehicle> rows = vehicleRepository.findPageAfter(after != null ? after.id() : 0L,
+                keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, vehicleMapper::toDto, v -> keysetPagination.encode(v.getId()));
     }
 
     @Transactional(readOnly = true)
-    public List<VehicleDTO> getVehiclesByClientId(Long clientId) {
-        return vehicleRepository.findByClientId(clientId).stream()
-                .map(vehicleMapper::toDto)
-                .collect(Collectors.toList());
+    public KeysetPage<VehicleDTO> getVehiclesPageByClientId(Long clientId, String cursor, Integer size) {
+        int pageSize = keysetPagination.resolveSize(size);
+        KeysetPagination.Cursor after = keysetPagination.decode(cursor);
+
+        List<Vehicle> rows = vehicleRepository.findPageByClientIdAfter(clientId, after != null ? after.id() : 0L,
+                keysetPagination.probe(pageSize));
+        return keysetPagination.page(rows, pageSize, vehicleMapper::toDto, v -> keysetPagination.encode(v.getId()));
     }
 
     @Transactional(readOnly = true)
@@ -97,6 +114,10 @@ public class VehicleService {
             throw new CustomException("Транспорт с номером " + dto.getLicensePlate() + " уже существует");
         }
 
+        Long previousClientId = existingVehicle.getClient().getId();
+        String previousType = existingVehicle.getVehicleType();
+        Double previousCapacity = existingVehicle.getCapacity();
+
         // Обновляем владельца, если указан новый clientId
         if (dto.getClientId() != null && !dto.getClientId().equals(existingVehicle.getClient().getId())) {
             User newClient = userRepository.findById(dto.getClientId())
@@ -111,10 +132,17 @@ public class VehicleService {
         existingVehicle.setYearOfManufacture(dto.getYearOfManufacture());
         existingVehicle.setCapacity(dto.getCapacity());
 
-        Vehicle updatedVehicle = vehicleRepository.save(existingVehicle);
+        availabilityService.added(AvailabilityService.Field.LICENSE_PLATE, existingVehicle.getLicensePlate());
+        // Сразу в БД: @PreUpdate проставляет updated_at, по которому индекс парка упорядочивает изменения
+        Vehicle updatedVehicle = vehicleRepository.saveAndFlush(existingVehicle);
+        clientSummaryService.vehicleChanged(previousClientId, previousType, previousCapacity,
+                updatedVehicle.getClient().getId(), updatedVehicle.getVehicleType(), updatedVehicle.getCapacity());
         log.info("Транспорт обновлен: {}", updatedVehicle.getLicensePlate());
 
-        return vehicleMapper.toDto(updatedVehicle);
+        VehicleDTO updated = vehicleMapper.toDto(updatedVehicle);
+        fleetIndex.vehicleChanged(updated);
+        resourceVersions.changed(ResourceVersions.Resource.VEHICLES, List.of(previousClientId, updated.getClientId()));
+        return updated;
     }
 
     // DELETE
@@ -123,6 +151,9 @@ public class VehicleService {
                 .orElseThrow(() -> new CustomException("Транспорт не найден"));
 
         vehicleRepository.delete(vehicle);
+        fleetIndex.vehicleDeleted(id);
+        resourceVersions.changed(ResourceVersions.Resource.VEHICLES, vehicle.getClient().getId());
+        clientSummaryService.vehicleDeleted(vehicle.getClient().getId(), vehicle.getVehicleType(), vehicle.getCapacity());
         log.info("Транспорт удален: {}", vehicle.getLicensePlate());
     }
 
@@ -137,103 +168,59 @@ public class VehicleService {
         }
     }
 
-    // STATISTICS
-    @Transactional(readOnly = true)
-    public long getVehiclesCountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return vehicleRepository.countByClient(client);
-    }
-
-    @Transactional(readOnly = true)
-    public long getTrucksCountByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return vehicleRepository.countTrucksByClient(client);
-    }
-
-    @Transactional(readOnly = true)
-    public double getTotalCapacityByClient(Long clientId) {
-        User client = userRepository.findById(clientId)
-                .orElseThrow(() -> new CustomException("Клиент не найден"));
-        return vehicleRepository.getTotalCapacityByClient(client);
-    }
-
     // UTILITY METHODS
     @Transactional(readOnly = true)
     public boolean vehicleExists(Long id) {
         return vehicleRepository.existsById(id);
     }
 
-    @Transactional(readOnly = true)
-    public boolean licensePlateExists(String licensePlate) {
-        return vehicleRepository.existsByLicensePlate(licensePlate);
-    }
-    public boolean isVehicleOwner(Long clientId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return currentUser.getId().equals(clientId);
-    }
-
-    public boolean isSingleVehicleOwner(Long vehicleId, Authentication authentication) {
-        if (authentication == null || !authentication.isAuthenticated()) {
-            return false;
-        }
-
-        Vehicle vehicle = vehicleRepository.findById(vehicleId)
-                .orElseThrow(() -> new CustomException("Транспорт не найден"));
-
-        String currentUsername = authentication.getName();
-        User currentUser = userRepository.findByUsername(currentUsername)
-                .orElseThrow(() -> new CustomException("Пользователь не найден"));
-
-        return vehicle.getClient().getId().equals(currentUser.getId());
-    }
-
     // RENTAL METHODS
+    // Списки отдаются из индекса парка в памяти; из БД — только пока индекс не загружен
     @Transactional(readOnly = true)
-    public List<VehicleDTO> getAvailableVehicles() {
+    public List<VehicleDTO> getAvailableVehicles(String vehicleType, Double minCapacity) {
+        List<VehicleDTO> indexed = fleetIndex.available(vehicleType, minCapacity);
+        if (indexed != null) {
+            return indexed;
+        }
         // Используем метод, который учитывает NULL значения
         return vehicleRepository.findAvailableVehicles().stream()
+                .filter(vehicle -> matches(vehicle, vehicleType, minCapacity))
                 .map(vehicleMapper::toDto)
                 .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
     public List<VehicleDTO> getRentedVehiclesByDriver(Long driverId) {
+        List<VehicleDTO> indexed = fleetIndex.rentedBy(driverId);
+        if (indexed != null) {
+            return indexed;
+        }
         return vehicleRepository.findByDriverId(driverId).stream()
                 .map(vehicleMapper::toDto)
                 .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
-    public List<VehicleDTO> getAllRentedVehicles() {
-        // Получаем все машины, которые арендованы (driver != null)
-        return vehicleRepository.findAll().stream()
-                .filter(vehicle -> vehicle.getDriver() != null)
+    public List<VehicleDTO> getAllRentedVehicles(String vehicleType, Double minCapacity) {
+        List<VehicleDTO> indexed = fleetIndex.rented(vehicleType, minCapacity);
+        if (indexed != null) {
+            return indexed;
+        }
+        return vehicleRepository.findRentedVehicles().stream()
+                .filter(vehicle -> matches(vehicle, vehicleType, minCapacity))
                 .map(vehicleMapper::toDto)
                 .collect(Collectors.toList());
     }
 
-    public VehicleDTO rentVehicle(Long vehicleId, Long driverId, LocalDateTime endDate) {
-        Vehicle vehicle = vehicleRepository.findById(vehicleId)
-                .orElseThrow(() -> new CustomException("Транспорт не найден"));
-
-        // Проверяем, что машина доступна (isAvailable = true или NULL) и не арендована (driver = NULL)
-        if (vehicle.getIsAvailable() != null && !vehicle.getIsAvailable()) {
-            throw new CustomException("Транспорт уже арендован");
-        }
-        
-        if (vehicle.getDriver() != null) {
-            throw new CustomException("Транспорт уже арендован другим водителем");
+    private static boolean matches(Vehicle vehicle, String vehicleType, Double minCapacity) {
+        if (vehicleType != null && !vehicleType.isBlank() && (vehicle.getVehicleType() == null
+                || !vehicle.getVehicleType().toLowerCase(Locale.ROOT).contains(vehicleType.toLowerCase(Locale.ROOT)))) {
+            return false;
         }
+        return minCapacity == null || (vehicle.getCapacity() != null && vehicle.getCapacity() >= minCapacity);
+    }
 
+    public VehicleDTO rentVehicle(Long vehicleId, Long driverId, LocalDateTime endDate) {
         User driver = userRepository.findById(driverId)
                 .orElseThrow(() -> new CustomException("Водитель не найден"));
 
@@ -241,33 +228,44 @@ public class VehicleService {
             throw new CustomException("Пользователь не является водителем");
         }
 
-        vehicle.setDriver(driver);
-        vehicle.setIsAvailable(false);
-        vehicle.setRentalStartDate(LocalDateTime.now());
-        vehicle.setRentalEndDate(endDate);
+        LocalDateTime now = LocalDateTime.now();
+        if (endDate != null && !endDate.isAfter(now)) {
+            throw new CustomException("Дата окончания аренды должна быть в будущем");
+        }
 
-        Vehicle rentedVehicle = vehicleRepository.save(vehicle);
+        // Проверка доступности (isAvailable = true или NULL, driver = NULL) и аренда — один условный UPDATE
+        if (vehicleRepository.rentIfAvailable(vehicleId, driverId, now, endDate) == 0) {
+            if (!vehicleRepository.existsById(vehicleId)) {
+                throw new CustomException("Транспорт не найден");
+            }
+            throw new CustomException("Транспорт уже арендован");
+        }
+
+        Vehicle rentedVehicle = vehicleRepository.findById(vehicleId)
+                .orElseThrow(() -> new CustomException("Транспорт не найден"));
         log.info("Транспорт {} арендован водителем {}", rentedVehicle.getLicensePlate(), driver.getUsername());
 
-        return vehicleMapper.toDto(rentedVehicle);
+        VehicleDTO rented = vehicleMapper.toDto(rentedVehicle);
+        fleetIndex.vehicleChanged(rented);
+        resourceVersions.changed(ResourceVersions.Resource.VEHICLES, rented.getClientId());
+        return rented;
     }
 
     public VehicleDTO returnVehicle(Long vehicleId, Long driverId) {
-        Vehicle vehicle = vehicleRepository.findById(vehicleId)
-                .orElseThrow(() -> new CustomException("Транспорт не найден"));
-
-        if (vehicle.getDriver() == null || !vehicle.getDriver().getId().equals(driverId)) {
+        if (vehicleRepository.returnIfRentedBy(vehicleId, driverId, LocalDateTime.now()) == 0) {
+            if (!vehicleRepository.existsById(vehicleId)) {
+                throw new CustomException("Транспорт не найден");
+            }
             throw new CustomException("Вы не арендовали этот транспорт");
         }
 
-        vehicle.setDriver(null);
-        vehicle.setIsAvailable(true);
-        vehicle.setRentalStartDate(null);
-        vehicle.setRentalEndDate(null);
-
-        Vehicle returnedVehicle = vehicleRepository.save(vehicle);
+        Vehicle returnedVehicle = vehicleRepository.findById(vehicleId)
+                .orElseThrow(() -> new CustomException("Транспорт не найден"));
         log.info("Транспорт {} возвращен водителем", returnedVehicle.getLicensePlate());
 
-        return vehicleMapper.toDto(returnedVehicle);
+        VehicleDTO returned = vehicleMapper.toDto(returnedVehicle);
+        fleetIndex.vehicleChanged(returned);
+        resourceVersions.changed(ResourceVersions.Resource.VEHICLES, returned.getClientId());
+        return returned;
     }
-}
\ No newline at end of file
+}
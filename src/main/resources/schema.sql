@@ -0,0 +1,43 @@
+-- ID sequences are allocated in blocks of 50 (pooled optimizer).
+-- Move each sequence past ids already issued by the former IDENTITY columns.
+SELECT setval('declarations_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM declarations) + 50, (SELECT last_value FROM declarations_seq)), true);
+SELECT setval('payments_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM payments) + 50, (SELECT last_value FROM payments_seq)), true);
+SELECT setval('vehicles_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM vehicles) + 50, (SELECT last_value FROM vehicles_seq)), true);
+SELECT setval('activities_seq', GREATEST((SELECT COALESCE(MAX(id), 0) FROM activities) + 50, (SELECT last_value FROM activities_seq)), true);
+SELECT setval('users_seq', GREATEST((SELECT COALESCE(MAX(user_id), 0) FROM users) + 50, (SELECT last_value FROM users_seq)), true);
+SELECT setval('unp_seq', GREATEST((SELECT COALESCE(MAX(unp_id), 0) FROM unp) + 50, (SELECT last_value FROM unp_seq)), true);
+
+-- Change-tracking columns used as watermarks by the analytics export.
+-- Rows created before the columns existed get their creation time.
+UPDATE declarations SET updated_at = COALESCE(created_at, now()) WHERE updated_at IS NULL;
+UPDATE payments SET updated_at = COALESCE(created_at, now()) WHERE updated_at IS NULL;
+UPDATE vehicles SET updated_at = COALESCE(created_at, now()) WHERE updated_at IS NULL;
+UPDATE activities SET created_at = COALESCE(activity_date, now()) WHERE created_at IS NULL;
+
+-- Optimistic locking version for rows created before the column existed.
+UPDATE declarations SET version = 0 WHERE version IS NULL;
+UPDATE payments SET version = 0 WHERE version IS NULL;
+
+-- Deleted row ids for the analytics export ({table}_deletes). Statement-level triggers also catch
+-- cascades and bulk deletes; the export removes tombstones once they are written out.
+CREATE TABLE IF NOT EXISTS analytics_tombstones (
+    table_name varchar(64) NOT NULL,
+    row_id bigint NOT NULL,
+    deleted_at timestamp NOT NULL DEFAULT localtimestamp
+);
+CREATE INDEX IF NOT EXISTS idx_analytics_tombstones_table_deleted ON analytics_tombstones (table_name, deleted_at);
+CREATE OR REPLACE FUNCTION analytics_record_deletes() RETURNS trigger LANGUAGE plpgsql AS '
+BEGIN
+    INSERT INTO analytics_tombstones (table_name, row_id) SELECT TG_TABLE_NAME, id FROM deleted_rows;
+    RETURN NULL;
+END';
+CREATE OR REPLACE TRIGGER analytics_tombstones AFTER DELETE ON declarations
+    REFERENCING OLD TABLE AS deleted_rows FOR EACH STATEMENT EXECUTE FUNCTION analytics_record_deletes();
+CREATE OR REPLACE TRIGGER analytics_tombstones AFTER DELETE ON payments
+    REFERENCING OLD TABLE AS deleted_rows FOR EACH STATEMENT EXECUTE FUNCTION analytics_record_deletes();
+CREATE OR REPLACE TRIGGER analytics_tombstones AFTER DELETE ON vehicles
+    REFERENCING OLD TABLE AS deleted_rows FOR EACH STATEMENT EXECUTE FUNCTION analytics_record_deletes();
+CREATE OR REPLACE TRIGGER analytics_tombstones AFTER DELETE ON activities
+    REFERENCING OLD TABLE AS deleted_rows FOR EACH STATEMENT EXECUTE FUNCTION analytics_record_deletes();
+CREATE OR REPLACE TRIGGER analytics_tombstones AFTER DELETE ON vehicle_rentals
+    REFERENCING OLD TABLE AS deleted_rows FOR EACH STATEMENT EXECUTE FUNCTION analytics_record_deletes();
@@ -0,0 +1,117 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.AnalyticsExportService;
+import com.example.curs4.service.PaymentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"app.analytics-export.directory=target/analytics-export-tests",
+		"app.analytics-export.safety-lag-seconds=0"
+})
+class AnalyticsExportServiceTests {
+
+	private static final Path DIRECTORY = Path.of("target/analytics-export-tests");
+	private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+	@Autowired
+	private AnalyticsExportService analyticsExportService;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User client;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		FileSystemUtils.deleteRecursively(DIRECTORY);
+		client = TestFixtures.createUser(userRepository, "analytics", Role.CLIENT);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		namedParameterJdbcTemplate.update("DELETE FROM payments WHERE client_id = :clientId",
+				new MapSqlParameterSource("clientId", client.getId()));
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+		FileSystemUtils.deleteRecursively(DIRECTORY);
+	}
+
+	@Test
+	void exportsChangedRowsAndDeletesAsParquet() throws IOException {
+		PaymentDTO kept = create();
+		PaymentDTO deleted = create();
+		paymentService.deletePayment(deleted.getId());
+
+		Map<String, Long> exported = analyticsExportService.export();
+
+		assertThat(exported.get("payments")).isGreaterThanOrEqualTo(1);
+		assertThat(exported.get("payments_deletes")).isGreaterThanOrEqualTo(1);
+		assertThat(parquetFiles("payments")).isNotEmpty().allSatisfy(this::assertParquet);
+		assertThat(parquetFiles("payments_deletes")).isNotEmpty().allSatisfy(this::assertParquet);
+		// Выгруженные надгробия удалены из таблицы
+		assertThat(namedParameterJdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM analytics_tombstones WHERE table_name = 'payments' AND row_id IN (:ids)",
+				new MapSqlParameterSource("ids", List.of(kept.getId(), deleted.getId())), Long.class)).isZero();
+
+		// Повторный запуск без изменений новых файлов не создаёт
+		List<Path> before = parquetFiles("payments_deletes");
+		analyticsExportService.export();
+		assertThat(parquetFiles("payments_deletes")).hasSameSizeAs(before);
+	}
+
+	private PaymentDTO create() {
+		return paymentService.createPayment(PaymentDTO.builder()
+				.clientId(client.getId())
+				.amount(new BigDecimal("12.50"))
+				.build());
+	}
+
+	private List<Path> parquetFiles(String dataset) throws IOException {
+		Path root = DIRECTORY.resolve(dataset);
+		if (!Files.exists(root)) {
+			return List.of();
+		}
+		try (Stream<Path> files = Files.walk(root)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".parquet")).toList();
+		}
+	}
+
+	// Файл Parquet начинается и заканчивается сигнатурой PAR1
+	private void assertParquet(Path file) {
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			assertThat(Arrays.copyOfRange(bytes, 0, 4)).isEqualTo(MAGIC);
+			assertThat(Arrays.copyOfRange(bytes, bytes.length - 4, bytes.length)).isEqualTo(MAGIC);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.example.curs4;
+
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.AvailabilityService;
+import com.example.curs4.service.AvailabilityService.Field;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class AvailabilityServiceTests {
+
+	private static final String IP = "127.0.0.1";
+
+	@Autowired
+	private AvailabilityService availabilityService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private final List<Long> userIds = new ArrayList<>();
+	private String username;
+
+	@BeforeEach
+	void setUp() {
+		User user = TestFixtures.createUser(userRepository, "availability", Role.CLIENT);
+		username = user.getUsername();
+		userIds.add(user.getId());
+		availabilityService.rebuild();
+	}
+
+	@AfterEach
+	void tearDown() {
+		TestFixtures.deleteUsers(namedParameterJdbcTemplate, userIds);
+	}
+
+	@Test
+	void existingValuesAreReportedAsTaken() {
+		assertThat(availabilityService.exists(Field.USERNAME, username, IP)).isTrue();
+		assertThat(availabilityService.exists(Field.EMAIL, username + "@example.com", IP)).isTrue();
+		assertThat(availabilityService.exists(Field.USERNAME, username + "-free", IP)).isFalse();
+	}
+
+	@Test
+	void valuesAddedAfterRebuildAreCheckedAgainstDatabase() {
+		String later = username + "-later";
+		availabilityService.added(Field.USERNAME, later);
+		userIds.add(TestFixtures.saveUser(userRepository, later, Role.CLIENT).getId());
+
+		assertThat(availabilityService.exists(Field.USERNAME, later, IP)).isTrue();
+	}
+
+	@Test
+	void valuesWrittenOnAnotherNodeAreReportedAsTakenAfterRefresh() {
+		// Другой узел пишет в БД, не трогая фильтры этого узла
+		String other = username + "-other-node";
+		userIds.add(TestFixtures.saveUser(userRepository, other, Role.CLIENT).getId());
+
+		availabilityService.refresh();
+
+		assertThat(availabilityService.exists(Field.EMAIL, other + "@example.com", IP)).isTrue();
+		assertThat(availabilityService.exists(Field.USERNAME, other, IP)).isTrue();
+	}
+}
@@ -0,0 +1,126 @@
+package com.example.curs4;
+
+import com.example.curs4.entity.Activity;
+import com.example.curs4.entity.Payment;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.ActivityRepository;
+import com.example.curs4.repository.PaymentRepository;
+import com.example.curs4.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Замер вместо бенчмарка на 100 000 строк: та же вставка в профиле batch, число операторов — по статистике Hibernate
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("batch")
+class BatchProfileInsertTests {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchProfileInsertTests.class);
+
+	private static final int ROWS = 5_000;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private ActivityRepository activityRepository;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private TransactionTemplate transactionTemplate;
+	private Statistics statistics;
+	private User client;
+
+	@BeforeEach
+	void setUp() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		client = TestFixtures.createUser(userRepository, "batch-insert", Role.CLIENT);
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@AfterEach
+	void tearDown() {
+		MapSqlParameterSource params = new MapSqlParameterSource("userId", client.getId());
+		namedParameterJdbcTemplate.update("DELETE FROM activities WHERE user_id = :userId", params);
+		namedParameterJdbcTemplate.update("DELETE FROM payments WHERE client_id = :userId", params);
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void activitiesAreInsertedInBatches() {
+		List<Activity> activities = IntStream.range(0, ROWS)
+				.mapToObj(i -> Activity.builder().user(client).description("batch " + i).build())
+				.toList();
+
+		long statements = measure("activities", () -> activityRepository.saveAll(activities));
+
+		assertThat(namedParameterJdbcTemplate.queryForObject("SELECT COUNT(*) FROM activities WHERE user_id = :userId",
+				new MapSqlParameterSource("userId", client.getId()), Long.class)).isEqualTo(ROWS);
+		// Пачки по 50 строк и один nextval на 50 id вместо оператора на строку
+		assertThat(statements).isLessThan(ROWS / 10);
+	}
+
+	@Test
+	void paymentsAreInsertedInBatches() {
+		String prefix = "PMT-BATCH-" + System.nanoTime() + "-";
+		List<Payment> payments = IntStream.range(0, ROWS)
+				.mapToObj(i -> Payment.builder()
+						.paymentNumber(prefix + i)
+						.client(client)
+						.amount(new BigDecimal("10.00"))
+						.dueDate(LocalDate.now().plusDays(14))
+						.build())
+				.toList();
+
+		long statements = measure("payments", () -> paymentRepository.saveAll(payments));
+
+		assertThat(namedParameterJdbcTemplate.queryForObject("SELECT COUNT(*) FROM payments WHERE client_id = :userId",
+				new MapSqlParameterSource("userId", client.getId()), Long.class)).isEqualTo(ROWS);
+		assertThat(statements).isLessThan(ROWS / 10);
+	}
+
+	// Вставка в одной транзакции; возвращает число подготовленных операторов
+	private long measure(String table, Runnable insert) {
+		statistics.clear();
+		long startedAt = System.nanoTime();
+		transactionTemplate.executeWithoutResult(status -> insert.run());
+		long elapsed = System.nanoTime() - startedAt;
+
+		long statements = statistics.getPrepareStatementCount();
+		log.info("Профиль batch, {}: {} строк за {} мс ({} строк/с), операторов: {}", table, ROWS,
+				TimeUnit.NANOSECONDS.toMillis(elapsed), ROWS * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1),
+				statements);
+		return statements;
+	}
+}
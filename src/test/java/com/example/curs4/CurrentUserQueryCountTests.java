@@ -0,0 +1,91 @@
+package com.example.curs4;
+
+import com.example.curs4.entity.Payment;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.PaymentRepository;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.OwnershipService;
+import com.example.curs4.service.SecurityService;
+import com.example.curs4.service.UserDetailsServiceImpl;
+import jakarta.persistence.EntityManager;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional
+class CurrentUserQueryCountTests {
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private OwnershipService ownershipService;
+
+	@Autowired
+	private SecurityService securityService;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Statistics statistics;
+	private User client;
+	private Payment payment;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "query-count", Role.CLIENT);
+		payment = paymentRepository.save(Payment.builder()
+				.paymentNumber("PMT-QC-" + System.nanoTime())
+				.client(client)
+				.amount(BigDecimal.TEN)
+				.build());
+		entityManager.flush();
+		entityManager.clear();
+
+		UserDetailsServiceImpl.UserDetailsImpl principal = new UserDetailsServiceImpl.UserDetailsImpl(client);
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+		statistics = TestFixtures.clearedStatistics(entityManager.getEntityManagerFactory());
+	}
+
+	@AfterEach
+	void tearDown() {
+		SecurityContextHolder.clearContext();
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	void ownershipChecksDoNotLookUpCurrentUser() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+		assertThat(ownershipService.isSinglePaymentOwner(payment.getId(), authentication)).isTrue();
+		assertThat(ownershipService.isSinglePaymentOwner(payment.getId(), authentication)).isTrue();
+		assertThat(securityService.isCurrentUser(client.getId(), authentication)).isTrue();
+		assertThat(securityService.getCurrentUserId()).isEqualTo(client.getId());
+		assertThat(securityService.getCurrentUserId()).isEqualTo(client.getId());
+
+		// Один запрос "select client_id", текущий пользователь берется из principal
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+}
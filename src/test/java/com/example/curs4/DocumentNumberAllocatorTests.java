@@ -0,0 +1,78 @@
+package com.example.curs4;
+
+import com.example.curs4.service.DocumentNumberAllocator;
+import com.example.curs4.service.DocumentNumberAllocator.DocumentType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Маленький пул и маленькие блоки: потоки держат соединение и часто уходят за новым блоком
+@SpringBootTest(properties = {
+		"app.document-numbers.block-size=5",
+		"spring.datasource.hikari.maximum-pool-size=10",
+		"spring.datasource.hikari.connection-timeout=5000"
+})
+class DocumentNumberAllocatorTests {
+
+	private static final int THREADS = 8;
+	private static final int NUMBERS_PER_THREAD = 200;
+
+	@Autowired
+	private DocumentNumberAllocator allocator;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void concurrentCallersInsideTransactionsGetUniqueNumbers() throws Exception {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					List<String> numbers = new ArrayList<>();
+					for (int n = 0; n < NUMBERS_PER_THREAD; n++) {
+						// Как при создании декларации: номер берётся внутри транзакции, уже занявшей соединение
+						numbers.add(transactionTemplate.execute(status -> {
+							jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+							return allocator.nextNumber(DocumentType.DECLARATION);
+						}));
+					}
+					return numbers;
+				}));
+			}
+			start.countDown();
+
+			Set<String> issued = new HashSet<>();
+			for (Future<List<String>> future : futures) {
+				List<String> numbers = future.get(60, TimeUnit.SECONDS);
+				assertThat(numbers).allMatch(number -> number.matches("TD-\\d{4}-\\d{5,}"));
+				issued.addAll(numbers);
+			}
+			assertThat(issued).hasSize(THREADS * NUMBERS_PER_THREAD);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
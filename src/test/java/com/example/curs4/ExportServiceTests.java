@@ -0,0 +1,82 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.ExportService;
+import com.example.curs4.service.PaymentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ExportServiceTests {
+
+	@Autowired
+	private ExportService exportService;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User client;
+	private PaymentDTO payment;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "export", Role.CLIENT);
+		payment = paymentService.createPayment(PaymentDTO.builder()
+				.clientId(client.getId())
+				.amount(new BigDecimal("15.00"))
+				.build());
+	}
+
+	@AfterEach
+	void tearDown() {
+		namedParameterJdbcTemplate.update("DELETE FROM payments WHERE client_id = :clientId",
+				new MapSqlParameterSource("clientId", client.getId()));
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void exportsWithoutFilters() throws Exception {
+		ByteArrayOutputStream payments = new ByteArrayOutputStream();
+		long paymentCount = exportService.exportPayments(null, null, null, ExportService.Format.CSV, payments);
+
+		assertThat(paymentCount).isPositive();
+		assertThat(payments.toString(StandardCharsets.UTF_8)).contains(payment.getPaymentNumber());
+
+		ByteArrayOutputStream declarations = new ByteArrayOutputStream();
+		long declarationCount = exportService.exportDeclarations(null, null, null, ExportService.Format.NDJSON, declarations);
+
+		assertThat(declarationCount).isNotNegative();
+	}
+
+	@Test
+	void exportsWithOnlyOneBound() throws Exception {
+		ByteArrayOutputStream fromOnly = new ByteArrayOutputStream();
+		exportService.exportPayments(LocalDateTime.now().minusDays(1), null, null, ExportService.Format.NDJSON, fromOnly);
+		assertThat(fromOnly.toString(StandardCharsets.UTF_8)).contains(payment.getPaymentNumber());
+
+		ByteArrayOutputStream toOnly = new ByteArrayOutputStream();
+		exportService.exportPayments(null, LocalDateTime.now().minusDays(1), null, ExportService.Format.NDJSON, toOnly);
+		assertThat(toOnly.toString(StandardCharsets.UTF_8)).doesNotContain(payment.getPaymentNumber());
+	}
+}
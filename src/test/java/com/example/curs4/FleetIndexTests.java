@@ -0,0 +1,74 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.VehicleDTO;
+import com.example.curs4.service.FleetIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Изменения вызываются вне транзакции и применяются сразу — так проверяется порядок их применения
+@SpringBootTest(properties = "app.fleet-index.refresh-enabled=false")
+class FleetIndexTests {
+
+	private static final long VEHICLE_ID = -1L;
+	private static final String TYPE = "fleet-index-test";
+
+	@Autowired
+	private FleetIndex fleetIndex;
+
+	private LocalDateTime now;
+
+	@BeforeEach
+	void setUp() {
+		fleetIndex.reload();
+		now = LocalDateTime.now();
+	}
+
+	@Test
+	void lateSnapshotDoesNotOverwriteNewerOne() {
+		fleetIndex.vehicleChanged(vehicle(null, now));
+		// Транзакция, зафиксированная раньше, применила своё изменение позже
+		fleetIndex.vehicleChanged(vehicle(7L, now.minusSeconds(1)));
+
+		assertThat(available()).extracting(VehicleDTO::getId).containsExactly(VEHICLE_ID);
+	}
+
+	@Test
+	void lateSnapshotDoesNotRestoreDeletedVehicle() {
+		fleetIndex.vehicleChanged(vehicle(null, now.minusSeconds(2)));
+		fleetIndex.vehicleDeleted(VEHICLE_ID);
+		fleetIndex.vehicleChanged(vehicle(null, now.minusSeconds(1)));
+
+		assertThat(available()).isEmpty();
+	}
+
+	@Test
+	void rentalEndBeforeNewerRentIsIgnored() {
+		fleetIndex.vehicleChanged(vehicle(7L, now));
+		fleetIndex.rentalsEnded(List.of(VEHICLE_ID), now.minusSeconds(1));
+
+		assertThat(available()).isEmpty();
+		assertThat(fleetIndex.rentedBy(7L)).extracting(VehicleDTO::getId).containsExactly(VEHICLE_ID);
+	}
+
+	private List<VehicleDTO> available() {
+		return fleetIndex.available(TYPE, null);
+	}
+
+	private static VehicleDTO vehicle(Long driverId, LocalDateTime updatedAt) {
+		return VehicleDTO.builder()
+				.id(VEHICLE_ID)
+				.licensePlate("FI-0001")
+				.vehicleType(TYPE)
+				.driverId(driverId)
+				.isAvailable(driverId == null)
+				.updatedAt(updatedAt)
+				.build();
+	}
+}
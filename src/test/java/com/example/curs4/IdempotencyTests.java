@@ -0,0 +1,132 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.PaymentRepository;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.IdempotencyService;
+import com.example.curs4.service.PaymentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class IdempotencyTests {
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private IdempotencyService idempotencyService;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User client;
+	private String key;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "idempotency", Role.CLIENT);
+		key = "key-" + client.getId();
+	}
+
+	@AfterEach
+	void tearDown() {
+		// Удаление через сервис, чтобы сводки и агрегаты выручки остались согласованными
+		paymentRepository.findByClientId(client.getId())
+				.forEach(payment -> paymentService.deletePayment(payment.getId()));
+		namedParameterJdbcTemplate.update("DELETE FROM idempotency_keys WHERE id LIKE :key",
+				new MapSqlParameterSource("key", "%:" + key));
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void repeatedRequestReturnsFirstPayment() {
+		AtomicInteger executions = new AtomicInteger();
+
+		IdempotencyService.Outcome<PaymentDTO> first = create(new BigDecimal("10.00"), executions);
+		IdempotencyService.Outcome<PaymentDTO> second = create(new BigDecimal("10.0"), executions);
+
+		assertThat(first.replayed()).isFalse();
+		assertThat(second.replayed()).isTrue();
+		assertThat(second.body().getId()).isEqualTo(first.body().getId());
+		assertThat(executions.get()).isEqualTo(1);
+		assertThat(paymentRepository.findByClientId(client.getId())).hasSize(1);
+	}
+
+	@Test
+	void sameKeyWithDifferentRequestIsRejected() {
+		AtomicInteger executions = new AtomicInteger();
+		create(new BigDecimal("10.00"), executions);
+
+		assertThatThrownBy(() -> create(new BigDecimal("99.00"), executions))
+				.isInstanceOf(CustomException.class);
+		assertThat(executions.get()).isEqualTo(1);
+	}
+
+	@Test
+	void concurrentDuplicatesCoalesceOntoOneExecution() throws Exception {
+		AtomicInteger executions = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<IdempotencyService.Outcome<PaymentDTO>>> results = new ArrayList<>();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 50; i++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					return create(new BigDecimal("10.00"), executions);
+				}));
+			}
+			start.countDown();
+		}
+
+		Long paymentId = results.get(0).get().body().getId();
+		for (Future<IdempotencyService.Outcome<PaymentDTO>> result : results) {
+			assertThat(result.get().body().getId()).isEqualTo(paymentId);
+		}
+		assertThat(results.stream().filter(result -> !result.resultNow().replayed())).hasSize(1);
+		assertThat(executions.get()).isEqualTo(1);
+		assertThat(paymentRepository.findByClientId(client.getId())).hasSize(1);
+	}
+
+	private IdempotencyService.Outcome<PaymentDTO> create(BigDecimal amount, AtomicInteger executions) {
+		PaymentDTO dto = PaymentDTO.builder()
+				.clientId(client.getId())
+				.amount(amount)
+				.currency("EUR")
+				.paymentType("DUTY")
+				.build();
+		String fingerprint = IdempotencyService.fingerprint(dto.getClientId(), dto.getDeclarationId(),
+				dto.getAmount().stripTrailingZeros().toPlainString(), dto.getCurrency(), dto.getPaymentType(),
+				dto.getDueDate());
+		return idempotencyService.execute("payment-create", key, fingerprint, () -> {
+			executions.incrementAndGet();
+			return paymentService.createPayment(dto);
+		}, PaymentDTO::getId, paymentService::getPaymentById);
+	}
+}
@@ -0,0 +1,196 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.BulkStatusUpdateRequest;
+import com.example.curs4.dto.DeclarationDTO;
+import com.example.curs4.entity.Declaration;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.DeclarationRepository;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.DeclarationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class OptimisticLockingTests {
+
+	private static final Logger log = LoggerFactory.getLogger(OptimisticLockingTests.class);
+
+	private static final int THREADS = 8;
+	private static final int UPDATES_PER_THREAD = 25;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private DeclarationRepository declarationRepository;
+
+	@Autowired
+	private DeclarationService declarationService;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User client;
+	private Declaration declaration;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "optimistic", Role.CLIENT);
+		declaration = declarationRepository.save(Declaration.builder()
+				.declarationNumber("OPT-" + client.getId())
+				.client(client)
+				.declarationType("IMPORT")
+				.productDescription("Test")
+				.productValue(new BigDecimal("100.00"))
+				.build());
+	}
+
+	@AfterEach
+	void tearDown() {
+		namedParameterJdbcTemplate.update("DELETE FROM declarations WHERE client_id = :clientId",
+				new MapSqlParameterSource("clientId", client.getId()));
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void concurrentChangeIsDetectedAtCommit() {
+		TransactionTemplate outer = new TransactionTemplate(transactionManager);
+		TransactionTemplate inner = new TransactionTemplate(transactionManager);
+		inner.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		assertThatThrownBy(() -> outer.executeWithoutResult(status -> {
+			Declaration stale = declarationRepository.findById(declaration.getId()).orElseThrow();
+			// Пока первая транзакция держит прочитанную копию, другая меняет декларацию и фиксируется
+			inner.executeWithoutResult(s -> declarationService.updateDeclarationStatus(declaration.getId(), "UNDER_REVIEW"));
+			stale.setCustomsOffice("Минск");
+		})).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+
+		Declaration current = declarationRepository.findById(declaration.getId()).orElseThrow();
+		assertThat(current.getStatus()).isEqualTo("UNDER_REVIEW");
+		assertThat(current.getCustomsOffice()).isNull();
+	}
+
+	@Test
+	void updateWithStaleVersionIsRejected() {
+		DeclarationDTO copy = declarationService.getDeclarationById(declaration.getId());
+		copy.setCustomsOffice("Брест");
+		declarationService.updateDeclaration(declaration.getId(), copy);
+
+		copy.setCustomsOffice("Гродно");
+		assertThatThrownBy(() -> declarationService.updateDeclaration(declaration.getId(), copy))
+				.isInstanceOf(ObjectOptimisticLockingFailureException.class);
+		assertThat(declarationRepository.findById(declaration.getId()).orElseThrow().getCustomsOffice())
+				.isEqualTo("Брест");
+	}
+
+	@Test
+	void bulkStatusUpdateBumpsVersion() {
+		Long before = declarationRepository.findById(declaration.getId()).orElseThrow().getVersion();
+
+		declarationService.updateDeclarationStatuses(BulkStatusUpdateRequest.builder()
+				.targetStatus("UNDER_REVIEW")
+				.ids(List.of(declaration.getId()))
+				.build());
+
+		assertThat(declarationRepository.findById(declaration.getId()).orElseThrow().getVersion())
+				.isEqualTo(before + 1);
+	}
+
+	@Test
+	void contendedStatusUpdatesOptimisticVersusRowLock() throws Exception {
+		Long initialVersion = declarationRepository.findById(declaration.getId()).orElseThrow().getVersion();
+		AtomicInteger conflicts = new AtomicInteger();
+
+		// Оптимистично: проигравший гонку получает конфликт (в API — 409) и ничего не записывает
+		long optimisticNanos = contend(update -> {
+			try {
+				declarationService.updateDeclarationStatus(declaration.getId(), update);
+				return true;
+			} catch (ObjectOptimisticLockingFailureException e) {
+				conflicts.incrementAndGet();
+				return false;
+			}
+		});
+		int applied = THREADS * UPDATES_PER_THREAD - conflicts.get();
+		Long afterOptimistic = declarationRepository.findById(declaration.getId()).orElseThrow().getVersion();
+
+		// Блокировка строки: изменения идут строго по очереди и не конфликтуют
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		long rowLockNanos = contend(update -> transactionTemplate.execute(status -> {
+			namedParameterJdbcTemplate.queryForObject("SELECT id FROM declarations WHERE id = :id FOR UPDATE",
+					new MapSqlParameterSource("id", declaration.getId()), Long.class);
+			declarationService.updateDeclarationStatus(declaration.getId(), update);
+			return true;
+		}));
+
+		int total = THREADS * UPDATES_PER_THREAD;
+		log.info("Конкурентная смена статуса, {} потоков x {}: оптимистично {} мс ({} применено, {} конфликтов, {} оп/с), " +
+						"блокировкой строки {} мс ({} оп/с)",
+				THREADS, UPDATES_PER_THREAD,
+				TimeUnit.NANOSECONDS.toMillis(optimisticNanos), applied, conflicts.get(), perSecond(total, optimisticNanos),
+				TimeUnit.NANOSECONDS.toMillis(rowLockNanos), perSecond(total, rowLockNanos));
+
+		// Каждое применённое изменение увеличило версию не более чем на единицу, потерянных записей нет
+		assertThat(afterOptimistic - initialVersion).isLessThanOrEqualTo(applied);
+	}
+
+	// Потоки чередуют два статуса; операция возвращает true, если изменение применено
+	private long contend(Function<String, Boolean> operation) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				int thread = i;
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int n = 0; n < UPDATES_PER_THREAD; n++) {
+						operation.apply((thread + n) % 2 == 0 ? "UNDER_REVIEW" : "PENDING");
+					}
+					return null;
+				}));
+			}
+			long startedAt = System.nanoTime();
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			return System.nanoTime() - startedAt;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static long perSecond(int operations, long nanos) {
+		return nanos > 0 ? operations * TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+	}
+}
@@ -0,0 +1,166 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.PaymentRollupService;
+import com.example.curs4.service.PaymentRollupService.Granularity;
+import com.example.curs4.service.PaymentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class PaymentRollupServiceTests {
+
+	private static final Logger log = LoggerFactory.getLogger(PaymentRollupServiceTests.class);
+
+	private static final int THREADS = 8;
+	private static final int PAYMENTS_PER_THREAD = 25;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private PaymentRollupService paymentRollupService;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User client;
+	// Отдельный тип платежа: строки агрегата теста не пересекаются с остальными данными
+	private String paymentType;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "rollup", Role.CLIENT);
+		paymentType = "ROLLUP-" + client.getId();
+	}
+
+	@AfterEach
+	void tearDown() {
+		MapSqlParameterSource params = new MapSqlParameterSource()
+				.addValue("clientId", client.getId())
+				.addValue("paymentType", paymentType);
+		namedParameterJdbcTemplate.update("DELETE FROM payments WHERE client_id = :clientId", params);
+		namedParameterJdbcTemplate.update("DELETE FROM payment_revenue_rollups WHERE payment_type = :paymentType", params);
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void rollupMatchesPaymentsAfterCreateStatusChangeAndDelete() {
+		PaymentDTO paid = create("100.00");
+		PaymentDTO overdue = create("40.50");
+		PaymentDTO deleted = create("7.25");
+		assertThat(rollupRows()).isEqualTo(paymentRows()).hasSize(1);
+
+		paymentService.processPayment(paid.getId());
+		paymentService.updatePaymentStatus(overdue.getId(), PaymentStatus.OVERDUE);
+		assertThat(rollupRows()).isEqualTo(paymentRows()).hasSize(3);
+
+		paymentService.deletePayment(deleted.getId());
+		assertThat(rollupRows()).isEqualTo(paymentRows()).hasSize(2);
+	}
+
+	@Test
+	void incrementsRacingMonthRebuildAreNotLost() throws Exception {
+		AtomicBoolean writing = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		try {
+			// Пересборка текущего месяца удаляет и заново вставляет его строки, пока идут инкременты
+			Future<Integer> rebuilds = executor.submit(() -> {
+				start.await();
+				int count = 0;
+				while (writing.get()) {
+					paymentRollupService.rebuild(YearMonth.now(), YearMonth.now());
+					count++;
+				}
+				return count;
+			});
+
+			List<Future<?>> writers = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				writers.add(executor.submit(() -> {
+					start.await();
+					for (int n = 0; n < PAYMENTS_PER_THREAD; n++) {
+						PaymentDTO created = create("10.00");
+						if (n % 2 == 0) {
+							paymentService.processPayment(created.getId());
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> writer : writers) {
+				writer.get(120, TimeUnit.SECONDS);
+			}
+			writing.set(false);
+			log.info("Пересборок месяца во время записи: {}", rebuilds.get(120, TimeUnit.SECONDS));
+		} finally {
+			writing.set(false);
+			executor.shutdownNow();
+		}
+
+		assertThat(rollupRows()).isEqualTo(paymentRows());
+		assertThat(paymentRows()).hasSize(2);
+	}
+
+	private PaymentDTO create(String amount) {
+		return paymentService.createPayment(PaymentDTO.builder()
+				.clientId(client.getId())
+				.amount(new BigDecimal(amount))
+				.currency("EUR")
+				.paymentType(paymentType)
+				.build());
+	}
+
+	// Строки агрегата за вчера и сегодня (тест может пересечь полночь): день|статус|количество|сумма
+	private List<String> rollupRows() {
+		return paymentRollupService.getRollups(Granularity.DAY, LocalDate.now().minusDays(1), LocalDate.now(),
+						paymentType, null, null).stream()
+				.map(rollup -> row(rollup.getPeriodStart(), rollup.getStatus().name(),
+						rollup.getPaymentCount(), rollup.getTotalAmount()))
+				.toList();
+	}
+
+	// Те же агрегаты, посчитанные напрямую по платежам
+	private List<String> paymentRows() {
+		return namedParameterJdbcTemplate.query(
+				"SELECT CAST(created_at AS date) AS day, status, COUNT(*) AS payment_count, SUM(amount) AS total_amount " +
+						"FROM payments WHERE payment_type = :paymentType GROUP BY 1, 2 ORDER BY 1, 2",
+				new MapSqlParameterSource("paymentType", paymentType),
+				(rs, rowNum) -> row(rs.getDate("day").toLocalDate(), rs.getString("status"),
+						rs.getLong("payment_count"), rs.getBigDecimal("total_amount")));
+	}
+
+	private static String row(LocalDate day, String status, long count, BigDecimal amount) {
+		return day + "|" + status + "|" + count + "|" + amount.stripTrailingZeros().toPlainString();
+	}
+}
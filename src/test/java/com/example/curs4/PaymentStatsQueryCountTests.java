@@ -0,0 +1,107 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.dto.PaymentStatsDTO;
+import com.example.curs4.entity.Payment;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.PaymentRepository;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.ClientSummaryService;
+import com.example.curs4.service.PaymentService;
+import jakarta.persistence.EntityManager;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional
+class PaymentStatsQueryCountTests {
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private ClientSummaryService clientSummaryService;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Statistics statistics;
+	private User client;
+
+	@BeforeEach
+	void setUp() {
+		client = TestFixtures.createUser(userRepository, "payment-stats", Role.CLIENT);
+		savePayment(new BigDecimal("100.00"), PaymentStatus.PENDING, LocalDate.now().plusDays(10));
+		savePayment(new BigDecimal("50.00"), PaymentStatus.PENDING, LocalDate.now().minusDays(1));
+		savePayment(new BigDecimal("25.00"), PaymentStatus.PAID, LocalDate.now().minusDays(5));
+		entityManager.flush();
+		// Платежи сохранены в обход сервиса — сводку собираем так же, как это делает плановая пересборка
+		clientSummaryService.rebuildClients(List.of(client.getId()));
+		entityManager.clear();
+
+		statistics = TestFixtures.clearedStatistics(entityManager.getEntityManagerFactory());
+	}
+
+	@Test
+	void clientStatsReadOnlySummaryRow() {
+		PaymentStatsDTO stats = paymentService.getClientStats(client.getId());
+
+		assertThat(stats.getTotalPayments()).isEqualTo(3);
+		assertThat(stats.getPendingPayments()).isEqualTo(2);
+		assertThat(stats.getPaidPayments()).isEqualTo(1);
+		assertThat(stats.getOverduePayments()).isEqualTo(1);
+		assertThat(stats.getTotalAmount()).isEqualByComparingTo("175.00");
+		assertThat(stats.getPaidAmount()).isEqualByComparingTo("25.00");
+		assertThat(stats.getPendingAmount()).isEqualByComparingTo("150.00");
+
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	void summaryFollowsPaymentChangesMadeThroughService() {
+		PaymentDTO created = paymentService.createPayment(PaymentDTO.builder()
+				.clientId(client.getId())
+				.amount(new BigDecimal("40.00"))
+				.dueDate(LocalDate.now().plusDays(3))
+				.build());
+		paymentService.processPayment(created.getId());
+		entityManager.flush();
+		entityManager.clear();
+
+		PaymentStatsDTO stats = paymentService.getClientStats(client.getId());
+
+		assertThat(stats.getTotalPayments()).isEqualTo(4);
+		assertThat(stats.getPaidPayments()).isEqualTo(2);
+		assertThat(stats.getPaidAmount()).isEqualByComparingTo("65.00");
+		assertThat(stats.getTotalAmount()).isEqualByComparingTo("215.00");
+		assertThat(stats.getPendingAmount()).isEqualByComparingTo("150.00");
+	}
+
+	private void savePayment(BigDecimal amount, PaymentStatus status, LocalDate dueDate) {
+		paymentRepository.save(Payment.builder()
+				.paymentNumber("PMT-STATS-" + System.nanoTime())
+				.client(client)
+				.amount(amount)
+				.status(status)
+				.dueDate(dueDate)
+				.build());
+	}
+}
@@ -0,0 +1,106 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.PaymentDTO;
+import com.example.curs4.entity.PaymentStatus;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.PaymentService;
+import com.example.curs4.service.ResourceVersions;
+import com.example.curs4.service.ResourceVersions.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ResourceVersionsTests {
+
+	@Autowired
+	private ResourceVersions resourceVersions;
+
+	@Autowired
+	private PaymentService paymentService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private User first;
+	private User second;
+
+	@BeforeEach
+	void setUp() {
+		first = TestFixtures.createUser(userRepository, "etag-first", Role.CLIENT);
+		second = TestFixtures.createUser(userRepository, "etag-second", Role.CLIENT);
+	}
+
+	@AfterEach
+	void tearDown() {
+		namedParameterJdbcTemplate.update("DELETE FROM payments WHERE client_id = :clientId",
+				new MapSqlParameterSource("clientId", first.getId()));
+		TestFixtures.deleteUsers(namedParameterJdbcTemplate, List.of(first.getId(), second.getId()));
+	}
+
+	@Test
+	void clientTagChangesOnlyForAffectedClient() {
+		String firstTag = resourceVersions.clientTag(Resource.DECLARATIONS, first.getId(), null, 20);
+		String secondTag = resourceVersions.clientTag(Resource.DECLARATIONS, second.getId(), null, 20);
+
+		resourceVersions.changed(Resource.DECLARATIONS, first.getId());
+
+		assertThat(resourceVersions.clientTag(Resource.DECLARATIONS, first.getId(), null, 20)).isNotEqualTo(firstTag);
+		assertThat(resourceVersions.clientTag(Resource.DECLARATIONS, second.getId(), null, 20)).isEqualTo(secondTag);
+		assertThat(resourceVersions.clientTag(Resource.PAYMENTS, first.getId(), null, 20))
+				.isEqualTo(resourceVersions.clientTag(Resource.PAYMENTS, first.getId(), null, 20));
+		assertThat(resourceVersions.clientTag(Resource.DECLARATIONS, second.getId(), "cursor", 20)).isNotEqualTo(secondTag);
+	}
+
+	@Test
+	void entityTagFollowsWritesAndDisappearsWithEntity() {
+		PaymentDTO payment = paymentService.createPayment(PaymentDTO.builder()
+				.clientId(first.getId())
+				.amount(new BigDecimal("10.00"))
+				.build());
+		String created = resourceVersions.entityTag(Resource.PAYMENTS, payment.getId());
+		assertThat(created).isNotNull();
+
+		paymentService.updatePaymentStatus(payment.getId(), PaymentStatus.PENDING);
+		assertThat(resourceVersions.entityTag(Resource.PAYMENTS, payment.getId())).isNotEqualTo(created);
+
+		paymentService.deletePayment(payment.getId());
+		assertThat(resourceVersions.entityTag(Resource.PAYMENTS, payment.getId())).isNull();
+	}
+
+	@Test
+	void matchingIfNoneMatchAnswersNotModified() {
+		String etag = resourceVersions.clientTag(Resource.PAYMENTS, first.getId(), null, null);
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/payments/client/" + first.getId());
+		request.addHeader("If-None-Match", etag);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		assertThat(resourceVersions.checkNotModified(new ServletWebRequest(request, response), etag)).isTrue();
+		assertThat(response.getStatus()).isEqualTo(304);
+		assertThat(response.getHeader("ETag")).isEqualTo(etag);
+
+		resourceVersions.changed(Resource.PAYMENTS, first.getId());
+		String changed = resourceVersions.clientTag(Resource.PAYMENTS, first.getId(), null, null);
+		MockHttpServletResponse fresh = new MockHttpServletResponse();
+		assertThat(resourceVersions.checkNotModified(new ServletWebRequest(request, fresh), changed)).isFalse();
+		assertThat(fresh.getHeader("ETag")).isEqualTo(changed);
+		assertThat(fresh.getHeader("Cache-Control")).isEqualTo("private, no-cache");
+	}
+}
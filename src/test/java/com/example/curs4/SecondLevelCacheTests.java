@@ -0,0 +1,107 @@
+package com.example.curs4;
+
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.service.EntityCacheService;
+import com.example.curs4.service.UserDetailsServiceImpl;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class SecondLevelCacheTests {
+
+	private static final Logger log = LoggerFactory.getLogger(SecondLevelCacheTests.class);
+
+	private static final int REQUESTS = 20;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private UserDetailsServiceImpl userDetailsService;
+
+	@Autowired
+	private EntityCacheService entityCacheService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private TransactionTemplate transactionTemplate;
+	private Statistics statistics;
+	private User client;
+
+	@BeforeEach
+	void setUp() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		client = TestFixtures.createUser(userRepository, "cache-client", Role.CLIENT);
+		entityCacheService.evictAll();
+		statistics = TestFixtures.clearedStatistics(entityManagerFactory);
+	}
+
+	@AfterEach
+	void tearDown() {
+		TestFixtures.deleteUser(namedParameterJdbcTemplate, client);
+	}
+
+	@Test
+	void dashboardSessionReadsOwnerFromCache() {
+		// Запрос панели клиента: JWT-фильтр читает пользователя по логину, сервис — владельца по id
+		for (int i = 0; i < REQUESTS; i++) {
+			transactionTemplate.executeWithoutResult(status -> userDetailsService.loadUserByUsername(client.getUsername()));
+			transactionTemplate.executeWithoutResult(status -> userRepository.findById(client.getId()).orElseThrow());
+		}
+
+		long statements = statistics.getPrepareStatementCount();
+		log.info("Запросов к БД за {} запросов панели: {} (без кэша: {}), попаданий в кэш: {}",
+				REQUESTS, statements, REQUESTS * 2, statistics.getSecondLevelCacheHitCount());
+
+		// В БД ходит только аутентификация, владелец по id всегда из кэша
+		assertThat(statements).isEqualTo(REQUESTS);
+		assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(REQUESTS);
+	}
+
+	@Test
+	void authenticationSeesChangesMadeOnOtherNodes() {
+		transactionTemplate.executeWithoutResult(status -> userRepository.findById(client.getId()).orElseThrow());
+
+		// Смена пароля на другом узле: кэш этого узла о ней не знает
+		namedParameterJdbcTemplate.update("UPDATE users SET password = :password WHERE user_id = :id",
+				new MapSqlParameterSource("password", "changed").addValue("id", client.getId()));
+
+		String password = transactionTemplate.execute(status ->
+				userDetailsService.loadUserByUsername(client.getUsername()).getPassword());
+		assertThat(password).isEqualTo("changed");
+	}
+
+	@Test
+	void userUpdateInvalidatesCachedEntity() {
+		transactionTemplate.executeWithoutResult(status -> userRepository.findById(client.getId()).orElseThrow());
+
+		User user = userRepository.findById(client.getId()).orElseThrow();
+		user.setEmail("cache-" + System.nanoTime() + "@example.com");
+		userRepository.save(user);
+
+		User reloaded = transactionTemplate.execute(status -> userRepository.findById(client.getId()).orElseThrow());
+		assertThat(reloaded.getEmail()).isEqualTo(user.getEmail());
+	}
+}
@@ -0,0 +1,56 @@
+package com.example.curs4;
+
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.Collection;
+import java.util.List;
+
+// Общие данные для тестов, которые фиксируют изменения и убирают их за собой сами
+final class TestFixtures {
+
+	private TestFixtures() {
+	}
+
+	// Уникальный логин: prefix-<nanoTime>
+	static User createUser(UserRepository userRepository, String prefix, Role role) {
+		return saveUser(userRepository, prefix + "-" + System.nanoTime(), role);
+	}
+
+	static User saveUser(UserRepository userRepository, String username, Role role) {
+		return userRepository.save(User.builder()
+				.username(username)
+				.email(username + "@example.com")
+				.password("secret")
+				.role(role)
+				.verified(true)
+				.build());
+	}
+
+	// Сводки клиентов удаляются вместе с пользователями: их строки создаются при записи платежей и деклараций
+	static void deleteUsers(NamedParameterJdbcTemplate namedParameterJdbcTemplate, Collection<Long> userIds) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		MapSqlParameterSource params = new MapSqlParameterSource("userIds", userIds);
+		namedParameterJdbcTemplate.update("DELETE FROM client_summaries WHERE client_id IN (:userIds)", params);
+		namedParameterJdbcTemplate.update("DELETE FROM users WHERE user_id IN (:userIds)", params);
+	}
+
+	static void deleteUser(NamedParameterJdbcTemplate namedParameterJdbcTemplate, User user) {
+		deleteUsers(namedParameterJdbcTemplate, List.of(user.getId()));
+	}
+
+	// Счётчики Hibernate с нуля (тест включает hibernate.generate_statistics)
+	static Statistics clearedStatistics(EntityManagerFactory entityManagerFactory) {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+		return statistics;
+	}
+}
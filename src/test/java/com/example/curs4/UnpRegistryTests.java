@@ -0,0 +1,91 @@
+package com.example.curs4;
+
+import com.example.curs4.service.UnpImportService;
+import com.example.curs4.service.UnpRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class UnpRegistryTests {
+
+	@Autowired
+	private UnpRegistry unpRegistry;
+
+	@Autowired
+	private UnpImportService unpImportService;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private List<String> unps;
+
+	@BeforeEach
+	void setUp() {
+		unpRegistry.reload();
+		// Диапазон 9xxxxxxxx, которого нет в справочнике
+		unps = ThreadLocalRandom.current().ints(900_000_000, 1_000_000_000)
+				.mapToObj(Integer::toString)
+				.filter(unp -> !unpRegistry.contains(unp))
+				.distinct()
+				.limit(3)
+				.toList();
+	}
+
+	@AfterEach
+	void tearDown() {
+		namedParameterJdbcTemplate.update("DELETE FROM unp WHERE unp IN (:unps)", new MapSqlParameterSource("unps", unps));
+	}
+
+	@Test
+	void importedUnpsAreVisibleWithoutReload() throws Exception {
+		String file = "unp;name\n" + unps.get(0) + ";Первый\n" + unps.get(1) + ";Второй\n12345\n" + unps.get(0) + ";Повтор\n";
+
+		Map<String, Long> result = unpImportService.importUnps(new BufferedReader(new StringReader(file)));
+
+		assertThat(result).containsEntry("read", 3L).containsEntry("inserted", 2L).containsEntry("skipped", 2L);
+		assertThat(unpRegistry.contains(unps.get(0))).isTrue();
+		assertThat(unpRegistry.contains(unps.get(1))).isTrue();
+		assertThat(unpRegistry.contains(unps.get(2))).isFalse();
+		assertThat(unpRegistry.isTaken(unps.get(0))).isFalse();
+	}
+
+	@Test
+	void unpsAddedOnAnotherNodeAreFoundInDatabase() {
+		// Другой узел импортирует УНП, не трогая справочник в памяти этого узла
+		namedParameterJdbcTemplate.update("INSERT INTO unp (unp_id, unp) VALUES (nextval('unp_seq'), :unp)",
+				new MapSqlParameterSource("unp", unps.get(0)));
+
+		assertThat(unpRegistry.contains(unps.get(0))).isTrue();
+		assertThat(unpRegistry.contains(unps.get(1))).isFalse();
+
+		// Найденный в БД УНП запомнен в памяти
+		namedParameterJdbcTemplate.update("DELETE FROM unp WHERE unp = :unp", new MapSqlParameterSource("unp", unps.get(0)));
+		assertThat(unpRegistry.contains(unps.get(0))).isTrue();
+	}
+
+	@Test
+	void takenFlagFollowsChangesAndSurvivesReload() throws Exception {
+		unpImportService.importUnps(new BufferedReader(new StringReader(unps.get(0) + "\n")));
+
+		unpRegistry.unpTaken(unps.get(0));
+		assertThat(unpRegistry.isTaken(unps.get(0))).isTrue();
+
+		// Пользователя с этим УНП в БД нет — после перезагрузки УНП снова свободен
+		unpRegistry.reload();
+		assertThat(unpRegistry.contains(unps.get(0))).isTrue();
+		assertThat(unpRegistry.isTaken(unps.get(0))).isFalse();
+	}
+}
@@ -0,0 +1,204 @@
+package com.example.curs4;
+
+import com.example.curs4.dto.VehicleDTO;
+import com.example.curs4.entity.RentalEndReason;
+import com.example.curs4.entity.Role;
+import com.example.curs4.entity.User;
+import com.example.curs4.entity.Vehicle;
+import com.example.curs4.exception.CustomException;
+import com.example.curs4.repository.UserRepository;
+import com.example.curs4.repository.VehicleRentalRepository;
+import com.example.curs4.repository.VehicleRepository;
+import com.example.curs4.service.FleetIndex;
+import com.example.curs4.service.VehicleRentalSweeper;
+import com.example.curs4.service.VehicleService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "app.vehicles.rental-sweeper.enabled=false")
+class VehicleRentalConcurrencyTests {
+
+	private static final Logger log = LoggerFactory.getLogger(VehicleRentalConcurrencyTests.class);
+
+	private static final int DRIVERS = 200;
+	private static final int VEHICLES = 5;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private VehicleRepository vehicleRepository;
+
+	@Autowired
+	private VehicleRentalRepository vehicleRentalRepository;
+
+	@Autowired
+	private VehicleService vehicleService;
+
+	@Autowired
+	private FleetIndex fleetIndex;
+
+	@Autowired
+	private VehicleRentalSweeper vehicleRentalSweeper;
+
+	@Autowired
+	private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+	private final List<Long> userIds = new ArrayList<>();
+	private final List<Long> vehicleIds = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		User client = TestFixtures.createUser(userRepository, "rental-client", Role.CLIENT);
+		userIds.add(client.getId());
+
+		for (int i = 0; i < VEHICLES; i++) {
+			Vehicle vehicle = vehicleRepository.save(Vehicle.builder()
+					.licensePlate("RC" + client.getId() + "-" + i)
+					.model("Test")
+					.vehicleType("Грузовой")
+					.capacity(10.0)
+					.client(client)
+					.build());
+			vehicleIds.add(vehicle.getId());
+		}
+
+		for (int i = 0; i < DRIVERS; i++) {
+			userIds.add(TestFixtures.saveUser(userRepository, client.getUsername() + "-driver-" + i, Role.DRIVER).getId());
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		MapSqlParameterSource params = new MapSqlParameterSource("vehicleIds", vehicleIds);
+		namedParameterJdbcTemplate.update("DELETE FROM vehicle_rentals WHERE vehicle_id IN (:vehicleIds)", params);
+		namedParameterJdbcTemplate.update("DELETE FROM vehicles WHERE id IN (:vehicleIds)", params);
+		TestFixtures.deleteUsers(namedParameterJdbcTemplate, userIds);
+	}
+
+	@Test
+	void eachVehicleIsRentedByExactlyOneDriver() throws Exception {
+		List<Long> driverIds = userIds.subList(1, userIds.size());
+		Map<Long, Long> winners = new ConcurrentHashMap<>();
+		AtomicInteger rejected = new AtomicInteger();
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		LocalDateTime endDate = LocalDateTime.now().plusDays(1);
+
+		long startedAt;
+		List<Future<?>> futures = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < driverIds.size(); i++) {
+				Long driverId = driverIds.get(i);
+				int offset = i;
+				futures.add(executor.submit(() -> {
+					start.await();
+					// Водитель перебирает весь парк, начиная со «своей» машины, до первой удачной аренды
+					for (int v = 0; v < VEHICLES; v++) {
+						Long vehicleId = vehicleIds.get((offset + v) % VEHICLES);
+						attempts.incrementAndGet();
+						try {
+							vehicleService.rentVehicle(vehicleId, driverId, endDate);
+							assertThat(winners.putIfAbsent(vehicleId, driverId)).isNull();
+							return null;
+						} catch (CustomException e) {
+							rejected.incrementAndGet();
+						}
+					}
+					return null;
+				}));
+			}
+			startedAt = System.nanoTime();
+			start.countDown();
+		}
+		// Ошибка проверки внутри задачи всплывает здесь как ExecutionException
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+		log.info("Попыток аренды: {}, отказов: {}, за {} с ({} попыток/с)",
+				attempts.get(), rejected.get(), String.format("%.3f", seconds),
+				Math.round(attempts.get() / seconds));
+
+		assertThat(winners).hasSize(VEHICLES);
+		assertThat(winners.values()).doesNotHaveDuplicates();
+		assertThat(attempts.get()).isEqualTo(VEHICLES + rejected.get());
+		for (Long vehicleId : vehicleIds) {
+			Vehicle vehicle = vehicleRepository.findById(vehicleId).orElseThrow();
+			assertThat(vehicle.getIsAvailable()).isFalse();
+			assertThat(vehicle.getDriver().getId()).isEqualTo(winners.get(vehicleId));
+		}
+	}
+
+	@Test
+	void onlyRentingDriverCanReturnVehicle() {
+		Long vehicleId = vehicleIds.get(0);
+		Long driverId = userIds.get(1);
+		Long otherDriverId = userIds.get(2);
+
+		vehicleService.rentVehicle(vehicleId, driverId, LocalDateTime.now().plusDays(1));
+
+		assertThatThrownBy(() -> vehicleService.rentVehicle(vehicleId, otherDriverId, LocalDateTime.now().plusDays(1)))
+				.isInstanceOf(CustomException.class)
+				.hasMessage("Транспорт уже арендован");
+		assertThatThrownBy(() -> vehicleService.returnVehicle(vehicleId, otherDriverId))
+				.isInstanceOf(CustomException.class)
+				.hasMessage("Вы не арендовали этот транспорт");
+
+		assertThat(vehicleService.returnVehicle(vehicleId, driverId).getIsAvailable()).isTrue();
+		assertThatThrownBy(() -> vehicleService.returnVehicle(vehicleId, driverId))
+				.isInstanceOf(CustomException.class);
+
+		assertThat(vehicleRentalRepository.countByVehicleIdAndDriverIdAndEndReason(
+				vehicleId, driverId, RentalEndReason.RETURNED)).isEqualTo(1);
+	}
+
+	@Test
+	void fleetIndexFollowsRentReturnAndSweep() {
+		fleetIndex.reload();
+		Long vehicleId = vehicleIds.get(0);
+		Long driverId = userIds.get(1);
+		assertThat(availableIds(null)).containsAll(vehicleIds);
+		assertThat(availableIds(11.0)).doesNotContainAnyElementsOf(vehicleIds);
+
+		vehicleService.rentVehicle(vehicleId, driverId, LocalDateTime.now().plusDays(1));
+		assertThat(availableIds(null)).doesNotContain(vehicleId);
+		assertThat(vehicleService.getRentedVehiclesByDriver(driverId)).extracting(VehicleDTO::getId).containsExactly(vehicleId);
+
+		vehicleService.returnVehicle(vehicleId, driverId);
+		assertThat(availableIds(null)).contains(vehicleId);
+
+		// Аренда истекает — транспорт освобождает плановое завершение
+		vehicleService.rentVehicle(vehicleId, driverId, LocalDateTime.now().plusDays(1));
+		namedParameterJdbcTemplate.update("UPDATE vehicles SET rental_end_date = now() - interval '1 minute' WHERE id = :id",
+				new MapSqlParameterSource("id", vehicleId));
+		vehicleRentalSweeper.sweep();
+		assertThat(availableIds(null)).contains(vehicleId);
+		assertThat(vehicleService.getAllRentedVehicles(null, null)).extracting(VehicleDTO::getId).doesNotContain(vehicleId);
+	}
+
+	private List<Long> availableIds(Double minCapacity) {
+		return vehicleService.getAvailableVehicles("груз", minCapacity).stream().map(VehicleDTO::getId).toList();
+	}
+}